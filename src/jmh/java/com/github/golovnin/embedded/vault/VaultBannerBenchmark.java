@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.io.Processors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of extracting the startup info, e.g. the unseal key,
+ * from the banner printed by a dev server and of detecting the end of the
+ * banner by the log watch.
+ *
+ * @author Andrej Golovnin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VaultBannerBenchmark {
+
+    static final String BANNER =
+          "==> Vault server configuration:\n"
+        + "\n"
+        + "             Api Address: http://127.0.0.1:8200\n"
+        + "                     Cgo: disabled\n"
+        + "         Cluster Address: https://127.0.0.1:8201\n"
+        + "              Listener 1: tcp (addr: \"127.0.0.1:8200\", cluster address: \"127.0.0.1:8201\", max_request_duration: \"1m30s\", max_request_size: \"33554432\", tls: \"disabled\")\n"
+        + "               Log Level: info\n"
+        + "                   Mlock: supported: true, enabled: false\n"
+        + "                 Storage: inmem\n"
+        + "                 Version: Vault v0.11.1\n"
+        + "             Version Sha: 8575f8fedcf8f5a6eb2b4701cb527b99574b5286\n"
+        + "\n"
+        + "WARNING! dev mode is enabled! In this mode, Vault runs entirely in-memory\n"
+        + "and starts unsealed with a single unseal key. The root token is already\n"
+        + "authenticated to the CLI, so you can immediately begin using Vault.\n"
+        + "\n"
+        + "You may need to set the following environment variable:\n"
+        + "\n"
+        + "    $ export VAULT_ADDR='http://127.0.0.1:8200'\n"
+        + "\n"
+        + "The unseal key and root token are displayed below in case you want to\n"
+        + "seal/unseal the Vault or re-authenticate.\n"
+        + "\n"
+        + "Unseal Key: yQ8Y1Z0Ks9bVh2sHnQ5Yb6o3cXo2mBkR0c1j9nJ8u5A=\n"
+        + "Root Token: 6d3a5c0e-4f8d-4b3c-9a0e-1f2b3c4d5e6f\n"
+        + "\n"
+        + "Development mode should NOT be used in production installations!\n"
+        + "\n"
+        + "==> Vault server started! Log data will stream in below:\n"
+        + "\n";
+
+    private String[] blocks;
+    private VaultStartupInfo info;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int count = (BANNER.length() + 511) / 512;
+        blocks = new String[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = BANNER.substring(
+                i * 512, Math.min(BANNER.length(), (i + 1) * 512));
+        }
+    }
+
+    @Benchmark
+    public VaultStartupInfo parseBanner() {
+        VaultBannerParser parser = new VaultBannerParser(i -> info = i);
+        for (String block : blocks) {
+            parser.accept(block);
+        }
+        return info;
+    }
+
+    @Benchmark
+    public boolean watchBanner() {
+        VaultLogWatch logWatch = new VaultLogWatch(
+            "==> Vault server started!", Collections.singleton("Error "),
+            Processors.silent());
+        for (String block : blocks) {
+            logWatch.process(block);
+        }
+        return logWatch.isInitWithSuccess();
+    }
+
+}
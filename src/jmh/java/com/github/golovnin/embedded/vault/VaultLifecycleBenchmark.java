@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.config.RuntimeConfigBuilder;
+import de.flapdoodle.embed.process.config.io.ProcessOutput;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.extract.ImmutableExtractedFileSet;
+import de.flapdoodle.embed.process.runtime.ICommandLinePostProcessor;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of prepare, start and stop of a server. The server
+ * is a shell script printing the banner of a dev server, so the benchmark
+ * measures the launcher and not Vault. Requires a Unix system.
+ *
+ * @author Andrej Golovnin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VaultLifecycleBenchmark {
+
+    private Path dir;
+    private VaultServerStarter starter;
+    private VaultServerConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (Platform.detect() == Platform.Windows) {
+            throw new IllegalStateException("The fake executable requires a Unix system");
+        }
+        dir = Files.createTempDirectory("embedded-vault-benchmark");
+        Path executable = dir.resolve("vault");
+        try (InputStream in = VaultLifecycleBenchmark.class
+            .getResourceAsStream("fake-vault"))
+        {
+            Files.copy(in, executable, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (!executable.toFile().setExecutable(true)) {
+            throw new IOException("Could not make " + executable + " executable");
+        }
+        starter = VaultServerStarter.getInstance(new RuntimeConfigBuilder()
+            .processOutput(ProcessOutput.getDefaultInstanceSilent())
+            .commandLinePostProcessor(new ICommandLinePostProcessor.Noop())
+            .artifactStore(new FakeArtifactStore(dir.toFile()))
+            .build());
+        config = new VaultServerConfig.Builder().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        VaultFixture.delete(dir);
+    }
+
+    @Benchmark
+    public VaultServerProcess prepareStartStop() throws IOException {
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            return executable.start();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    private static final class FakeArtifactStore implements IArtifactStore {
+
+        private final File dir;
+
+        FakeArtifactStore(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public boolean checkDistribution(Distribution distribution) {
+            return true;
+        }
+
+        @Override
+        public IExtractedFileSet extractFileSet(Distribution distribution) {
+            return ImmutableExtractedFileSet.builder(dir)
+                .baseDirIsGenerated(false)
+                .executable(new File("vault"))
+                .build();
+        }
+
+        @Override
+        public void removeFileSet(Distribution distribution,
+            IExtractedFileSet files)
+        {
+            // The fake executable is shared by all servers.
+        }
+
+    }
+
+}
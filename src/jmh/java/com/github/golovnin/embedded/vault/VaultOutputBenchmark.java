@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+import de.flapdoodle.embed.process.io.Processors;
+import de.flapdoodle.embed.process.io.StreamToLineProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the output path of a server, i.e. the chain of
+ * processors the reader thread passes every block of stderr through. The
+ * blocks are 512 characters long like the blocks read by flapdoodle and
+ * contain log lines of the given level. With {@code parseEvents} the lines
+ * are parsed into {@link VaultLogEvent}s as well.
+ *
+ * @author Andrej Golovnin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VaultOutputBenchmark {
+
+    static final int BLOCKS = 128;
+
+    private static final int BLOCK_SIZE = 512;
+
+    @Param({"TRACE", "DEBUG", "INFO", "WARN", "ERR"})
+    public VaultLogLevel level;
+
+    @Param({"false", "true"})
+    public boolean parseEvents;
+
+    private String[] blocks;
+    private VaultOutputPipeline pipeline;
+    private IStreamProcessor stderr;
+    private long events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        blocks = blocksOf(level, BLOCKS);
+        pipeline = new VaultOutputPipeline(1024, VaultOutputOverflow.BLOCK);
+        IStreamProcessor stream = pipeline.connect(
+            StreamToLineProcessor.wrap(Processors.silent()),
+            VaultServerConfig.Builder.NOP_CONSUMER);
+        if (parseEvents) {
+            stream = pipeline.connect(stream,
+                new VaultLogParser(event -> events++));
+        }
+        VaultRecentOutput recent = new VaultRecentOutput(16 * 1024);
+        stderr = new VaultOutputProcessor(stream, recent::append);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stderr.onProcessed();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public void process() {
+        for (String block : blocks) {
+            stderr.process(block);
+        }
+    }
+
+    /**
+     * Returns the given number of blocks of log lines as written by Vault
+     * at the given level. Lines are split across blocks.
+     */
+    static String[] blocksOf(VaultLogLevel level, int count) {
+        String[] lines = linesOf(level);
+        StringBuilder sb = new StringBuilder(count * BLOCK_SIZE);
+        for (int i = 0; sb.length() < count * BLOCK_SIZE; i++) {
+            sb.append(lines[i % lines.length]).append('\n');
+        }
+        String[] blocks = new String[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = sb.substring(i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE);
+        }
+        return blocks;
+    }
+
+    private static String[] linesOf(VaultLogLevel level) {
+        String prefix = "2018-10-01T12:00:00.123+0200 ";
+        List<String> lines = new ArrayList<>();
+        switch (level) {
+            case TRACE:
+                lines.add(prefix + "[TRACE] core: adding write-forwarded path: path=sys/mounts/ type=kv");
+                lines.add(prefix + "[TRACE] expiration: lease restore complete: lease_count=0 duration=12.5ms");
+                lines.add(prefix + "[TRACE] rollback: attempting rollback: path=secret/ request_id=\"2b9f3c1e-54a0-4d3e-8c38-21d4f9d9a7e1\"");
+                break;
+            case DEBUG:
+                lines.add(prefix + "[DEBUG] core: cluster listener setup function");
+                lines.add(prefix + "[DEBUG] core.cluster-listener: starting listener: listener_address=127.0.0.1:8201");
+                lines.add(prefix + "[DEBUG] token: creating token: policies=[root] ttl=0s");
+                break;
+            case INFO:
+                lines.add(prefix + "[INFO]  core: security barrier initialized: shares=1 threshold=1");
+                lines.add(prefix + "[INFO]  core: post-unseal setup starting");
+                lines.add(prefix + "[INFO]  core: successfully mounted backend: type=kv path=secret/");
+                break;
+            case WARN:
+                lines.add(prefix + "[WARN]  no `api_addr` value specified in config or in VAULT_API_ADDR; falling back to detection if possible");
+                lines.add(prefix + "[WARN]  core: mlock not supported on this system");
+                break;
+            case ERR:
+                lines.add(prefix + "[ERROR] core: failed to lookup token: error=\"permission denied\"");
+                lines.add(prefix + "[ERROR] expiration: failed to revoke lease: lease_id=auth/token/create/3b3e error=\"context canceled\"");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown level " + level);
+        }
+        return lines.toArray(new String[0]);
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handle to a Vault server which is started on demand. The server is not
+ * started before the first call of an accessor, e.g. {@link #getAddress()},
+ * and stopped when no accessor has been called for the idle timeout. The
+ * next call of an accessor starts the server again.
+ *
+ * <p>A test class may declare a lazy server and pay for the start of Vault
+ * only on the code paths which use it. Callers should acquire the server
+ * through an accessor for every use and not keep the returned values for
+ * longer than the idle timeout, because a restarted server has a new
+ * storage and may listen on a new port.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerStarter#lazy(VaultServerConfig, long, TimeUnit)
+ */
+public final class LazyVaultServer implements Closeable {
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS =
+        TimeUnit.MINUTES.toMillis(1);
+
+    private final VaultServerStarter starter;
+    private final VaultServerConfig config;
+    private final long idleTimeoutNanos;
+    private VaultServerExecutable executable;
+    private VaultServerProcess process;
+    private ScheduledFuture<?> idleCheck;
+    private long lastAcquireTime;
+    private int startCount;
+    private int idleStopCount;
+    private boolean closed;
+
+    LazyVaultServer(VaultServerStarter starter, VaultServerConfig config,
+        long idleTimeout, TimeUnit unit)
+    {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException(
+                "idleTimeout must be greater than 0, but was " + idleTimeout);
+        }
+        this.starter = starter;
+        this.config = config;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    }
+
+    /**
+     * Returns the running server and starts it if necessary.
+     *
+     * @throws IllegalStateException if the handle is closed
+     */
+    public synchronized VaultServerProcess getProcess() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Handle is closed");
+        }
+        lastAcquireTime = System.nanoTime();
+        if (process == null || !process.isProcessRunning()) {
+            start();
+        }
+        return process;
+    }
+
+    /**
+     * Returns the address of the server API, e.g. {@code http://127.0.0.1:8200}.
+     */
+    public String getAddress() throws IOException {
+        return VaultCluster.apiAddressOf(getProcess());
+    }
+
+    public String getListenerHost() throws IOException {
+        return getProcess().getConfig().getListenerHost();
+    }
+
+    public int getListenerPort() throws IOException {
+        return getProcess().getConfig().getListenerPort();
+    }
+
+    public String getRootTokenID() throws IOException {
+        return getProcess().getConfig().getRootTokenID();
+    }
+
+    public String getUnsealKey() throws IOException {
+        return getProcess().getUnsealKey();
+    }
+
+    public VaultServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns {@code true} if the server is running. Unlike the accessors
+     * this method does not start the server.
+     */
+    public synchronized boolean isRunning() {
+        return process != null && process.isProcessRunning();
+    }
+
+    /**
+     * Returns how many times the server has been started.
+     */
+    public synchronized int getStartCount() {
+        return startCount;
+    }
+
+    /**
+     * Returns how many times the server has been stopped because it was
+     * idle.
+     */
+    public synchronized int getIdleStopCount() {
+        return idleStopCount;
+    }
+
+    /**
+     * Stops the server. The accessors fail after the handle is closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        stop();
+    }
+
+    private void start() throws IOException {
+        stop();
+        VaultServerExecutable newExecutable = starter.prepare(config);
+        try {
+            process = newExecutable.start();
+        } catch (IOException | RuntimeException e) {
+            newExecutable.stop();
+            throw e;
+        }
+        executable = newExecutable;
+        startCount++;
+        scheduleIdleCheck(idleTimeoutNanos);
+    }
+
+    private void stop() {
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
+        if (executable != null) {
+            VaultServerExecutable stopped = executable;
+            executable = null;
+            process = null;
+            stopped.stop();
+        }
+    }
+
+    private void scheduleIdleCheck(long delayNanos) {
+        // The check is rescheduled instead of being scheduled on every
+        // acquisition, so the accessors stay cheap.
+        idleCheck = VaultThreads.scheduler().schedule(
+            () -> VaultThreads.defaultExecutor().execute(this::stopIfIdle),
+            delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void stopIfIdle() {
+        if (executable == null) {
+            return;
+        }
+        long idleNanos = System.nanoTime() - lastAcquireTime;
+        if (idleNanos >= idleTimeoutNanos) {
+            idleStopCount++;
+            stop();
+        } else {
+            scheduleIdleCheck(idleTimeoutNanos - idleNanos);
+        }
+    }
+
+}
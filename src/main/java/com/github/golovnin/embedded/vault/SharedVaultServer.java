@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.flapdoodle.embed.process.runtime.ProcessControl;
+
+/**
+ * A reference-counted handle to a Vault server shared by all callers within
+ * the JVM which use an equal {@link VaultServerConfig}. Generated values, i.e.
+ * the generated root token ID and the port chosen by
+ * {@link VaultServerConfig.Builder#randomPort()}, are ignored, so configs
+ * built the same way share one server. The server is started by the first
+ * handle and stopped when the last handle is closed or when the JVM shuts
+ * down. Use the config of {@link #getProcess()} to get the address and the
+ * root token of the server.
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerStarter#shared(VaultServerConfig)
+ */
+public final class SharedVaultServer implements Closeable {
+
+    private static final Map<VaultServerConfig, Instance> INSTANCES =
+        new HashMap<>();
+
+    private static boolean shutdownHookRegistered;
+
+    private final Instance instance;
+    private final AtomicBoolean closed;
+
+    private SharedVaultServer(Instance instance) {
+        this.instance = instance;
+        this.closed = new AtomicBoolean();
+    }
+
+    static SharedVaultServer acquire(VaultServerStarter starter,
+        VaultServerConfig config) throws IOException
+    {
+        Instance instance;
+        synchronized (INSTANCES) {
+            if (!shutdownHookRegistered) {
+                ProcessControl.addShutdownHook(SharedVaultServer::stopAll);
+                shutdownHookRegistered = true;
+            }
+            instance = INSTANCES.computeIfAbsent(config.sharingKey(),
+                key -> new Instance(key, config));
+            instance.references.incrementAndGet();
+        }
+        try {
+            instance.ensureStarted(starter);
+        } catch (IOException | RuntimeException e) {
+            instance.release();
+            throw e;
+        }
+        return new SharedVaultServer(instance);
+    }
+
+    public VaultServerProcess getProcess() {
+        if (closed.get()) {
+            throw new IllegalStateException("Handle is closed");
+        }
+        return instance.process;
+    }
+
+    /**
+     * Returns the number of open handles to the underlying server.
+     */
+    public int getReferenceCount() {
+        return instance.references.get();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            instance.release();
+        }
+    }
+
+    private static void stopAll() {
+        List<Instance> instances;
+        synchronized (INSTANCES) {
+            instances = new ArrayList<>(INSTANCES.values());
+            INSTANCES.clear();
+        }
+        VaultThreads.runInParallel(instances, Instance::stop);
+    }
+
+    private static final class Instance {
+
+        final VaultServerConfig key;
+        final VaultServerConfig config;
+        final AtomicInteger references;
+        VaultServerExecutable executable;
+        volatile VaultServerProcess process;
+
+        Instance(VaultServerConfig key, VaultServerConfig config) {
+            this.key = key;
+            this.config = config;
+            this.references = new AtomicInteger();
+        }
+
+        synchronized void ensureStarted(VaultServerStarter starter)
+            throws IOException
+        {
+            if (process == null) {
+                VaultServerExecutable newExecutable = starter.prepare(config);
+                try {
+                    process = newExecutable.start();
+                } catch (IOException | RuntimeException e) {
+                    newExecutable.stop();
+                    throw e;
+                }
+                executable = newExecutable;
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                synchronized (this) {
+                    // Somebody may have acquired the server in the meantime.
+                    if (references.get() == 0) {
+                        stop();
+                    }
+                }
+                synchronized (INSTANCES) {
+                    if (references.get() == 0) {
+                        INSTANCES.remove(key, this);
+                    }
+                }
+            }
+        }
+
+        synchronized void stop() {
+            if (executable != null) {
+                executable.stop();
+                executable = null;
+                process = null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parses the startup banner of a Vault server:
+ * <pre>
+ * ==&gt; Vault server configuration:
+ *
+ *              Api Address: http://127.0.0.1:8200
+ *          Cluster Address: https://127.0.0.1:8201
+ *                  Version: Vault v0.11.1
+ * ...
+ * Unseal Key: ...
+ * Root Token: ...
+ * ...
+ * ==&gt; Vault server started! Log data will stream in below:
+ * </pre>
+ *
+ * <p>When the banner is complete, the parser passes the collected
+ * {@link VaultStartupInfo} to the callback and ignores all further output.
+ * The callback is expected to remove the parser from the output path.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultBannerParser implements Consumer<String> {
+
+    private static final String END_OF_BANNER = "==> Vault server started!";
+    private static final String API_ADDRESS = "Api Address:";
+    private static final String CLUSTER_ADDRESS = "Cluster Address:";
+    private static final String VERSION = "Version:";
+    private static final String VERSION_PREFIX = "Vault v";
+    private static final String ROOT_TOKEN = "Root Token:";
+    private static final String UNSEAL_KEY = "Unseal Key:";
+
+    private final Consumer<VaultStartupInfo> callback;
+    private final CountDownLatch complete = new CountDownLatch(1);
+    private final StringBuilder carry = new StringBuilder();
+    private String apiAddress;
+    private String clusterAddress;
+    private String rootToken;
+    private String unsealKey;
+    private String version;
+
+    VaultBannerParser(Consumer<VaultStartupInfo> callback) {
+        this.callback = requireNonNull(callback, "callback may not be null");
+    }
+
+    @Override
+    public void accept(String block) {
+        int from = 0;
+        int length = block.length();
+        while (from < length && complete.getCount() > 0) {
+            int nl = block.indexOf('\n', from);
+            if (nl < 0) {
+                carry.append(block, from, length);
+                return;
+            }
+            if (carry.length() > 0) {
+                carry.append(block, from, nl);
+                String line = carry.toString();
+                carry.setLength(0);
+                parseLine(line, 0, line.length());
+            } else {
+                parseLine(block, from, nl);
+            }
+            from = nl + 1;
+        }
+    }
+
+    /**
+     * Waits until the banner is complete.
+     *
+     * @return {@code true} if the banner is complete
+     */
+    boolean await(long timeout, TimeUnit unit) {
+        try {
+            return complete.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void parseLine(String s, int start, int end) {
+        while (start < end && s.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        String value;
+        if ((value = valueOf(s, start, end, API_ADDRESS)) != null) {
+            apiAddress = value;
+        } else if ((value = valueOf(s, start, end, CLUSTER_ADDRESS)) != null) {
+            clusterAddress = value;
+        } else if ((value = valueOf(s, start, end, VERSION)) != null) {
+            version = value.startsWith(VERSION_PREFIX)
+                ? value.substring(VERSION_PREFIX.length())
+                : value;
+        } else if ((value = valueOf(s, start, end, ROOT_TOKEN)) != null) {
+            rootToken = value;
+        } else if ((value = valueOf(s, start, end, UNSEAL_KEY)) != null) {
+            unsealKey = value;
+        } else if (s.startsWith(END_OF_BANNER, start)) {
+            callback.accept(new VaultStartupInfo(apiAddress, clusterAddress,
+                rootToken, unsealKey, version));
+            complete.countDown();
+        }
+    }
+
+    private static String valueOf(String s, int start, int end, String key) {
+        if (!s.startsWith(key, start)) {
+            return null;
+        }
+        int i = start + key.length();
+        while (i < end && s.charAt(i) == ' ') {
+            i++;
+        }
+        return s.substring(i, end);
+    }
+
+}
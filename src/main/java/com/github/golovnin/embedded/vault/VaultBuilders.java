@@ -33,20 +33,31 @@ package com.github.golovnin.embedded.vault;
 import de.flapdoodle.embed.process.config.RuntimeConfigBuilder;
 import de.flapdoodle.embed.process.config.io.ProcessOutput;
 import de.flapdoodle.embed.process.config.store.DownloadConfigBuilder;
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
 import de.flapdoodle.embed.process.extract.ITempNaming;
 import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.directories.IDirectory;
 import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
 import de.flapdoodle.embed.process.io.directories.UserHome;
 import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
 import de.flapdoodle.embed.process.runtime.ICommandLinePostProcessor;
-import de.flapdoodle.embed.process.store.Downloader;
 import de.flapdoodle.embed.process.store.ExtractedArtifactStoreBuilder;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+import de.flapdoodle.embed.process.store.IDownloader;
 
 /**
  * @author Andrej Golovnin
  */
 final class VaultBuilders {
 
+    static final String ARTIFACT_STORE_PATH = ".embedded-vault";
+
+    /**
+     * System property which restores the old behaviour of copying the
+     * executable to the temp directory for every server.
+     */
+    static final String COPY_EXECUTABLE_PROPERTY = "embedded.vault.copyExecutable";
+
     private VaultBuilders() {
         // NOP
     }
@@ -56,27 +67,54 @@ final class VaultBuilders {
             .fileNaming(new UUIDTempNaming())
             .downloadPath("https://releases.hashicorp.com/vault/")
             .progressListener(new StandardConsoleProgressListener())
-            .artifactStorePath(new UserHome(".embedded-vault"))
+            .artifactStorePath(new UserHome(ARTIFACT_STORE_PATH))
             .downloadPrefix("embedded-vault-download")
             .packageResolver(new VaultPackageResolver())
             .userAgent("Mozilla/5.0 (compatible; Embedded Vault; +https://github.com/golovnin/embedded-vault)");
     }
 
     static RuntimeConfigBuilder runtimeConfigBuilder() {
+        return runtimeConfigBuilder(new VaultDownloader());
+    }
+
+    static RuntimeConfigBuilder runtimeConfigBuilder(IDownloader downloader) {
+        return runtimeConfigBuilder(downloader,
+            Boolean.getBoolean(COPY_EXECUTABLE_PROPERTY));
+    }
+
+    /**
+     * @param copyExecutable {@code true} to run every server from its own
+     *        copy of the executable in the temp directory, {@code false} to
+     *        run all servers straight from the extract directory
+     */
+    static RuntimeConfigBuilder runtimeConfigBuilder(IDownloader downloader,
+        boolean copyExecutable)
+    {
+        IDownloadConfig downloadConfig = downloadConfigBuilder().build();
+        IDirectory extractDir = new UserHome(ARTIFACT_STORE_PATH + "/extracted");
+        IArtifactStore store =
+            storeBuilder(downloadConfig, extractDir, downloader).build();
+        if (!copyExecutable) {
+            store = new VaultReusingArtifactStore(store, extractDir);
+        }
         return new RuntimeConfigBuilder()
             .processOutput(ProcessOutput.getDefaultInstance("vault"))
             .commandLinePostProcessor(new ICommandLinePostProcessor.Noop())
-            .artifactStore(storeBuilder().build());
+            .artifactStore(new VaultVerifyingArtifactStore(
+                store, downloadConfig, extractDir));
     }
 
-    private static ExtractedArtifactStoreBuilder storeBuilder() {
+    private static ExtractedArtifactStoreBuilder storeBuilder(
+        IDownloadConfig downloadConfig, IDirectory extractDir,
+        IDownloader downloader)
+    {
         return new ExtractedArtifactStoreBuilder()
-            .extractDir(new UserHome(".embedded-vault/extracted"))
+            .extractDir(extractDir)
             .extractExecutableNaming(new OriginNaming())
             .tempDir(new PropertyOrPlatformTempDir())
             .executableNaming(new UUIDTempNaming())
-            .download(downloadConfigBuilder().build())
-            .downloader(new Downloader());
+            .download(downloadConfig)
+            .downloader(downloader);
     }
 
     private static final class OriginNaming implements ITempNaming {
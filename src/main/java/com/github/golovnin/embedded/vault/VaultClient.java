@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A small HTTP client for the API of a Vault server. The client keeps its
+ * connections alive and reuses them for subsequent requests. The number
+ * of concurrent requests is limited, callers exceeding the limit wait for
+ * a running request to complete.
+ *
+ * <p>Paths are relative to {@code /v1/}, e.g. {@code secret/foo}. Request
+ * and response bodies are JSON objects represented as {@link Map}s.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultClient implements Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final String host;
+    private final int port;
+    private final String unixSocket;
+    private final String token;
+    private final Semaphore inFlight;
+    private final ConcurrentLinkedDeque<VaultHttpConnection> idle;
+    private final AtomicLong openedConnections;
+    private volatile boolean closed;
+
+    /**
+     * Creates a client for the given server, which authenticates with the
+     * root token of the server. The client connects to the unix socket of
+     * the server, if the server listens on a unix socket.
+     */
+    public VaultClient(VaultServerProcess process) {
+        this(process, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public VaultClient(VaultServerProcess process, int maxInFlight) {
+        this(process.getConfig(), maxInFlight);
+    }
+
+    VaultClient(VaultServerConfig config, int maxInFlight) {
+        this(config.getListenerHost(), config.getListenerPort(),
+            config.getUnixSocket(), config.getRootTokenID(), maxInFlight);
+    }
+
+    /**
+     * @param token the token used to authenticate, may be {@code null}
+     * @param maxInFlight the maximum number of concurrent requests
+     */
+    public VaultClient(String host, int port, String token, int maxInFlight) {
+        this(requireNonNull(host, "host may not be null"), port, null,
+            token, maxInFlight);
+    }
+
+    /**
+     * Creates a client connecting to the given unix socket. Unix sockets
+     * require Java 16 or newer.
+     *
+     * @param token the token used to authenticate, may be {@code null}
+     * @param maxInFlight the maximum number of concurrent requests
+     */
+    public VaultClient(Path unixSocket, String token, int maxInFlight) {
+        this("localhost", 0,
+            requireNonNull(unixSocket, "unixSocket may not be null").toString(),
+            token, maxInFlight);
+    }
+
+    private VaultClient(String host, int port, String unixSocket,
+        String token, int maxInFlight)
+    {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                "maxInFlight must be greater than 0, but was " + maxInFlight);
+        }
+        this.host = VaultHealthProbe.probeHost(host);
+        this.port = port;
+        this.unixSocket = unixSocket;
+        this.token = token;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.idle = new ConcurrentLinkedDeque<>();
+        this.openedConnections = new AtomicLong();
+    }
+
+    /**
+     * Reads the given path and returns the response or {@code null} if
+     * the path does not exist.
+     */
+    public Map<String, Object> read(String path) throws IOException {
+        VaultHttpConnection.Response response = send("GET", path, null);
+        if (response.status == 404) {
+            return null;
+        }
+        return toResult("GET", path, response);
+    }
+
+    /**
+     * Writes the data to the given path and returns the response or
+     * {@code null} if the response has no body.
+     */
+    public Map<String, Object> write(String path, Map<String, ?> data)
+        throws IOException
+    {
+        return request("PUT", path, requireNonNull(data, "data may not be null"));
+    }
+
+    public void delete(String path) throws IOException {
+        request("DELETE", path, null);
+    }
+
+    /**
+     * Sends a request and returns the response or {@code null} if the
+     * response has no body.
+     *
+     * @param body the request body, may be {@code null}
+     * @throws IOException if the server responds with an error status
+     */
+    public Map<String, Object> request(String method, String path, Object body)
+        throws IOException
+    {
+        return toResult(method, path, send(method, path, body));
+    }
+
+    /**
+     * Returns the number of connections opened by this client. A number
+     * much lower than the number of requests means that the connections
+     * were reused.
+     */
+    public long getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    /**
+     * Closes all idle connections. Requests in progress are completed,
+     * but their connections are not reused.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        VaultHttpConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private VaultHttpConnection.Response send(String method, String path,
+        Object body) throws IOException
+    {
+        requireNonNull(method, "method may not be null");
+        requireNonNull(path, "path may not be null");
+        String uri = "/v1/" + (path.startsWith("/") ? path.substring(1) : path);
+        byte[] content = body != null
+            ? VaultJson.writeCompact(body).getBytes(StandardCharsets.UTF_8)
+            : null;
+        return exchange(method, uri, token, content);
+    }
+
+    /**
+     * Sends the raw request over a pooled connection.
+     *
+     * @param uri the request URI including the prefix {@code /v1/}
+     * @param token the token to send instead of the token of this client
+     * @param content the request body, may be {@code null}
+     */
+    VaultHttpConnection.Response exchange(String method, String uri,
+        String token, byte[] content) throws IOException
+    {
+        if (closed) {
+            throw new IOException("Client is closed");
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while waiting for a connection");
+        }
+        try {
+            // The most recently used connection is the least likely one
+            // to be closed by the server because of the idle timeout.
+            VaultHttpConnection connection = idle.pollFirst();
+            boolean reused = connection != null;
+            if (connection == null) {
+                connection = open();
+            }
+            VaultHttpConnection.Response response;
+            try {
+                response = connection.exchange(method, uri, token, content);
+            } catch (EOFException | SocketException e) {
+                connection.close();
+                // The server may have closed the idle connection before it
+                // has received the request, but it may also have failed
+                // after processing it. Only requests which may be sent
+                // twice are retried.
+                if (!reused || !isIdempotent(method)) {
+                    throw e;
+                }
+                connection = open();
+                try {
+                    response = connection.exchange(method, uri, token, content);
+                } catch (IOException | RuntimeException retryFailure) {
+                    connection.close();
+                    throw retryFailure;
+                }
+            } catch (IOException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            if (connection.isReusable() && !closed) {
+                idle.offerFirst(connection);
+                if (closed && idle.remove(connection)) {
+                    connection.close();
+                }
+            } else {
+                connection.close();
+            }
+            return response;
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private static boolean isIdempotent(String method) {
+        switch (method) {
+            case "GET":
+            case "LIST":
+            case "HEAD":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private VaultHttpConnection open() throws IOException {
+        VaultHttpConnection connection = unixSocket != null
+            ? VaultHttpConnection.open(unixSocket, READ_TIMEOUT_MILLIS)
+            : VaultHttpConnection.open(
+                host, port, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+        openedConnections.incrementAndGet();
+        return connection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toResult(String method, String path,
+        VaultHttpConnection.Response response) throws IOException
+    {
+        String content = response.contentAsString();
+        if (response.status >= 400) {
+            throw new IOException(method + ' ' + path + " failed with HTTP "
+                + response.status + ": " + content);
+        }
+        if (content.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            Object json = VaultJson.parse(content);
+            if (!(json instanceof Map)) {
+                throw new IOException(
+                    method + ' ' + path + " returned no JSON object: " + content);
+            }
+            return (Map<String, Object>) json;
+        } catch (IllegalArgumentException e) {
+            throw new IOException(
+                method + ' ' + path + " returned invalid JSON: " + content, e);
+        }
+    }
+
+}
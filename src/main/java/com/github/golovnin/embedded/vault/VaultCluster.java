@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cluster of Vault servers started by {@link VaultClusterStarter}.
+ * The leader may change at any time, e.g. when the leader is stopped,
+ * therefore the leader is looked up on every call.
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultCluster implements Closeable {
+
+    private static final long MIN_DELAY_MILLIS = 5;
+    private static final long MAX_DELAY_MILLIS = 250;
+
+    private final List<Node> nodes;
+    private final List<VaultServerProcess> processes;
+    private final String rootTokenID;
+    private final String unsealKey;
+
+    VaultCluster(List<Node> nodes, String rootTokenID, String unsealKey) {
+        this.nodes = new ArrayList<>(nodes);
+        List<VaultServerProcess> processes = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            processes.add(node.process);
+        }
+        this.processes = Collections.unmodifiableList(processes);
+        this.rootTokenID = rootTokenID;
+        this.unsealKey = unsealKey;
+    }
+
+    /**
+     * Returns all nodes of the cluster in the order they were started,
+     * including stopped nodes.
+     */
+    public List<VaultServerProcess> getNodes() {
+        return processes;
+    }
+
+    public String getRootTokenID() {
+        return rootTokenID;
+    }
+
+    public String getUnsealKey() {
+        return unsealKey;
+    }
+
+    /**
+     * Returns the running node which is the active node of the cluster or
+     * {@code null} if there is no leader at the moment.
+     */
+    public VaultServerProcess getLeader() {
+        for (Node node : nodes) {
+            if (node.isRunning() && isLeader(node.process)) {
+                return node.process;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all running nodes except the leader.
+     */
+    public List<VaultServerProcess> getFollowers() {
+        VaultServerProcess leader = getLeader();
+        List<VaultServerProcess> followers = new ArrayList<>(processes.size());
+        for (Node node : nodes) {
+            if (node.process != leader && node.isRunning()) {
+                followers.add(node.process);
+            }
+        }
+        return followers;
+    }
+
+    /**
+     * Returns the API address of the leader, e.g.
+     * {@code http://127.0.0.1:8200}, or {@code null} if there is no leader
+     * at the moment.
+     */
+    public String getLeaderAddress() {
+        VaultServerProcess leader = getLeader();
+        return leader != null ? apiAddressOf(leader) : null;
+    }
+
+    public List<String> getFollowerAddresses() {
+        List<String> addresses = new ArrayList<>();
+        for (VaultServerProcess follower : getFollowers()) {
+            addresses.add(apiAddressOf(follower));
+        }
+        return addresses;
+    }
+
+    /**
+     * Waits until one of the running nodes has become the leader, e.g.
+     * after the previous leader was stopped. Combined with
+     * {@link #stop(VaultServerProcess)} it allows to measure the failover
+     * time of the cluster.
+     *
+     * @throws IOException if there is no leader after the timeout
+     */
+    public VaultServerProcess awaitLeader(long timeout, TimeUnit unit)
+        throws IOException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long delay = MIN_DELAY_MILLIS;
+        while (true) {
+            VaultServerProcess leader = getLeader();
+            if (leader != null) {
+                return leader;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(
+                deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new IOException(
+                    "The cluster has not elected a leader within "
+                    + unit.toMillis(timeout) + " ms");
+            }
+            try {
+                Thread.sleep(Math.min(delay, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a leader", e);
+            }
+            delay = Math.min(delay * 2, MAX_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Stops the given node. The data directory of the node is deleted when
+     * the cluster is closed.
+     */
+    public void stop(VaultServerProcess process) {
+        for (Node node : nodes) {
+            if (node.process == process) {
+                node.stopped = true;
+                node.executable.stop();
+                return;
+            }
+        }
+        throw new IllegalArgumentException(
+            "The process is not a node of this cluster");
+    }
+
+    /**
+     * Stops all nodes concurrently and deletes their data directories.
+     */
+    @Override
+    public void close() {
+        VaultThreads.runInParallel(nodes, Node::stop);
+    }
+
+    static String apiAddressOf(VaultServerProcess process) {
+        VaultServerConfig config = process.getConfig();
+        return "http://" + VaultHealthProbe.probeHost(config.getListenerHost())
+            + ':' + config.getListenerPort();
+    }
+
+    private static boolean isLeader(VaultServerProcess process) {
+        try {
+            Object response = VaultHttp.request(process.getConfig(),
+                "GET", "/v1/sys/leader", null, null);
+            return Boolean.TRUE.equals(VaultJson.get(response, "is_self"));
+        } catch (IOException e) {
+            // The node is not reachable or not unsealed.
+            return false;
+        }
+    }
+
+    static final class Node {
+
+        final VaultServerExecutable executable;
+        final VaultServerProcess process;
+        final File dataDir;
+        volatile boolean stopped;
+
+        Node(VaultServerExecutable executable, VaultServerProcess process,
+            File dataDir)
+        {
+            this.executable = executable;
+            this.process = process;
+            this.dataDir = dataDir;
+        }
+
+        boolean isRunning() {
+            return !stopped && process.isProcessRunning();
+        }
+
+        void stop() {
+            stopped = true;
+            executable.stop();
+            try {
+                VaultFixture.delete(dataDir.toPath());
+            } catch (IOException e) {
+                // The directory is in the temp directory, the OS will clean it up.
+            }
+        }
+
+    }
+
+}
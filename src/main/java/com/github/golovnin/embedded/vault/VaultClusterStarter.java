@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Starts a cluster of Vault servers using the integrated Raft storage.
+ * All nodes run the same extracted executable, each on its own ports and
+ * with its own data directory. The first node is initialized and becomes
+ * the leader, all other nodes join it in parallel and are unsealed with
+ * the unseal key of the leader.
+ *
+ * <p>The Raft storage requires Vault 1.4 or newer.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultClusterStarter {
+
+    /**
+     * The Vault version used by {@link #start(int)}.
+     */
+    public static final String DEFAULT_VERSION = "1.4.3";
+
+    private final VaultServerStarter starter;
+
+    private VaultClusterStarter(VaultServerStarter starter) {
+        this.starter = starter;
+    }
+
+    public static VaultClusterStarter getInstance(VaultServerStarter starter) {
+        return new VaultClusterStarter(
+            requireNonNull(starter, "starter may not be null"));
+    }
+
+    public static VaultClusterStarter getDefaultInstance() {
+        return getInstance(VaultServerStarter.getDefaultInstance());
+    }
+
+    /**
+     * Starts a cluster of the given size using {@link #DEFAULT_VERSION}.
+     */
+    public VaultCluster start(int size) throws IOException {
+        return start(size,
+            node -> new VaultServerConfig.Builder().version(DEFAULT_VERSION));
+    }
+
+    /**
+     * Starts a cluster of the given size. The config factory is called with
+     * the index of the node and may tune e.g. the version, the log level or
+     * the listener of the node. The listener address, the ports, the storage
+     * and the root token ID are set by this starter and may not be set by
+     * the factory.
+     */
+    public VaultCluster start(int size,
+        IntFunction<VaultServerConfig.Builder> configFactory) throws IOException
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException(
+                "size must be greater than 0, but was " + size);
+        }
+        requireNonNull(configFactory, "configFactory may not be null");
+        String rootTokenID = UUID.randomUUID().toString();
+        List<VaultCluster.Node> nodes = new ArrayList<>(size);
+        try {
+            VaultCluster.Node leader = startNode(
+                configFactory.apply(0), 0, rootTokenID, null);
+            nodes.add(leader);
+            VaultRaftJoin join = new VaultRaftJoin(
+                VaultCluster.apiAddressOf(leader.process),
+                leader.process.getUnsealKey());
+            List<CompletableFuture<VaultCluster.Node>> followers =
+                new ArrayList<>(size - 1);
+            for (int i = 1; i < size; i++) {
+                VaultServerConfig.Builder builder = configFactory.apply(i);
+                int index = i;
+                followers.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return startNode(builder, index, rootTokenID, join);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, VaultThreads.defaultExecutor()));
+            }
+            IOException failure = null;
+            for (CompletableFuture<VaultCluster.Node> follower : followers) {
+                try {
+                    nodes.add(follower.join());
+                } catch (CompletionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException("Could not start cluster node", e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return new VaultCluster(nodes, rootTokenID, join.getUnsealKey());
+        } catch (IOException | RuntimeException e) {
+            VaultThreads.runInParallel(nodes, VaultCluster.Node::stop);
+            throw e;
+        }
+    }
+
+    private VaultCluster.Node startNode(VaultServerConfig.Builder builder,
+        int index, String rootTokenID, VaultRaftJoin join) throws IOException
+    {
+        File dataDir = Files.createTempDirectory("embedded-vault-raft").toFile();
+        VaultServerExecutable executable = null;
+        try {
+            InetAddress address = InetAddress.getByName("127.0.0.1");
+            // The allocator reserves the listener port and the next port.
+            int port = VaultPortAllocator.allocate(address);
+            builder.listenerHost(address.getHostAddress())
+                .listenerPort(port)
+                .clusterPort(port + 1)
+                .rootTokenID(rootTokenID)
+                .storage(VaultStorage.raft(
+                    dataDir.getAbsolutePath(), "node-" + index));
+            if (join != null) {
+                builder.raftJoin(join);
+            }
+            executable = starter.prepare(builder.build());
+            return new VaultCluster.Node(executable, executable.start(), dataDir);
+        } catch (IOException | RuntimeException e) {
+            if (executable != null) {
+                executable.stop();
+            }
+            try {
+                VaultFixture.delete(dataDir.toPath());
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+/**
+ * Receives progress notifications of Vault archive downloads. The methods
+ * may be called concurrently from several download threads.
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerStarter#getInstance(VaultDownloadListener)
+ */
+public interface VaultDownloadListener {
+
+    /**
+     * Called when a download starts.
+     *
+     * @param url the download URL
+     * @param totalBytes the size of the archive or {@code -1} if unknown
+     * @param resumedBytes the number of bytes taken over from an earlier,
+     *        interrupted download
+     */
+    default void onStart(String url, long totalBytes, long resumedBytes) {
+        // NOP
+    }
+
+    /**
+     * Called periodically while a download is in progress.
+     *
+     * @param bytesPerSecond the average throughput of the current download
+     *        session, not counting resumed bytes
+     */
+    default void onProgress(String url, long downloadedBytes, long totalBytes,
+        long bytesPerSecond)
+    {
+        // NOP
+    }
+
+    /**
+     * Called when a download completes successfully.
+     */
+    default void onComplete(String url, long totalBytes, long bytesPerSecond) {
+        // NOP
+    }
+
+}
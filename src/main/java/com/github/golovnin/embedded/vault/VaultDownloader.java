@@ -0,0 +1,501 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.io.progress.IProgressListener;
+import de.flapdoodle.embed.process.store.IDownloader;
+
+/**
+ * Downloads Vault archives using several parallel HTTP range requests.
+ *
+ * <p>The archive is written to a {@code .part} file next to its final
+ * location in the artifact store and moved to that location once it is
+ * complete. Concurrent downloads of the same archive are serialized with
+ * a lock file, so only the first one fetches the archive. The progress
+ * of every segment is recorded in a state file, so an interrupted download
+ * is resumed by the next attempt. Dropped connections are retried from the
+ * last received byte. Servers which do not support range requests are
+ * handled with a single plain request.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultDownloader implements IDownloader {
+
+    static final int DEFAULT_SEGMENTS = 4;
+
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_RETRIES = 5;
+    private static final long RETRY_DELAY_MILLIS = 200;
+    private static final long REPORT_INTERVAL_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long WORKER_SHUTDOWN_MILLIS = 1000;
+
+    private final int segments;
+    private final VaultDownloadListener listener;
+
+    /**
+     * Creates a downloader which reports the progress to the progress
+     * listener of the download config.
+     */
+    VaultDownloader() {
+        this(DEFAULT_SEGMENTS, null);
+    }
+
+    VaultDownloader(int segments, VaultDownloadListener listener) {
+        if (segments < 1) {
+            throw new IllegalArgumentException(
+                "segments must be greater than 0, but was " + segments);
+        }
+        this.segments = segments;
+        this.listener = listener;
+    }
+
+    @Override
+    public String getDownloadUrl(IDownloadConfig downloadConfig,
+        Distribution distribution)
+    {
+        return downloadConfig.getDownloadPath().getPath(distribution)
+            + downloadConfig.getPackageResolver().getPath(distribution);
+    }
+
+    @Override
+    public File download(IDownloadConfig downloadConfig,
+        Distribution distribution) throws IOException
+    {
+        String url = getDownloadUrl(downloadConfig, distribution);
+        File target = new File(downloadConfig.getArtifactStorePath().asFile(),
+            downloadConfig.getPackageResolver().getPath(distribution));
+        File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        VaultDownloadListener downloadListener = listener != null
+            ? listener
+            : new ProgressListenerAdapter(
+                downloadConfig.getProgressListener(), "Download " + distribution);
+        File lockFile = new File(dir, target.getName() + ".lock");
+        // File locks are held on behalf of the whole JVM, so threads must
+        // be serialized separately.
+        synchronized (VaultDownloader.class) {
+            try (
+                FileChannel lockChannel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+            ) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    if (!target.isFile()) {
+                        File partFile = new File(dir, target.getName() + ".part");
+                        new Download(downloadConfig, url, partFile,
+                            downloadListener).run();
+                        Files.move(partFile.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    // The archive is moved to its final location while the
+                    // lock is held, so no other JVM can see or resume a
+                    // completed part file. The artifact store moves the
+                    // returned file to the target, which is a no-op for the
+                    // target itself.
+                    return target;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private final class Download {
+
+        private final IDownloadConfig config;
+        private final String url;
+        private final File partFile;
+        private final File stateFile;
+        private final VaultDownloadListener listener;
+        private final AtomicLong downloaded = new AtomicLong();
+        private final AtomicLong lastReport = new AtomicLong();
+        private final long startTime = System.nanoTime();
+        private long resumed;
+        private long length;
+        private String validator;
+        private List<Segment> parts;
+
+        Download(IDownloadConfig config, String url, File partFile,
+            VaultDownloadListener listener)
+        {
+            this.config = config;
+            this.url = url;
+            this.partFile = partFile;
+            this.stateFile = new File(partFile.getPath() + ".state");
+            this.listener = listener;
+        }
+
+        void run() throws IOException {
+            boolean ranges = probe();
+            if (!ranges || length <= 0) {
+                downloadWhole();
+                return;
+            }
+            restoreOrCreateSegments();
+            listener.onStart(url, length, resumed);
+            ExecutorService executor = Executors.newFixedThreadPool(
+                parts.size(), VaultThreads.daemonThreadFactory("download"));
+            try (FileChannel channel = FileChannel.open(partFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+            {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (Segment segment : parts) {
+                    futures.add(executor.submit(() -> {
+                        fetch(channel, segment);
+                        return null;
+                    }));
+                }
+                await(futures);
+            } finally {
+                // The closed channel stops the remaining segments. They must
+                // not advance after the state has been saved.
+                executor.shutdownNow();
+                awaitTermination(executor);
+                saveState();
+            }
+            Files.deleteIfExists(stateFile.toPath());
+            listener.onComplete(url, length, throughput());
+        }
+
+        /**
+         * Requests the headers of the archive. Returns {@code true} if the
+         * server supports range requests.
+         */
+        private boolean probe() throws IOException {
+            HttpURLConnection connection = open();
+            try {
+                connection.setRequestMethod("HEAD");
+                int status = connection.getResponseCode();
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Could not download " + url
+                        + ": HTTP " + status);
+                }
+                length = connection.getContentLengthLong();
+                String etag = connection.getHeaderField("ETag");
+                validator = etag != null
+                    ? etag
+                    : String.valueOf(connection.getLastModified());
+                return "bytes".equalsIgnoreCase(
+                    connection.getHeaderField("Accept-Ranges"));
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private void downloadWhole() throws IOException {
+            listener.onStart(url, length, 0);
+            HttpURLConnection connection = open();
+            try (
+                InputStream in = connection.getInputStream();
+                OutputStream out = new FileOutputStream(partFile)
+            ) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    downloaded.addAndGet(read);
+                    report();
+                }
+            } finally {
+                connection.disconnect();
+            }
+            if (length > 0 && downloaded.get() != length) {
+                throw new IOException("Incomplete download of " + url
+                    + ": expected " + length + " bytes, but got "
+                    + downloaded.get());
+            }
+            listener.onComplete(url, downloaded.get(), throughput());
+        }
+
+        private void restoreOrCreateSegments() throws IOException {
+            Properties state = new Properties();
+            if (stateFile.isFile() && partFile.isFile()) {
+                try (InputStream in = new FileInputStream(stateFile)) {
+                    state.load(in);
+                }
+            }
+            if (url.equals(state.getProperty("url"))
+                && String.valueOf(length).equals(state.getProperty("length"))
+                && validator.equals(state.getProperty("validator")))
+            {
+                int count = Integer.parseInt(state.getProperty("segments"));
+                parts = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    String[] values = state.getProperty("segment." + i).split(",");
+                    Segment segment = new Segment(
+                        Long.parseLong(values[0]), Long.parseLong(values[1]));
+                    segment.done.set(Long.parseLong(values[2]));
+                    resumed += segment.done.get();
+                    parts.add(segment);
+                }
+            } else {
+                Files.deleteIfExists(partFile.toPath());
+                int count = (int) Math.max(1, Math.min(segments,
+                    length / MIN_SEGMENT_SIZE));
+                long size = length / count;
+                parts = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    long start = i * size;
+                    long end = i == count - 1 ? length - 1 : start + size - 1;
+                    parts.add(new Segment(start, end));
+                }
+                saveState();
+            }
+        }
+
+        private synchronized void saveState() throws IOException {
+            Properties state = new Properties();
+            state.setProperty("url", url);
+            state.setProperty("length", String.valueOf(length));
+            state.setProperty("validator", validator);
+            state.setProperty("segments", String.valueOf(parts.size()));
+            for (int i = 0; i < parts.size(); i++) {
+                Segment segment = parts.get(i);
+                state.setProperty("segment." + i, segment.start + ","
+                    + segment.end + "," + segment.done.get());
+            }
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                state.store(out, null);
+            }
+            Files.move(tmp.toPath(), stateFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void fetch(FileChannel channel, Segment segment)
+            throws IOException, InterruptedException
+        {
+            int failures = 0;
+            while (segment.remaining() > 0) {
+                try {
+                    fetchRange(channel, segment);
+                } catch (IOException e) {
+                    if (++failures > MAX_RETRIES) {
+                        throw new IOException("Could not download " + url
+                            + " after " + MAX_RETRIES + " retries", e);
+                    }
+                    Thread.sleep(RETRY_DELAY_MILLIS * failures);
+                }
+            }
+        }
+
+        private void fetchRange(FileChannel channel, Segment segment)
+            throws IOException
+        {
+            long position = segment.start + segment.done.get();
+            HttpURLConnection connection = open();
+            connection.setRequestProperty("Range",
+                "bytes=" + position + '-' + segment.end);
+            try {
+                int status = connection.getResponseCode();
+                if (status != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Range request to " + url
+                        + " failed: HTTP " + status);
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+                    int read;
+                    while (segment.remaining() > 0
+                        && (read = in.read(buffer, 0, (int) Math.min(
+                            buffer.length, segment.remaining()))) != -1)
+                    {
+                        wrapper.clear().limit(read);
+                        while (wrapper.hasRemaining()) {
+                            channel.write(wrapper, position + wrapper.position());
+                        }
+                        position += read;
+                        segment.done.addAndGet(read);
+                        downloaded.addAndGet(read);
+                        report();
+                    }
+                }
+                if (segment.remaining() > 0) {
+                    throw new IOException("Connection to " + url
+                        + " dropped at byte " + position);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private void report() throws IOException {
+            long now = System.nanoTime();
+            long last = lastReport.get();
+            if (now - last >= REPORT_INTERVAL_NANOS
+                && lastReport.compareAndSet(last, now))
+            {
+                listener.onProgress(url, resumed + downloaded.get(), length,
+                    throughput());
+                if (parts != null) {
+                    saveState();
+                }
+            }
+        }
+
+        private long throughput() {
+            long elapsed = Math.max(1, System.nanoTime() - startTime);
+            return downloaded.get() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+
+        private HttpURLConnection open() throws IOException {
+            Proxy proxy = config.proxyFactory().createProxy();
+            URL location = new URL(url);
+            HttpURLConnection connection = (HttpURLConnection) (proxy != null
+                ? location.openConnection(proxy)
+                : location.openConnection());
+            connection.setRequestProperty("User-Agent", config.getUserAgent());
+            connection.setConnectTimeout(
+                config.getTimeoutConfig().getConnectionTimeout());
+            connection.setReadTimeout(config.getTimeoutConfig().getReadTimeout());
+            return connection;
+        }
+
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(
+                WORKER_SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(List<Future<Void>> futures) throws IOException {
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static final class Segment {
+
+        final long start;
+        final long end;
+        final AtomicLong done = new AtomicLong();
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long remaining() {
+            return end - start + 1 - done.get();
+        }
+
+    }
+
+    /**
+     * Reports the download progress to flapdoodle's progress listener.
+     */
+    private static final class ProgressListenerAdapter
+        implements VaultDownloadListener
+    {
+
+        private final IProgressListener progress;
+        private final String label;
+
+        ProgressListenerAdapter(IProgressListener progress, String label) {
+            this.progress = progress;
+            this.label = label;
+        }
+
+        @Override
+        public void onStart(String url, long totalBytes, long resumedBytes) {
+            progress.start(label);
+            progress.info(label, "DownloadSize: " + totalBytes
+                + (resumedBytes > 0 ? ", resumed at: " + resumedBytes : ""));
+        }
+
+        @Override
+        public synchronized void onProgress(String url, long downloadedBytes,
+            long totalBytes, long bytesPerSecond)
+        {
+            if (totalBytes > 0) {
+                progress.progress(label, (int) (downloadedBytes * 100 / totalBytes));
+            }
+        }
+
+        @Override
+        public void onComplete(String url, long totalBytes, long bytesPerSecond) {
+            progress.info(label, "downloaded with "
+                + bytesPerSecond / 1024 + "kb/s");
+            progress.done(label);
+        }
+
+    }
+
+}
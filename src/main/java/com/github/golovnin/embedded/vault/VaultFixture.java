@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.distribution.IVersion;
+import de.flapdoodle.embed.process.io.directories.UserHome;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A set of data which is written into a Vault server once and restored
+ * into every server configured with
+ * {@link VaultServerConfig.Builder#fixture(VaultFixture)}.
+ *
+ * <p>On the first start the seeder is run against a server using the file
+ * storage backend. The storage directory is then cached in
+ * {@code ~/.embedded-vault/fixtures} under a hash of the fixture key and
+ * the Vault version. Every following start copies the cached storage into
+ * a new directory, starts Vault on it and unseals it. Change the key
+ * whenever the seeder writes different data.</p>
+ *
+ * <p>All servers using a fixture share the root token of the seeded
+ * server, see {@link #getRootTokenID()}.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultFixture {
+
+    static final String FIXTURES_PATH =
+        VaultBuilders.ARTIFACT_STORE_PATH + "/fixtures";
+
+    private static final String STORAGE_DIR = "storage";
+    private static final String PROPERTIES_FILE = "fixture.properties";
+    private static final String UNSEAL_KEY = "unseal-key";
+
+    /**
+     * Writes the data of a fixture into a running server.
+     */
+    @FunctionalInterface
+    public interface Seeder {
+
+        void seed(VaultServerProcess process) throws IOException;
+
+    }
+
+    private final String key;
+    private final Seeder seeder;
+    private final File baseDir;
+
+    /**
+     * @param key identifies the data written by the seeder
+     */
+    public VaultFixture(String key, Seeder seeder) {
+        this(key, seeder, new UserHome(FIXTURES_PATH).asFile());
+    }
+
+    VaultFixture(String key, Seeder seeder, File baseDir) {
+        this.key = requireNonNull(key, "key may not be null");
+        this.seeder = requireNonNull(seeder, "seeder may not be null");
+        this.baseDir = requireNonNull(baseDir, "baseDir may not be null");
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the root token of all servers restored from this fixture.
+     */
+    public String getRootTokenID() {
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8))
+            .toString();
+    }
+
+    /**
+     * Returns {@code true} if the snapshot of this fixture for the given
+     * version exists in the cache.
+     */
+    public boolean isCached(IVersion version) {
+        return new File(snapshotDir(version), PROPERTIES_FILE).isFile();
+    }
+
+    /**
+     * Seeds a server and stores its storage in the cache unless the cache
+     * already contains the snapshot for the version of the config.
+     */
+    Snapshot snapshot(VaultServerStarter starter, VaultServerConfig config)
+        throws IOException
+    {
+        File dir = snapshotDir(config.version());
+        File properties = new File(dir, PROPERTIES_FILE);
+        if (!properties.isFile()) {
+            if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+                throw new IOException("Could not create directory " + baseDir);
+            }
+            File lockFile = new File(baseDir, dir.getName() + ".lock");
+            synchronized (VaultFixture.class) {
+                try (
+                    FileChannel channel = FileChannel.open(lockFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                ) {
+                    FileLock lock = channel.lock();
+                    try {
+                        if (!properties.isFile()) {
+                            seed(starter, config, dir);
+                        }
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+        return cachedSnapshot(config.version());
+    }
+
+    /**
+     * Returns the cached snapshot for the given version.
+     */
+    Snapshot cachedSnapshot(IVersion version) throws IOException {
+        File dir = snapshotDir(version);
+        Properties values = new Properties();
+        try (InputStream in = new FileInputStream(new File(dir, PROPERTIES_FILE))) {
+            values.load(in);
+        }
+        return new Snapshot(new File(dir, STORAGE_DIR),
+            values.getProperty(UNSEAL_KEY));
+    }
+
+    private void seed(VaultServerStarter starter, VaultServerConfig config,
+        File dir) throws IOException
+    {
+        File work = new File(baseDir, dir.getName() + ".seeding");
+        delete(work.toPath());
+        File storage = new File(work, STORAGE_DIR);
+        VaultServerConfig seedConfig = new VaultServerConfig.Builder()
+            .version(config.version())
+            .startupTimeout(config.getStartupTimeout(), TimeUnit.MILLISECONDS)
+            .randomPort(config.getListenerHost())
+            .rootTokenID(getRootTokenID())
+            .logLevel(config.getLogLevel())
+            .storage(VaultStorage.file(storage.getAbsolutePath()))
+            .build();
+        VaultServerExecutable executable = starter.prepare(seedConfig);
+        String unsealKey;
+        try {
+            VaultServerProcess process = executable.start();
+            unsealKey = process.getUnsealKey();
+            if (unsealKey == null) {
+                throw new IOException("The seed server did not report its unseal key");
+            }
+            seeder.seed(process);
+        } finally {
+            executable.stop();
+        }
+        Properties values = new Properties();
+        values.setProperty(UNSEAL_KEY, unsealKey);
+        values.setProperty("key", key);
+        values.setProperty("version", config.version().asInDownloadPath());
+        try (OutputStream out = new FileOutputStream(new File(work, PROPERTIES_FILE))) {
+            values.store(out, null);
+        }
+        delete(dir.toPath());
+        Files.move(work.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Copies the cached storage into a new temporary directory.
+     */
+    static File restore(Snapshot snapshot) throws IOException {
+        Path source = snapshot.storageDir.toPath();
+        Path target = Files.createTempDirectory("embedded-vault-storage");
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                BasicFileAttributes attrs) throws IOException
+            {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                BasicFileAttributes attrs) throws IOException
+            {
+                Files.copy(file, target.resolve(source.relativize(file)));
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+        return target.toFile();
+    }
+
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir,
+                IOException e) throws IOException
+            {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+    private File snapshotDir(IVersion version) {
+        return new File(baseDir, hash(version));
+    }
+
+    private String hash(IVersion version) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(version.asInDownloadPath()
+                .getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            byte[] bytes = digest.digest();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", bytes[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VaultFixture{key=" + key + '}';
+    }
+
+    /**
+     * A cached storage directory together with the unseal key of the
+     * server which has written it.
+     */
+    static final class Snapshot {
+
+        final File storageDir;
+        final String unsealKey;
+
+        Snapshot(File storageDir, String unsealKey) {
+            this.storageDir = storageDir;
+            this.unsealKey = unsealKey;
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Polls the health endpoint of a Vault server with an exponential backoff.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultHealthProbe {
+
+    private static final long MIN_DELAY_MILLIS = 5;
+    private static final long MAX_DELAY_MILLIS = 250;
+    private static final int CONNECT_TIMEOUT_MILLIS = 500;
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+
+    // A standby node of a cluster is ready too, it forwards requests to the
+    // active node.
+    private static final String HEALTH_PATH = "/v1/sys/health?standbyok=true";
+
+    private final URL url;
+    private final String unixSocket;
+
+    VaultHealthProbe(String host, int port) throws IOException {
+        this.url = new URL("http", probeHost(host), port, HEALTH_PATH);
+        this.unixSocket = null;
+    }
+
+    private VaultHealthProbe(String unixSocket) {
+        this.url = null;
+        this.unixSocket = unixSocket;
+    }
+
+    /**
+     * Returns a probe for the listener of the given config.
+     */
+    static VaultHealthProbe of(VaultServerConfig config) throws IOException {
+        return config.getUnixSocket() != null
+            ? new VaultHealthProbe(config.getUnixSocket())
+            : new VaultHealthProbe(
+                config.getListenerHost(), config.getListenerPort());
+    }
+
+    /**
+     * Returns {@code true} as soon as the health endpoint responds with
+     * HTTP 200, {@code false} if the timeout has elapsed or the given
+     * condition signals that the server has failed to start.
+     */
+    boolean awaitReady(long timeoutMillis, BooleanSupplier failed) {
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long delay = MIN_DELAY_MILLIS;
+        while (!failed.getAsBoolean()) {
+            if (isReady()) {
+                return true;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(
+                deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(Math.min(delay, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            delay = Math.min(delay * 2, MAX_DELAY_MILLIS);
+        }
+        return false;
+    }
+
+    boolean isReady() {
+        if (unixSocket != null) {
+            return isReadyOverUnixSocket();
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            int status = connection.getResponseCode();
+            InputStream body = status < 400
+                ? connection.getInputStream()
+                : connection.getErrorStream();
+            if (body != null) {
+                drain(body);
+            }
+            return status == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            // The listener is not up yet.
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private boolean isReadyOverUnixSocket() {
+        try (
+            VaultHttpConnection connection = VaultHttpConnection.open(
+                unixSocket, READ_TIMEOUT_MILLIS)
+        ) {
+            return connection.exchange("GET", HEALTH_PATH, null, null).status
+                == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            // The listener is not up yet.
+            return false;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            byte[] buffer = new byte[512];
+            while (body.read(buffer) != -1) {
+                // NOP
+            }
+        }
+    }
+
+    static String probeHost(String host) {
+        // A wildcard listener accepts connections on the loopback interface.
+        if ("0.0.0.0".equals(host) || "::".equals(host) || "[::]".equals(host)) {
+            return "127.0.0.1";
+        }
+        if (host.indexOf(':') >= 0 && !host.startsWith("[")) {
+            return '[' + host + ']';
+        }
+        return host;
+    }
+
+}
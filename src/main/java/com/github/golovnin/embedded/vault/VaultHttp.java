@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends the API requests needed to bring up a Vault server which does not
+ * run in the dev mode.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultHttp {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private VaultHttp() {
+        // NOP
+    }
+
+    /**
+     * Sends a request and returns the parsed JSON response or {@code null}
+     * if the response has no body.
+     *
+     * @throws IOException if the server responds with an error status
+     */
+    static Object request(VaultServerConfig config, String method, String path,
+        String token, Object body) throws IOException
+    {
+        if (config.getUnixSocket() != null) {
+            return requestOverUnixSocket(
+                config.getUnixSocket(), method, path, token, body);
+        }
+        URL url = new URL("http",
+            VaultHealthProbe.probeHost(config.getListenerHost()),
+            config.getListenerPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestMethod(method);
+            if (token != null) {
+                connection.setRequestProperty("X-Vault-Token", token);
+            }
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(VaultJson.writeCompact(body).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400
+                ? connection.getInputStream()
+                : connection.getErrorStream();
+            return toResult(method, path, status, in != null ? read(in) : "");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static Object requestOverUnixSocket(String unixSocket,
+        String method, String path, String token, Object body)
+        throws IOException
+    {
+        byte[] content = body != null
+            ? VaultJson.writeCompact(body).getBytes(StandardCharsets.UTF_8)
+            : null;
+        try (
+            VaultHttpConnection connection = VaultHttpConnection.open(
+                unixSocket, READ_TIMEOUT_MILLIS)
+        ) {
+            VaultHttpConnection.Response response =
+                connection.exchange(method, path, token, content);
+            return toResult(method, path, response.status,
+                response.contentAsString());
+        }
+    }
+
+    private static Object toResult(String method, String path, int status,
+        String content) throws IOException
+    {
+        if (status >= 400) {
+            throw new IOException(method + ' ' + path + " failed with HTTP "
+                + status + ": " + content);
+        }
+        return content.trim().isEmpty() ? null : VaultJson.parse(content);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
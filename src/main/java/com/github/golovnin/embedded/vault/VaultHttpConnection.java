@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent HTTP/1.1 connection to a Vault server. Unlike
+ * {@link java.net.HttpURLConnection} it is not limited by the keep-alive
+ * cache of the JDK, so a client can keep as many connections open as it
+ * sends concurrent requests.
+ *
+ * <p>Instances are not thread-safe.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultHttpConnection implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String hostHeader;
+    private final Closeable transport;
+    private final int exchangeTimeoutMillis;
+    private final InputStream in;
+    private final OutputStream out;
+    private final StringBuilder line = new StringBuilder(128);
+    private boolean reusable = true;
+    private volatile boolean closed;
+    private volatile boolean timedOut;
+
+    private VaultHttpConnection(String hostHeader, Closeable transport,
+        int exchangeTimeoutMillis, InputStream in, OutputStream out)
+    {
+        this.hostHeader = hostHeader;
+        this.transport = transport;
+        this.exchangeTimeoutMillis = exchangeTimeoutMillis;
+        this.in = new BufferedInputStream(in, BUFFER_SIZE);
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    static VaultHttpConnection open(String host, int port,
+        int connectTimeoutMillis, int readTimeoutMillis) throws IOException
+    {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.setSoTimeout(readTimeoutMillis);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            return new VaultHttpConnection(host + ':' + port, socket, 0,
+                socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a connection to the unix domain socket of a server. Reads from
+     * a unix domain socket can not time out, so the channel is closed when
+     * an exchange does not complete within the given timeout.
+     */
+    static VaultHttpConnection open(String unixSocket, int readTimeoutMillis)
+        throws IOException
+    {
+        SocketChannel channel = VaultUnixSockets.connect(unixSocket);
+        return new VaultHttpConnection("localhost", channel, readTimeoutMillis,
+            Channels.newInputStream(channel), Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Returns {@code false} if the connection may not be used for further
+     * requests, e.g. because the server has requested to close it.
+     */
+    boolean isReusable() {
+        return reusable && !closed;
+    }
+
+    /**
+     * Sends the request and reads the complete response.
+     *
+     * @throws EOFException if the server has closed the connection before
+     *         sending the status line, e.g. because an idle connection
+     *         has timed out
+     */
+    Response exchange(String method, String path, String token, byte[] body)
+        throws IOException
+    {
+        if (exchangeTimeoutMillis <= 0) {
+            return exchangeInternal(method, path, token, body);
+        }
+        ScheduledFuture<?> timeout = VaultThreads.scheduler().schedule(
+            this::timeOut, exchangeTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            return exchangeInternal(method, path, token, body);
+        } catch (IOException e) {
+            if (timedOut) {
+                SocketTimeoutException timeoutException =
+                    new SocketTimeoutException("Read timed out");
+                timeoutException.initCause(e);
+                throw timeoutException;
+            }
+            throw e;
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+
+    private void timeOut() {
+        timedOut = true;
+        close();
+    }
+
+    private Response exchangeInternal(String method, String path,
+        String token, byte[] body) throws IOException
+    {
+        reusable = false;
+        StringBuilder head = new StringBuilder(256)
+            .append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+            .append("Host: ").append(hostHeader).append("\r\n");
+        if (token != null) {
+            head.append("X-Vault-Token: ").append(token).append("\r\n");
+        }
+        if (body != null) {
+            head.append("Content-Type: application/json\r\n");
+        }
+        head.append("Content-Length: ")
+            .append(body != null ? body.length : 0).append("\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+
+        String statusLine = readLine();
+        if (statusLine == null) {
+            throw new EOFException("Connection closed by server");
+        }
+        int status = parseStatus(statusLine);
+        boolean keepAlive = !statusLine.startsWith("HTTP/1.0");
+        long contentLength = -1;
+        boolean chunked = false;
+        String header;
+        while ((header = readLine()) != null && !header.isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = Long.parseLong(value);
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                chunked = value.toLowerCase().contains("chunked");
+            } else if ("Connection".equalsIgnoreCase(name)) {
+                if ("close".equalsIgnoreCase(value)) {
+                    keepAlive = false;
+                } else if ("keep-alive".equalsIgnoreCase(value)) {
+                    keepAlive = true;
+                }
+            }
+        }
+        if (header == null) {
+            throw new EOFException("Unexpected end of response headers");
+        }
+
+        byte[] content;
+        if (status == 204 || status == 304 || status < 200 || "HEAD".equals(method)) {
+            content = new byte[0];
+        } else if (chunked) {
+            content = readChunked();
+        } else if (contentLength >= 0) {
+            content = readFully(contentLength);
+        } else {
+            // The end of the body is the end of the connection.
+            content = readToEnd();
+            keepAlive = false;
+        }
+        reusable = keepAlive;
+        return new Response(status, content);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // NOP
+        }
+    }
+
+    private static int parseStatus(String statusLine) throws IOException {
+        int start = statusLine.indexOf(' ');
+        if (!statusLine.startsWith("HTTP/") || start < 0
+            || statusLine.length() < start + 4)
+        {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(start + 1, start + 4));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine, e);
+        }
+    }
+
+    private byte[] readChunked() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(BUFFER_SIZE);
+        while (true) {
+            String size = readLine();
+            if (size == null) {
+                throw new EOFException("Unexpected end of chunked body");
+            }
+            int extension = size.indexOf(';');
+            if (extension >= 0) {
+                size = size.substring(0, extension);
+            }
+            long length;
+            try {
+                length = Long.parseLong(size.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size: " + size, e);
+            }
+            if (length == 0) {
+                // Skip the trailers.
+                String trailer;
+                while ((trailer = readLine()) != null && !trailer.isEmpty()) {
+                    // NOP
+                }
+                return body.toByteArray();
+            }
+            body.write(readFully(length));
+            readLine();
+        }
+    }
+
+    private byte[] readFully(long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Response too large: " + length + " bytes");
+        }
+        byte[] content = new byte[(int) length];
+        int offset = 0;
+        while (offset < content.length) {
+            int read = in.read(content, offset, content.length - offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of response body");
+            }
+            offset += read;
+        }
+        return content;
+    }
+
+    private byte[] readToEnd() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Reads a line terminated by CRLF or LF. Returns {@code null} at the
+     * end of the stream.
+     */
+    private String readLine() throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    static final class Response {
+
+        final int status;
+        final byte[] content;
+
+        Response(int status, byte[] content) {
+            this.status = status;
+            this.content = content;
+        }
+
+        String contentAsString() {
+            return new String(content, StandardCharsets.UTF_8);
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.CompletableFuture;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Helpers for the HTTP servers of the in-memory stand-in, the recorder and
+ * the replay server.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultHttpServer {
+
+    private VaultHttpServer() {
+        // NOP
+    }
+
+    /**
+     * Starts a server, which passes all requests to the given handler.
+     *
+     * @param port the port or {@code 0} to listen on an ephemeral port
+     */
+    static HttpServer start(String host, int port, HttpHandler handler)
+        throws IOException
+    {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (BindException e) {
+            BindException failure = new BindException(
+                "Could not listen on " + host + ':' + port);
+            failure.initCause(e);
+            throw failure;
+        } catch (IOException e) {
+            throw new IOException(
+                "Could not listen on " + host + ':' + port, e);
+        }
+        server.createContext("/", handler);
+        // The dispatcher thread inherits the daemon flag of the thread
+        // starting the server. A daemon dispatcher does not keep the JVM
+        // alive, if a test forgets to stop the server.
+        CompletableFuture.runAsync(server::start,
+            VaultThreads.defaultExecutor()).join();
+        return server;
+    }
+
+    /**
+     * Returns the URI of the request as sent by the client, i.e. the path
+     * and the query without decoding.
+     */
+    static String requestURI(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        String path = exchange.getRequestURI().getRawPath();
+        return query != null ? path + '?' + query : path;
+    }
+
+    static byte[] readRequestBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Sends the response and closes the exchange. An empty body is sent
+     * without content, the body of a response to {@code HEAD} is omitted.
+     */
+    static void sendResponse(HttpExchange exchange, int status,
+        ByteBuffer body) throws IOException
+    {
+        try {
+            int length = body.remaining();
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            if (length > 0) {
+                exchange.getResponseHeaders().set(
+                    "Content-Type", "application/json");
+            }
+            exchange.sendResponseHeaders(status,
+                length == 0 || head ? -1 : length);
+            if (length > 0 && !head) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    Channels.newChannel(out).write(body);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
@@ -0,0 +1,1234 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Implements the subset of the HTTP API of Vault supported by the in-memory
+ * stand-in: the KV engines version 1 and 2, the transit engine, token
+ * authentication, policies and the unauthenticated health endpoints. All
+ * data is kept in memory and requests are handled one at a time.
+ *
+ * <p>Policies are stored, but not enforced. Every valid token may access
+ * every path.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultInMemoryEngine {
+
+    private static final Pattern DURATION =
+        Pattern.compile("(\\d+)(ms|s|m|h|d)");
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String version;
+    private final String clusterName;
+    private final String clusterID;
+    private final long defaultLeaseSeconds;
+    private final String rootTokenID;
+    private final Map<String, Mount> mounts;
+    private final Map<String, Token> tokens;
+    private final Map<String, String> accessors;
+    private final Map<String, String> policies;
+
+    VaultInMemoryEngine(VaultServerConfig config) {
+        this.version = config.version().asInDownloadPath();
+        this.clusterName = config.getClusterName();
+        this.clusterID = UUID.randomUUID().toString();
+        this.defaultLeaseSeconds = parseDuration(config.getDefaultLeaseTTL());
+        this.rootTokenID = config.getRootTokenID();
+        this.mounts = new TreeMap<>();
+        this.tokens = new HashMap<>();
+        this.accessors = new HashMap<>();
+        this.policies = new TreeMap<>();
+        reset();
+    }
+
+    /**
+     * Removes all mounts, policies and tokens created after the start and
+     * restores the state of a just started server.
+     */
+    synchronized void reset() {
+        mounts.clear();
+        tokens.clear();
+        accessors.clear();
+        policies.clear();
+        policies.put("default", "");
+        policies.put("root", "");
+        // Like the dev mode, which mounts the KV engine version 2 since
+        // Vault 0.10.
+        mounts.put("secret/", isAtLeast(version, 0, 10)
+            ? new KvV2Mount(Collections.singletonMap("version", "2"))
+            : new KvMount("generic", Collections.emptyMap()));
+        addToken(new Token(rootTokenID, null, "root",
+            Collections.singleton("root"), Collections.emptyMap(), 0, false));
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @param method the HTTP method or {@code LIST}
+     * @param path the path without the prefix {@code /v1/}
+     * @param query the query parameters
+     * @param token the token of the client or {@code null}
+     * @param body the JSON body or {@code null}
+     */
+    synchronized Response handle(String method, String path,
+        Map<String, String> query, String token, Map<String, Object> body)
+    {
+        if ("GET".equals(method) && "true".equals(query.get("list"))) {
+            method = "LIST";
+        }
+        Request request = new Request(method, path, query,
+            body != null ? body : Collections.emptyMap());
+        try {
+            switch (path) {
+                case "sys/health":
+                    return health();
+                case "sys/seal-status":
+                    return sealStatus();
+                case "sys/leader":
+                    return leader();
+                case "sys/init":
+                    return Response.ok(
+                        Collections.singletonMap("initialized", true));
+                default:
+                    break;
+            }
+            Token caller = token != null ? validToken(token) : null;
+            if (caller == null) {
+                return Response.error(403, "permission denied");
+            }
+            if (path.startsWith("sys/")) {
+                return sys(request.subrequest("sys/"));
+            }
+            if (path.startsWith("auth/token/")) {
+                return tokenAPI(request.subrequest("auth/token/"), caller);
+            }
+            String mount = mountOf(path);
+            if (mount != null) {
+                return mounts.get(mount).handle(request.subrequest(mount));
+            }
+            return noHandler(path);
+        } catch (Failure e) {
+            return Response.error(e.status, e.getMessage());
+        }
+    }
+
+    private Response health() {
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("initialized", true);
+        health.put("sealed", false);
+        health.put("standby", false);
+        health.put("performance_standby", false);
+        health.put("replication_performance_mode", "disabled");
+        health.put("replication_dr_mode", "disabled");
+        health.put("server_time_utc", System.currentTimeMillis() / 1000);
+        health.put("version", version);
+        health.put("cluster_name", clusterName);
+        health.put("cluster_id", clusterID);
+        return Response.ok(health);
+    }
+
+    private Response sealStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("type", "shamir");
+        status.put("initialized", true);
+        status.put("sealed", false);
+        status.put("t", 1);
+        status.put("n", 1);
+        status.put("progress", 0);
+        status.put("nonce", "");
+        status.put("version", version);
+        status.put("migration", false);
+        status.put("cluster_name", clusterName);
+        status.put("cluster_id", clusterID);
+        status.put("recovery_seal", false);
+        return Response.ok(status);
+    }
+
+    private static Response leader() {
+        Map<String, Object> leader = new LinkedHashMap<>();
+        leader.put("ha_enabled", false);
+        leader.put("is_self", false);
+        leader.put("leader_address", "");
+        leader.put("leader_cluster_address", "");
+        return Response.ok(leader);
+    }
+
+    // ---------------------------------------------------------------------
+    // sys
+
+    private Response sys(Request request) {
+        String path = request.path;
+        if (path.equals("mounts")) {
+            request.require("GET");
+            Map<String, Object> data = new LinkedHashMap<>();
+            mounts.forEach((mount, engine) -> data.put(mount, engine.describe()));
+            Map<String, Object> sys = new LinkedHashMap<>();
+            sys.put("type", "system");
+            sys.put("description", "system endpoints used for control, policy and debugging");
+            data.put("sys/", sys);
+            // Vault returns the mounts twice, at the top level and as data.
+            Map<String, Object> response = new LinkedHashMap<>(data);
+            response.putAll(envelope(data, 0));
+            return Response.ok(response);
+        }
+        if (path.startsWith("mounts/") && path.endsWith("/tune")) {
+            String mount = mountPath(path.substring(7, path.length() - 5));
+            Mount engine = mounts.get(mount);
+            if (engine == null) {
+                throw new Failure(400, "no mount entry found for path " + mount);
+            }
+            if (request.is("GET")) {
+                Map<String, Object> tune = new LinkedHashMap<>();
+                tune.put("default_lease_ttl", defaultLeaseSeconds);
+                tune.put("max_lease_ttl", defaultLeaseSeconds);
+                tune.put("options", engine.options);
+                return Response.ok(envelope(tune, 0));
+            }
+            request.require("POST", "PUT");
+            return Response.noContent();
+        }
+        if (path.startsWith("mounts/")) {
+            String mount = mountPath(path.substring(7));
+            if (request.is("DELETE")) {
+                mounts.remove(mount);
+                return Response.noContent();
+            }
+            request.require("POST", "PUT");
+            if (mount.equals("/") || mount.startsWith("sys/")
+                || mount.startsWith("auth/"))
+            {
+                throw new Failure(400, "cannot mount under " + mount);
+            }
+            if (mountOf(mount) != null) {
+                throw new Failure(400, "existing mount at " + mountOf(mount));
+            }
+            mounts.put(mount, newMount(request.string("type"),
+                request.map("options")));
+            return Response.noContent();
+        }
+        if (path.equals("policy") || path.equals("policy/")) {
+            request.require("GET", "LIST");
+            List<String> names = new ArrayList<>(policies.keySet());
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("keys", names);
+            data.put("policies", names);
+            Map<String, Object> response = new LinkedHashMap<>(data);
+            response.putAll(envelope(data, 0));
+            return Response.ok(response);
+        }
+        if (path.startsWith("policy/")) {
+            String name = path.substring(7);
+            switch (request.method) {
+                case "GET": {
+                    String rules = policies.get(name);
+                    if (rules == null) {
+                        return Response.error(404, null);
+                    }
+                    Map<String, Object> data = new LinkedHashMap<>();
+                    data.put("name", name);
+                    data.put("rules", rules);
+                    Map<String, Object> response = new LinkedHashMap<>(data);
+                    response.putAll(envelope(data, 0));
+                    return Response.ok(response);
+                }
+                case "POST":
+                case "PUT": {
+                    String rules = request.string("policy");
+                    if (rules == null) {
+                        rules = request.string("rules");
+                    }
+                    if (rules == null || rules.isEmpty()) {
+                        throw new Failure(400,
+                            "'policy' parameter not supplied or empty");
+                    }
+                    policies.put(name, rules);
+                    return Response.noContent();
+                }
+                case "DELETE":
+                    if (name.equals("default") || name.equals("root")) {
+                        throw new Failure(400,
+                            "cannot delete " + name + " policy");
+                    }
+                    policies.remove(name);
+                    return Response.noContent();
+                default:
+                    throw unsupportedOperation();
+            }
+        }
+        return noHandler("sys/" + path);
+    }
+
+    private Mount newMount(String type, Map<String, Object> options) {
+        if (type == null) {
+            throw new Failure(400, "backend type must be specified as a string");
+        }
+        switch (type) {
+            case "kv":
+                if (options != null && "2".equals(String.valueOf(options.get("version")))) {
+                    return new KvV2Mount(options);
+                }
+                return new KvMount(type, options);
+            case "kv-v2":
+                return new KvV2Mount(Collections.singletonMap("version", "2"));
+            case "generic":
+                return new KvMount(type, options);
+            case "transit":
+                return new TransitMount();
+            default:
+                throw new Failure(400,
+                    "plugin not found in the catalog: " + type);
+        }
+    }
+
+    private String mountOf(String path) {
+        String mount = null;
+        for (String candidate : mounts.keySet()) {
+            if ((path + '/').startsWith(candidate)
+                && (mount == null || candidate.length() > mount.length()))
+            {
+                mount = candidate;
+            }
+        }
+        return mount;
+    }
+
+    private static String mountPath(String path) {
+        return path.endsWith("/") ? path : path + '/';
+    }
+
+    // ---------------------------------------------------------------------
+    // auth/token
+
+    private Response tokenAPI(Request request, Token caller) {
+        switch (request.path) {
+            case "create":
+            case "create-orphan":
+                request.require("POST", "PUT");
+                return Response.ok(authEnvelope(createToken(request, caller,
+                    request.path.equals("create-orphan"))));
+            case "lookup-self":
+                request.require("GET", "POST");
+                return Response.ok(envelope(lookupData(caller), 0));
+            case "lookup":
+                request.require("GET", "POST");
+                return Response.ok(envelope(
+                    lookupData(lookup(request.string("token"))), 0));
+            case "lookup-accessor":
+                request.require("POST", "PUT");
+                return Response.ok(envelope(
+                    lookupData(lookupAccessor(request.string("accessor"))), 0));
+            case "renew-self":
+                request.require("POST", "PUT");
+                return Response.ok(authEnvelope(renew(caller)));
+            case "renew":
+                request.require("POST", "PUT");
+                return Response.ok(authEnvelope(
+                    renew(lookup(request.string("token")))));
+            case "revoke-self":
+                request.require("POST", "PUT");
+                revoke(caller);
+                return Response.noContent();
+            case "revoke":
+                request.require("POST", "PUT");
+                revoke(lookup(request.string("token")));
+                return Response.noContent();
+            case "revoke-accessor":
+                request.require("POST", "PUT");
+                revoke(lookupAccessor(request.string("accessor")));
+                return Response.noContent();
+            case "accessors":
+            case "accessors/": {
+                request.require("LIST");
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("keys", new ArrayList<>(accessors.keySet()));
+                return Response.ok(envelope(data, 0));
+            }
+            default:
+                if (request.path.startsWith("lookup/")) {
+                    request.require("GET");
+                    return Response.ok(envelope(
+                        lookupData(lookup(request.path.substring(7))), 0));
+                }
+                return noHandler("auth/token/" + request.path);
+        }
+    }
+
+    private Token createToken(Request request, Token caller, boolean orphan) {
+        String id = request.string("id");
+        if (id == null || id.isEmpty()) {
+            id = UUID.randomUUID().toString();
+        } else if (tokens.containsKey(id)) {
+            throw new Failure(400, "cannot create a token with a duplicate ID");
+        }
+        Set<String> requested = new TreeSet<>();
+        List<?> list = request.list("policies");
+        if (list != null) {
+            list.forEach(policy -> requested.add(String.valueOf(policy)));
+        } else {
+            requested.addAll(caller.policies);
+        }
+        if (!requested.contains("root")
+            && !Boolean.TRUE.equals(request.body.get("no_default_policy")))
+        {
+            requested.add("default");
+        }
+        Object ttl = request.body.get("ttl");
+        long ttlSeconds = ttl != null
+            ? parseDuration(String.valueOf(ttl))
+            : requested.contains("root") ? 0 : defaultLeaseSeconds;
+        String name = request.string("display_name");
+        Map<String, Object> meta = request.map("meta");
+        boolean noParent = orphan
+            || Boolean.TRUE.equals(request.body.get("no_parent"));
+        Token token = new Token(id, noParent ? null : caller.id,
+            name != null ? "token-" + name : "token", requested,
+            meta != null ? meta : Collections.emptyMap(), ttlSeconds,
+            !Boolean.FALSE.equals(request.body.get("renewable")));
+        addToken(token);
+        return token;
+    }
+
+    private void addToken(Token token) {
+        tokens.put(token.id, token);
+        accessors.put(token.accessor, token.id);
+    }
+
+    private Token validToken(String id) {
+        Token token = tokens.get(id);
+        if (token != null && token.isExpired(System.currentTimeMillis())) {
+            revoke(token);
+            return null;
+        }
+        return token;
+    }
+
+    private Token lookup(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new Failure(400, "missing token");
+        }
+        Token token = validToken(id);
+        if (token == null) {
+            throw new Failure(403, "bad token");
+        }
+        return token;
+    }
+
+    private Token lookupAccessor(String accessor) {
+        if (accessor == null || accessor.isEmpty()) {
+            throw new Failure(400, "missing accessor");
+        }
+        String id = accessors.get(accessor);
+        if (id == null) {
+            throw new Failure(400, "invalid accessor");
+        }
+        return lookup(id);
+    }
+
+    private Token renew(Token token) {
+        if (!token.renewable || token.ttlSeconds == 0) {
+            throw new Failure(400, "lease is not renewable");
+        }
+        token.expireTime = System.currentTimeMillis() + token.ttlSeconds * 1000;
+        return token;
+    }
+
+    /**
+     * Revokes the token and all its children.
+     */
+    private void revoke(Token token) {
+        tokens.remove(token.id);
+        accessors.remove(token.accessor);
+        List<Token> children = new ArrayList<>();
+        for (Token candidate : tokens.values()) {
+            if (token.id.equals(candidate.parent)) {
+                children.add(candidate);
+            }
+        }
+        children.forEach(this::revoke);
+    }
+
+    private Map<String, Object> lookupData(Token token) {
+        long now = System.currentTimeMillis();
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("accessor", token.accessor);
+        data.put("creation_time", token.creationTime / 1000);
+        data.put("creation_ttl", token.ttlSeconds);
+        data.put("display_name", token.displayName);
+        data.put("entity_id", "");
+        data.put("expire_time", token.expireTime > 0
+            ? Instant.ofEpochMilli(token.expireTime).toString()
+            : null);
+        data.put("explicit_max_ttl", 0);
+        data.put("id", token.id);
+        data.put("issue_time", Instant.ofEpochMilli(token.creationTime).toString());
+        data.put("meta", token.meta.isEmpty() ? null : token.meta);
+        data.put("num_uses", 0);
+        data.put("orphan", token.parent == null);
+        data.put("path", token.parent == null && token.policies.contains("root")
+            ? "auth/token/root"
+            : "auth/token/create");
+        data.put("policies", new ArrayList<>(token.policies));
+        data.put("renewable", token.renewable && token.ttlSeconds > 0);
+        data.put("ttl", token.expireTime > 0
+            ? Math.max(0, (token.expireTime - now) / 1000)
+            : 0);
+        return data;
+    }
+
+    private static Map<String, Object> authEnvelope(Token token) {
+        Map<String, Object> auth = new LinkedHashMap<>();
+        auth.put("client_token", token.id);
+        auth.put("accessor", token.accessor);
+        auth.put("policies", new ArrayList<>(token.policies));
+        auth.put("token_policies", new ArrayList<>(token.policies));
+        auth.put("metadata", token.meta.isEmpty() ? null : token.meta);
+        auth.put("lease_duration", token.ttlSeconds);
+        auth.put("renewable", token.renewable && token.ttlSeconds > 0);
+        auth.put("entity_id", "");
+        auth.put("orphan", token.parent == null);
+        Map<String, Object> envelope = envelope(null, 0);
+        envelope.put("auth", auth);
+        return envelope;
+    }
+
+    // ---------------------------------------------------------------------
+    // helpers
+
+    private static Map<String, Object> envelope(Object data, long leaseSeconds) {
+        Map<String, Object> envelope = new LinkedHashMap<>();
+        envelope.put("request_id", UUID.randomUUID().toString());
+        envelope.put("lease_id", "");
+        envelope.put("renewable", false);
+        envelope.put("lease_duration", leaseSeconds);
+        envelope.put("data", data);
+        envelope.put("wrap_info", null);
+        envelope.put("warnings", null);
+        envelope.put("auth", null);
+        return envelope;
+    }
+
+    /**
+     * Returns the direct children of the given prefix, sub-directories
+     * with a trailing slash.
+     */
+    private static Response list(Set<String> keys, String prefix) {
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+            prefix += '/';
+        }
+        Set<String> children = new LinkedHashSet<>();
+        for (String key : keys) {
+            if (key.startsWith(prefix)) {
+                String rest = key.substring(prefix.length());
+                int slash = rest.indexOf('/');
+                children.add(slash < 0 ? rest : rest.substring(0, slash + 1));
+            }
+        }
+        if (children.isEmpty()) {
+            return Response.error(404, null);
+        }
+        return Response.ok(envelope(
+            Collections.singletonMap("keys", new ArrayList<>(children)), 0));
+    }
+
+    private static Response noHandler(String path) {
+        return Response.error(404, "no handler for route '" + path + "'");
+    }
+
+    private static Failure unsupportedOperation() {
+        return new Failure(405, "unsupported operation");
+    }
+
+    private static String now() {
+        return Instant.now().toString();
+    }
+
+    /**
+     * Parses a duration like {@code 768h}, {@code 1h30m} or {@code 3600}
+     * and returns it in seconds.
+     */
+    static long parseDuration(String duration) {
+        if (duration.matches("\\d+")) {
+            return Long.parseLong(duration);
+        }
+        Matcher matcher = DURATION.matcher(duration);
+        long millis = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            long value = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "ms": millis += value; break;
+                case "s": millis += value * 1000; break;
+                case "m": millis += value * 60_000; break;
+                case "h": millis += value * 3_600_000; break;
+                default: millis += value * 86_400_000; break;
+            }
+            end = matcher.end();
+        }
+        if (end == 0 || end != duration.length()) {
+            throw new Failure(400, "invalid duration: " + duration);
+        }
+        return millis / 1000;
+    }
+
+    /**
+     * Returns {@code true} if the version is at least the given version.
+     * Versions which can not be parsed are treated as recent versions.
+     */
+    static boolean isAtLeast(String version, int major, int minor) {
+        String[] parts = version.split("[.\\-+]");
+        try {
+            int actualMajor = Integer.parseInt(parts[0]);
+            int actualMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return actualMajor > major
+                || actualMajor == major && actualMinor >= minor;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static Map<String, Object> copy(Map<String, Object> map) {
+        return map != null ? new LinkedHashMap<>(map) : null;
+    }
+
+    /**
+     * A response of the engine. The body is {@code null} for responses
+     * without content.
+     */
+    static final class Response {
+
+        final int status;
+        final Object body;
+
+        private Response(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response ok(Object body) {
+            return new Response(200, body);
+        }
+
+        static Response noContent() {
+            return new Response(204, null);
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, Collections.singletonMap("errors",
+                message != null
+                    ? Collections.singletonList(message)
+                    : Collections.emptyList()));
+        }
+
+    }
+
+    private static final class Request {
+
+        final String method;
+        final String path;
+        final Map<String, String> query;
+        final Map<String, Object> body;
+
+        Request(String method, String path, Map<String, String> query,
+            Map<String, Object> body)
+        {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.body = body;
+        }
+
+        Request subrequest(String prefix) {
+            return new Request(method,
+                path.substring(Math.min(prefix.length(), path.length())),
+                query, body);
+        }
+
+        boolean is(String method) {
+            return this.method.equals(method);
+        }
+
+        void require(String... methods) {
+            for (String candidate : methods) {
+                if (method.equals(candidate)) {
+                    return;
+                }
+            }
+            throw unsupportedOperation();
+        }
+
+        String string(String name) {
+            Object value = body.get(name);
+            return value != null ? String.valueOf(value) : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map(String name) {
+            Object value = body.get(name);
+            if (value != null && !(value instanceof Map)) {
+                throw new Failure(400, "'" + name + "' must be an object");
+            }
+            return (Map<String, Object>) value;
+        }
+
+        List<?> list(String name) {
+            Object value = body.get(name);
+            if (value != null && !(value instanceof List)) {
+                throw new Failure(400, "'" + name + "' must be an array");
+            }
+            return (List<?>) value;
+        }
+
+        int number(String name, int defaultValue) {
+            Object value = body.containsKey(name) ? body.get(name) : query.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return value instanceof Number
+                    ? ((Number) value).intValue()
+                    : Integer.parseInt(String.valueOf(value));
+            } catch (NumberFormatException e) {
+                throw new Failure(400, "'" + name + "' must be a number");
+            }
+        }
+
+    }
+
+    /**
+     * Aborts a request with an error response.
+     */
+    private static final class Failure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        Failure(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+
+    }
+
+    private static final class Token {
+
+        final String id;
+        final String accessor;
+        final String parent;
+        final String displayName;
+        final Set<String> policies;
+        final Map<String, Object> meta;
+        final long ttlSeconds;
+        final boolean renewable;
+        final long creationTime;
+        long expireTime;
+
+        Token(String id, String parent, String displayName,
+            Set<String> policies, Map<String, Object> meta, long ttlSeconds,
+            boolean renewable)
+        {
+            this.id = id;
+            this.accessor = UUID.randomUUID().toString();
+            this.parent = parent;
+            this.displayName = displayName;
+            this.policies = policies;
+            this.meta = meta;
+            this.ttlSeconds = ttlSeconds;
+            this.renewable = renewable;
+            this.creationTime = System.currentTimeMillis();
+            this.expireTime = ttlSeconds > 0
+                ? creationTime + ttlSeconds * 1000
+                : 0;
+        }
+
+        boolean isExpired(long now) {
+            return expireTime > 0 && now >= expireTime;
+        }
+
+    }
+
+    // ---------------------------------------------------------------------
+    // secrets engines
+
+    private abstract static class Mount {
+
+        final String type;
+        final Map<String, Object> options;
+
+        Mount(String type, Map<String, ?> options) {
+            this.type = type;
+            this.options = options != null
+                ? new LinkedHashMap<>(options)
+                : new LinkedHashMap<>();
+        }
+
+        abstract Response handle(Request request);
+
+        Map<String, Object> describe() {
+            Map<String, Object> mount = new LinkedHashMap<>();
+            mount.put("type", type);
+            mount.put("description", "");
+            mount.put("local", false);
+            mount.put("seal_wrap", false);
+            mount.put("options", options.isEmpty() ? null : options);
+            return mount;
+        }
+
+    }
+
+    /**
+     * The KV engine version 1.
+     */
+    private final class KvMount extends Mount {
+
+        private final Map<String, Map<String, Object>> data = new TreeMap<>();
+
+        KvMount(String type, Map<String, ?> options) {
+            super(type, options);
+        }
+
+        @Override
+        Response handle(Request request) {
+            switch (request.method) {
+                case "LIST":
+                    return list(data.keySet(), request.path);
+                case "GET": {
+                    Map<String, Object> secret = data.get(request.path);
+                    if (secret == null) {
+                        return Response.error(404, null);
+                    }
+                    return Response.ok(envelope(copy(secret), defaultLeaseSeconds));
+                }
+                case "POST":
+                case "PUT":
+                    if (request.path.isEmpty()) {
+                        throw unsupportedOperation();
+                    }
+                    data.put(request.path, copy(request.body));
+                    return Response.noContent();
+                case "DELETE":
+                    data.remove(request.path);
+                    return Response.noContent();
+                default:
+                    throw unsupportedOperation();
+            }
+        }
+
+    }
+
+    /**
+     * The KV engine version 2 with versioned secrets.
+     */
+    private final class KvV2Mount extends Mount {
+
+        private final Map<String, Secret> secrets = new TreeMap<>();
+
+        KvV2Mount(Map<String, ?> options) {
+            super("kv", options);
+        }
+
+        @Override
+        Response handle(Request request) {
+            String path = request.path;
+            int slash = path.indexOf('/');
+            String operation = slash < 0 ? path : path.substring(0, slash);
+            String key = slash < 0 ? "" : path.substring(slash + 1);
+            switch (operation) {
+                case "data":
+                    return data(request, key);
+                case "metadata":
+                    return metadata(request, key);
+                case "delete":
+                    request.require("POST", "PUT");
+                    forEachVersion(request, key, v -> v.deletionTime = now());
+                    return Response.noContent();
+                case "undelete":
+                    request.require("POST", "PUT");
+                    forEachVersion(request, key, v -> v.deletionTime = "");
+                    return Response.noContent();
+                case "destroy":
+                    request.require("POST", "PUT");
+                    forEachVersion(request, key, v -> {
+                        v.destroyed = true;
+                        v.data = null;
+                    });
+                    return Response.noContent();
+                case "config":
+                    if (request.is("GET")) {
+                        Map<String, Object> config = new LinkedHashMap<>();
+                        config.put("max_versions", 0);
+                        config.put("cas_required", false);
+                        return Response.ok(envelope(config, 0));
+                    }
+                    request.require("POST", "PUT");
+                    return Response.noContent();
+                default:
+                    return noHandler(path);
+            }
+        }
+
+        private Response data(Request request, String key) {
+            Secret secret = secrets.get(key);
+            switch (request.method) {
+                case "GET": {
+                    if (secret == null) {
+                        return Response.error(404, null);
+                    }
+                    int number = request.number("version", secret.currentVersion);
+                    Version version = secret.versions.get(number);
+                    if (version == null || version.data == null
+                        || !version.deletionTime.isEmpty())
+                    {
+                        return Response.error(404, null);
+                    }
+                    Map<String, Object> data = new LinkedHashMap<>();
+                    data.put("data", copy(version.data));
+                    data.put("metadata", version.describe(number));
+                    return Response.ok(envelope(data, 0));
+                }
+                case "POST":
+                case "PUT": {
+                    Map<String, Object> data = request.map("data");
+                    if (data == null) {
+                        throw new Failure(400, "no data provided");
+                    }
+                    Map<String, Object> options = request.map("options");
+                    if (options != null && options.get("cas") != null) {
+                        int cas = ((Number) options.get("cas")).intValue();
+                        if (cas != (secret != null ? secret.currentVersion : 0)) {
+                            throw new Failure(400, "check-and-set parameter "
+                                + "did not match the current version");
+                        }
+                    }
+                    if (secret == null) {
+                        secret = new Secret();
+                        secrets.put(key, secret);
+                    }
+                    Version version = new Version(copy(data));
+                    secret.currentVersion++;
+                    secret.updatedTime = version.createdTime;
+                    secret.versions.put(secret.currentVersion, version);
+                    return Response.ok(envelope(
+                        version.describe(secret.currentVersion), 0));
+                }
+                case "DELETE":
+                    if (secret != null) {
+                        Version version = secret.versions.get(secret.currentVersion);
+                        if (version.deletionTime.isEmpty()) {
+                            version.deletionTime = now();
+                        }
+                    }
+                    return Response.noContent();
+                default:
+                    throw unsupportedOperation();
+            }
+        }
+
+        private Response metadata(Request request, String key) {
+            switch (request.method) {
+                case "LIST":
+                    return list(secrets.keySet(), key);
+                case "GET": {
+                    Secret secret = secrets.get(key);
+                    if (secret == null) {
+                        return Response.error(404, null);
+                    }
+                    Map<String, Object> versions = new LinkedHashMap<>();
+                    secret.versions.forEach((number, version) -> {
+                        Map<String, Object> metadata = version.describe(number);
+                        metadata.remove("version");
+                        versions.put(String.valueOf(number), metadata);
+                    });
+                    Map<String, Object> data = new LinkedHashMap<>();
+                    data.put("cas_required", false);
+                    data.put("created_time", secret.createdTime);
+                    data.put("current_version", secret.currentVersion);
+                    data.put("max_versions", 0);
+                    data.put("oldest_version", 0);
+                    data.put("updated_time", secret.updatedTime);
+                    data.put("versions", versions);
+                    return Response.ok(envelope(data, 0));
+                }
+                case "POST":
+                case "PUT":
+                    return Response.noContent();
+                case "DELETE":
+                    secrets.remove(key);
+                    return Response.noContent();
+                default:
+                    throw unsupportedOperation();
+            }
+        }
+
+        private void forEachVersion(Request request, String key,
+            Consumer<Version> action)
+        {
+            List<?> numbers = request.list("versions");
+            if (numbers == null || numbers.isEmpty()) {
+                throw new Failure(400, "no version number provided");
+            }
+            Secret secret = secrets.get(key);
+            if (secret == null) {
+                return;
+            }
+            for (Object number : numbers) {
+                Version version = secret.versions.get(
+                    Integer.parseInt(String.valueOf(number)));
+                if (version != null && !version.destroyed) {
+                    action.accept(version);
+                }
+            }
+        }
+
+    }
+
+    private static final class Secret {
+
+        final String createdTime = now();
+        final Map<Integer, Version> versions = new TreeMap<>();
+        String updatedTime = createdTime;
+        int currentVersion;
+
+    }
+
+    private static final class Version {
+
+        final String createdTime = now();
+        Map<String, Object> data;
+        String deletionTime = "";
+        boolean destroyed;
+
+        Version(Map<String, Object> data) {
+            this.data = data;
+        }
+
+        Map<String, Object> describe(int number) {
+            Map<String, Object> metadata = new LinkedHashMap<>();
+            metadata.put("created_time", createdTime);
+            metadata.put("deletion_time", deletionTime);
+            metadata.put("destroyed", destroyed);
+            metadata.put("version", number);
+            return metadata;
+        }
+
+    }
+
+    /**
+     * The transit engine. Keys are AES-256 keys used in GCM mode like the
+     * default key type {@code aes256-gcm96} of Vault.
+     */
+    private final class TransitMount extends Mount {
+
+        private final Map<String, List<SecretKeySpec>> keys = new TreeMap<>();
+
+        TransitMount() {
+            super("transit", null);
+        }
+
+        @Override
+        Response handle(Request request) {
+            String path = request.path;
+            if (path.equals("keys") || path.equals("keys/")) {
+                request.require("LIST");
+                return list(keys.keySet(), "");
+            }
+            if (path.startsWith("keys/") && path.endsWith("/rotate")) {
+                request.require("POST", "PUT");
+                key(path.substring(5, path.length() - 7)).add(newKey());
+                return Response.noContent();
+            }
+            if (path.startsWith("keys/")) {
+                String name = path.substring(5);
+                switch (request.method) {
+                    case "GET":
+                        return keys.containsKey(name)
+                            ? Response.ok(envelope(describeKey(name), 0))
+                            : Response.error(404, null);
+                    case "POST":
+                    case "PUT":
+                        keys.computeIfAbsent(name, n -> newKeyRing());
+                        return Response.noContent();
+                    case "DELETE":
+                        throw new Failure(400,
+                            "deletion is not allowed for this key");
+                    default:
+                        throw unsupportedOperation();
+                }
+            }
+            if (path.startsWith("encrypt/")) {
+                request.require("POST", "PUT");
+                String plaintext = request.string("plaintext");
+                if (plaintext == null) {
+                    throw new Failure(400, "missing plaintext to encrypt");
+                }
+                byte[] bytes;
+                try {
+                    bytes = Base64.getDecoder().decode(plaintext);
+                } catch (IllegalArgumentException e) {
+                    throw new Failure(400, "failed to base64-decode plaintext");
+                }
+                // Like Vault, encrypt creates the key if it does not exist.
+                List<SecretKeySpec> ring = keys.computeIfAbsent(
+                    path.substring(8), n -> newKeyRing());
+                String ciphertext = "vault:v" + ring.size() + ':'
+                    + encrypt(ring.get(ring.size() - 1), bytes);
+                return Response.ok(envelope(
+                    Collections.singletonMap("ciphertext", ciphertext), 0));
+            }
+            if (path.startsWith("decrypt/")) {
+                request.require("POST", "PUT");
+                List<SecretKeySpec> ring = key(path.substring(8));
+                String plaintext = decrypt(ring, request.string("ciphertext"));
+                return Response.ok(envelope(
+                    Collections.singletonMap("plaintext", plaintext), 0));
+            }
+            return noHandler(path);
+        }
+
+        private List<SecretKeySpec> key(String name) {
+            List<SecretKeySpec> ring = keys.get(name);
+            if (ring == null) {
+                throw new Failure(400, "encryption key not found");
+            }
+            return ring;
+        }
+
+        private Map<String, Object> describeKey(String name) {
+            List<SecretKeySpec> ring = keys.get(name);
+            Map<String, Object> versions = new LinkedHashMap<>();
+            long created = System.currentTimeMillis() / 1000;
+            for (int i = 1; i <= ring.size(); i++) {
+                versions.put(String.valueOf(i), created);
+            }
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("name", name);
+            data.put("type", "aes256-gcm96");
+            data.put("deletion_allowed", false);
+            data.put("derived", false);
+            data.put("exportable", false);
+            data.put("keys", versions);
+            data.put("latest_version", ring.size());
+            data.put("min_decryption_version", 1);
+            data.put("min_encryption_version", 0);
+            data.put("supports_encryption", true);
+            data.put("supports_decryption", true);
+            data.put("supports_derivation", true);
+            data.put("supports_signing", false);
+            return data;
+        }
+
+        private String decrypt(List<SecretKeySpec> ring, String ciphertext) {
+            if (ciphertext == null || !ciphertext.startsWith("vault:v")) {
+                throw new Failure(400, "invalid ciphertext: no prefix");
+            }
+            int colon = ciphertext.indexOf(':', 7);
+            try {
+                int version = Integer.parseInt(ciphertext.substring(7, colon));
+                if (version < 1 || version > ring.size()) {
+                    throw new Failure(400, "invalid key version");
+                }
+                byte[] bytes = Base64.getDecoder().decode(
+                    ciphertext.substring(colon + 1));
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, ring.get(version - 1),
+                    new GCMParameterSpec(TAG_LENGTH_BITS, bytes, 0, NONCE_LENGTH));
+                byte[] plaintext = cipher.doFinal(
+                    bytes, NONCE_LENGTH, bytes.length - NONCE_LENGTH);
+                return Base64.getEncoder().encodeToString(plaintext);
+            } catch (RuntimeException | GeneralSecurityException e) {
+                if (e instanceof Failure) {
+                    throw (Failure) e;
+                }
+                throw new Failure(400,
+                    "invalid ciphertext: unable to decrypt");
+            }
+        }
+
+    }
+
+    private static List<SecretKeySpec> newKeyRing() {
+        List<SecretKeySpec> ring = new ArrayList<>();
+        ring.add(newKey());
+        return ring;
+    }
+
+    private static SecretKeySpec newKey() {
+        byte[] key = new byte[32];
+        RANDOM.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private static String encrypt(SecretKeySpec key, byte[] plaintext) {
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key,
+                new GCMParameterSpec(TAG_LENGTH_BITS, nonce));
+            byte[] ciphertext = cipher.doFinal(plaintext);
+            return Base64.getEncoder().encodeToString(ByteBuffer
+                .allocate(nonce.length + ciphertext.length)
+                .put(nonce).put(ciphertext).array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.flapdoodle.embed.process.config.IRuntimeConfig;
+import de.flapdoodle.embed.process.config.io.ProcessOutput;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.runtime.ICommandLinePostProcessor;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+/**
+ * Serves the HTTP API of {@link VaultInMemoryEngine} on the listener address
+ * of the config. The server starts within milliseconds and does not need the
+ * Vault executable, so a build may start thousands of them.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultInMemoryServer implements VaultServerBackend {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final IArtifactStore NO_ARTIFACTS = new IArtifactStore() {
+
+        @Override
+        public boolean checkDistribution(Distribution distribution) {
+            return true;
+        }
+
+        @Override
+        public IExtractedFileSet extractFileSet(Distribution distribution)
+            throws IOException
+        {
+            throw new IOException("The in-memory server has no executable");
+        }
+
+        @Override
+        public void removeFileSet(Distribution distribution,
+            IExtractedFileSet files)
+        {
+            // NOP
+        }
+
+    };
+
+    private final HttpServer server;
+    private final VaultInMemoryEngine engine;
+    private final VaultStartupInfo startupInfo;
+    private long readinessNanos;
+    private volatile boolean stopped;
+
+    private VaultInMemoryServer(HttpServer server, VaultInMemoryEngine engine,
+        VaultStartupInfo startupInfo)
+    {
+        this.server = server;
+        this.engine = engine;
+        this.startupInfo = startupInfo;
+    }
+
+    static VaultInMemoryServer start(VaultServerConfig config)
+        throws IOException
+    {
+        long startTime = System.nanoTime();
+        String host = config.getListenerHost();
+        int port = config.getListenerPort();
+        byte[] unsealKey = new byte[32];
+        RANDOM.nextBytes(unsealKey);
+        VaultInMemoryEngine engine = new VaultInMemoryEngine(config);
+        VaultInMemoryServer inMemory = new VaultInMemoryServer(
+            VaultHttpServer.start(host, port, e -> handle(engine, e)), engine,
+            new VaultStartupInfo("http://" + host + ':' + port, null,
+                config.getRootTokenID(),
+                Base64.getEncoder().encodeToString(unsealKey),
+                config.version().asInDownloadPath()));
+        inMemory.readinessNanos = System.nanoTime() - startTime;
+        return inMemory;
+    }
+
+    /**
+     * Returns the runtime config for the executable of an in-memory server.
+     * It neither extracts nor removes files and does not register a shutdown
+     * hook, the server dies with the JVM anyway.
+     */
+    static IRuntimeConfig runtimeConfigOf(IRuntimeConfig runtime) {
+        return new IRuntimeConfig() {
+
+            @Override
+            public ProcessOutput getProcessOutput() {
+                return runtime.getProcessOutput();
+            }
+
+            @Override
+            public ICommandLinePostProcessor getCommandLinePostProcessor() {
+                return runtime.getCommandLinePostProcessor();
+            }
+
+            @Override
+            public IArtifactStore getArtifactStore() {
+                return NO_ARTIFACTS;
+            }
+
+            @Override
+            public boolean isDaemonProcess() {
+                return false;
+            }
+
+        };
+    }
+
+    private static void handle(VaultInMemoryEngine engine,
+        HttpExchange exchange) throws IOException
+    {
+        VaultInMemoryEngine.Response response;
+        try {
+            response = handle(engine,
+                exchange.getRequestMethod(),
+                exchange.getRequestURI().getPath(),
+                exchange.getRequestURI().getRawQuery(),
+                exchange.getRequestHeaders().getFirst("X-Vault-Token"),
+                new String(VaultHttpServer.readRequestBody(exchange),
+                    StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            exchange.close();
+            throw e;
+        }
+        VaultHttpServer.sendResponse(exchange, response.status,
+            ByteBuffer.wrap(response.body != null
+                ? VaultJson.writeCompact(response.body).getBytes(StandardCharsets.UTF_8)
+                : new byte[0]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static VaultInMemoryEngine.Response handle(
+        VaultInMemoryEngine engine, String method, String path, String query,
+        String token, String content)
+    {
+        if (!path.startsWith("/v1/")) {
+            return VaultInMemoryEngine.Response.error(404, null);
+        }
+        Object body;
+        try {
+            body = content.trim().isEmpty() ? null : VaultJson.parse(content);
+        } catch (IllegalArgumentException e) {
+            body = content;
+        }
+        if (body != null && !(body instanceof Map)) {
+            return VaultInMemoryEngine.Response.error(
+                400, "failed to parse JSON input");
+        }
+        try {
+            return engine.handle("HEAD".equals(method) ? "GET" : method,
+                path.substring(4), parseQuery(query),
+                token, (Map<String, Object>) body);
+        } catch (RuntimeException e) {
+            return VaultInMemoryEngine.Response.error(500, e.toString());
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        if (query == null || query.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> parameters = new LinkedHashMap<>();
+        try {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                String name = equals < 0 ? parameter : parameter.substring(0, equals);
+                String value = equals < 0 ? "" : parameter.substring(equals + 1);
+                parameters.put(URLDecoder.decode(name, "UTF-8"),
+                    URLDecoder.decode(value, "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+
+    @Override
+    public VaultStartupInfo getStartupInfo() {
+        return startupInfo;
+    }
+
+    @Override
+    public long getReadinessNanos() {
+        return readinessNanos;
+    }
+
+    @Override
+    public VaultStartupMetrics getStartupMetrics(
+        VaultStartupMetrics prepareMetrics)
+    {
+        return prepareMetrics.withStart(0, 0, readinessNanos);
+    }
+
+    @Override
+    public String getRecentOutput() {
+        return "";
+    }
+
+    @Override
+    public long getDroppedOutputLines() {
+        return 0;
+    }
+
+    @Override
+    public long getDroppedOutputBlocks() {
+        return 0;
+    }
+
+    @Override
+    public long getProcessId() {
+        return 0;
+    }
+
+    @Override
+    public boolean isProcessRunning() {
+        return !stopped;
+    }
+
+    @Override
+    public boolean isRegisteredJobKiller() {
+        return false;
+    }
+
+    @Override
+    public List<File> getLogFiles() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isKilled() {
+        return false;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (stopped) {
+            throw new IOException("Vault server is not running");
+        }
+        engine.reset();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!stopped) {
+            stopped = true;
+            server.stop(0);
+        }
+    }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON writer and parser for Vault configs and API payloads.
+ *
+ * <p>Objects are represented as {@link Map}s, arrays as {@link List}s.
+ * The parser returns {@link Long} for integral numbers and {@link Double}
+ * for all other numbers.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultJson {
+
+    /**
+     * The indent which disables all whitespace.
+     */
+    private static final int COMPACT = -1;
+
+    private VaultJson() {
+        // NOP
+    }
+
+    /**
+     * Writes the value as indented JSON.
+     */
+    static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(sb, value, 0);
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * Writes the value without any whitespace, e.g. for request bodies.
+     */
+    static String writeCompact(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(sb, value, COMPACT);
+        return sb.toString();
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        quote(sb, value);
+        return sb.toString();
+    }
+
+    private static void write(StringBuilder sb, Object value, int indent) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            quote(sb, (String) value);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.isEmpty()) {
+                sb.append("{}");
+                return;
+            }
+            if (indent == COMPACT) {
+                sb.append('{');
+                Iterator<? extends Map.Entry<?, ?>> i = map.entrySet().iterator();
+                while (i.hasNext()) {
+                    Map.Entry<?, ?> entry = i.next();
+                    quote(sb, String.valueOf(entry.getKey()));
+                    sb.append(':');
+                    write(sb, entry.getValue(), COMPACT);
+                    if (i.hasNext()) {
+                        sb.append(',');
+                    }
+                }
+                sb.append('}');
+                return;
+            }
+            sb.append("{\n");
+            Iterator<? extends Map.Entry<?, ?>> i = map.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry<?, ?> entry = i.next();
+                indent(sb, indent + 1);
+                quote(sb, String.valueOf(entry.getKey()));
+                sb.append(": ");
+                write(sb, entry.getValue(), indent + 1);
+                sb.append(i.hasNext() ? ",\n" : "\n");
+            }
+            indent(sb, indent);
+            sb.append('}');
+        } else if (value instanceof Iterable) {
+            sb.append('[');
+            Iterator<?> i = ((Iterable<?>) value).iterator();
+            while (i.hasNext()) {
+                write(sb, i.next(), indent);
+                if (i.hasNext()) {
+                    sb.append(indent == COMPACT ? "," : ", ");
+                }
+            }
+            sb.append(']');
+        } else {
+            throw new IllegalArgumentException(
+                "Unsupported JSON value: " + value.getClass().getName());
+        }
+    }
+
+    private static void indent(StringBuilder sb, int indent) {
+        for (int i = 0; i < indent; i++) {
+            sb.append('\t');
+        }
+    }
+
+    private static void quote(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Parses the given JSON text.
+     *
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    static Object parse(String json) {
+        Parser parser = new Parser(json);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        if (parser.pos != json.length()) {
+            throw parser.error("Unexpected content");
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value at the given path of nested objects or
+     * {@code null} if the path does not exist.
+     */
+    static Object get(Object json, String... path) {
+        Object value = json;
+        for (String key : path) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(key);
+        }
+        return value;
+    }
+
+    private static final class Parser {
+
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            skipWhitespace();
+            if (pos >= s.length()) {
+                throw error("Unexpected end");
+            }
+            char c = s.charAt(pos);
+            switch (c) {
+                case '{':
+                    return object();
+                case '[':
+                    return array();
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a key");
+                }
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                map.put(key, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() {
+            pos++;
+            StringBuilder sb = null;
+            int start = pos;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '"') {
+                    String value = sb == null
+                        ? s.substring(start, pos)
+                        : sb.append(s, start, pos).toString();
+                    pos++;
+                    return value;
+                }
+                if (c == '\\') {
+                    if (sb == null) {
+                        sb = new StringBuilder();
+                    }
+                    sb.append(s, start, pos);
+                    pos++;
+                    char e = pos < s.length() ? s.charAt(pos) : 0;
+                    switch (e) {
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'b':
+                            sb.append('\b');
+                            break;
+                        case 'f':
+                            sb.append('\f');
+                            break;
+                        case 'u':
+                            if (pos + 5 > s.length()) {
+                                throw error("Invalid escape");
+                            }
+                            sb.append((char) Integer.parseInt(
+                                s.substring(pos + 1, pos + 5), 16));
+                            pos += 4;
+                            break;
+                        default:
+                            sb.append(e);
+                            break;
+                    }
+                    pos++;
+                    start = pos;
+                } else {
+                    pos++;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Object literal(String text, Object value) {
+            if (!s.startsWith(text, pos)) {
+                throw error("Unexpected literal");
+            }
+            pos += text.length();
+            return value;
+        }
+
+        private Number number() {
+            int start = pos;
+            boolean integral = true;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    integral = false;
+                } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                    break;
+                }
+                pos++;
+            }
+            if (start == pos) {
+                throw error("Unexpected character");
+            }
+            String text = s.substring(start, pos);
+            try {
+                return integral ? (Number) Long.valueOf(text) : Double.valueOf(text);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + text);
+            }
+        }
+
+        void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            return pos < s.length() ? s.charAt(pos) : 0;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(
+                message + " at position " + pos + " in JSON: " + s);
+        }
+
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds with a relative
+ * precision of better than 1%. Values are counted in buckets, which double
+ * in width with every power of two and are divided into 128 sub-buckets,
+ * so the memory footprint does not depend on the number of recorded values.
+ *
+ * <p>Values are recorded lock-free and may be recorded by many threads at
+ * the same time.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * The highest trackable value, about 18 minutes. Higher values are
+     * counted as this value.
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public VaultLatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.totalCount = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records the given latency in nanoseconds.
+     */
+    public void recordValue(long value) {
+        recordValue(value, 1);
+    }
+
+    /**
+     * Records the value and, if the value is larger than the expected
+     * interval between two values, the values which would have been
+     * recorded during the stall of the recording thread. This corrects
+     * the coordinated omission of a load generator, which sends the next
+     * request only after the response to the previous one.
+     *
+     * @param expectedInterval the expected interval between two values in
+     *        nanoseconds, {@code 0} to disable the correction
+     */
+    public void recordValueWithExpectedInterval(long value, long expectedInterval) {
+        recordValue(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval;
+             missing >= expectedInterval;
+             missing -= expectedInterval)
+        {
+            recordValue(missing);
+        }
+    }
+
+    private void recordValue(long value, long count) {
+        if (value < 0) {
+            throw new IllegalArgumentException(
+                "value may not be negative, but was " + value);
+        }
+        long v = Math.min(value, MAX_VALUE);
+        counts.addAndGet(indexOf(v), count);
+        totalCount.addAndGet(count);
+        sum.addAndGet(v * count);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * Returns a copy of this histogram corrected for the coordinated
+     * omission after recording, see
+     * {@link #recordValueWithExpectedInterval(long, long)}.
+     */
+    public VaultLatencyHistogram copyCorrectedForCoordinatedOmission(
+        long expectedInterval)
+    {
+        VaultLatencyHistogram copy = new VaultLatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count == 0) {
+                continue;
+            }
+            long value = highestEquivalentValue(i);
+            copy.recordValue(value, count);
+            if (expectedInterval > 0) {
+                for (long missing = value - expectedInterval;
+                     missing >= expectedInterval;
+                     missing -= expectedInterval)
+                {
+                    copy.recordValue(missing, count);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Adds all values of the given histogram to this histogram.
+     */
+    public void add(VaultLatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxValue() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded
+     * values lie, e.g. {@code getValueAtPercentile(99.9)}. The returned
+     * value is the upper bound of the bucket containing the percentile.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                "percentile must be between 0 and 100, but was " + percentile);
+        }
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= rank) {
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getTotalCount()
+            + ", p50=" + getValueAtPercentile(50)
+            + ", p99=" + getValueAtPercentile(99)
+            + ", max=" + getMaxValue();
+    }
+
+    /**
+     * Values below 256 have their own bucket. Larger values are divided
+     * into groups of 128 sub-buckets per power of two.
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF
+            + subBucket - SUB_BUCKET_HALF;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF
+            + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tuning of the TCP listener of a Vault server. The listener address is
+ * always taken from {@link VaultServerConfig#getListenerHost()} and
+ * {@link VaultServerConfig#getListenerPort()}.
+ *
+ * <p>The listener of the dev mode can not be tuned, so a server with a
+ * listener config does not run in the dev mode.</p>
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerConfig.Builder#listener(VaultListenerConfig)
+ */
+public final class VaultListenerConfig {
+
+    private static final VaultListenerConfig DEFAULTS =
+        new VaultListenerConfig(Collections.emptyMap());
+
+    private final Map<String, Object> options;
+
+    private VaultListenerConfig(Map<String, Object> options) {
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Returns a listener config using Vault's defaults.
+     */
+    public static VaultListenerConfig defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Sets the maximum request size in bytes, 0 disables the limit.
+     */
+    public VaultListenerConfig maxRequestSize(long bytes) {
+        return with("max_request_size", bytes);
+    }
+
+    /**
+     * Sets the maximum request duration, e.g. {@code 90s}.
+     */
+    public VaultListenerConfig maxRequestDuration(String duration) {
+        return with("max_request_duration", duration);
+    }
+
+    public VaultListenerConfig readTimeout(String duration) {
+        return with("http_read_timeout", duration);
+    }
+
+    public VaultListenerConfig readHeaderTimeout(String duration) {
+        return with("http_read_header_timeout", duration);
+    }
+
+    public VaultListenerConfig writeTimeout(String duration) {
+        return with("http_write_timeout", duration);
+    }
+
+    public VaultListenerConfig idleTimeout(String duration) {
+        return with("http_idle_timeout", duration);
+    }
+
+    /**
+     * Sets any other listener option.
+     */
+    public VaultListenerConfig with(String name, Object value) {
+        requireNonNull(name, "name may not be null");
+        requireNonNull(value, "value may not be null");
+        Map<String, Object> copy = new LinkedHashMap<>(options);
+        copy.put(name, value);
+        return new VaultListenerConfig(copy);
+    }
+
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    Map<String, Object> toJsonObject(String address, String clusterAddress) {
+        Map<String, Object> tcp = new LinkedHashMap<>();
+        tcp.put("address", address);
+        if (clusterAddress != null) {
+            tcp.put("cluster_address", clusterAddress);
+        }
+        tcp.put("tls_disable", true);
+        tcp.putAll(options);
+        return Collections.singletonMap("tcp", tcp);
+    }
+
+    Map<String, Object> toUnixJsonObject(String path) {
+        Map<String, Object> unix = new LinkedHashMap<>();
+        unix.put("address", path);
+        unix.put("tls_disable", true);
+        unix.putAll(options);
+        return Collections.singletonMap("unix", unix);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof VaultListenerConfig
+            && options.equals(((VaultListenerConfig) obj).options);
+    }
+
+    @Override
+    public int hashCode() {
+        return options.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "VaultListenerConfig" + options;
+    }
+
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+import com.github.golovnin.embedded.vault.VaultLoadProfile.Operation;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Generates load on a Vault server according to a {@link VaultLoadProfile}
+ * and records the latency of every operation in a histogram.
+ *
+ * <p>The reported latencies are corrected for coordinated omission: with a
+ * fixed rate the latency of a request is measured from the time it should
+ * have been sent, so a stalled server is not hidden by the workers waiting
+ * for it. In a closed loop the histograms are corrected after the run using
+ * the median latency of the operation as the expected interval between two
+ * requests of a worker.</p>
+ *
+ * <p>Before the load starts the generator prepares the data needed by the
+ * operations: it writes the secrets read by {@link Operation#KV_READ},
+ * mounts the transit engine and creates the key {@code load-test}, and
+ * creates the token looked up by {@link Operation#TOKEN_LOOKUP}.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultLoadGenerator {
+
+    private static final AtomicInteger GENERATOR_COUNTER = new AtomicInteger();
+
+    private static final String TRANSIT_KEY = "load-test";
+
+    private final VaultClient client;
+
+    /**
+     * @param client the client used to send the requests, its limit of
+     *        requests in flight should not be lower than the concurrency
+     *        of the profile
+     */
+    public VaultLoadGenerator(VaultClient client) {
+        this.client = requireNonNull(client, "client may not be null");
+    }
+
+    /**
+     * Prepares the data, generates the load and returns the results.
+     *
+     * @throws IOException if the data could not be prepared
+     */
+    public Report run(VaultLoadProfile profile) throws IOException {
+        requireNonNull(profile, "profile may not be null");
+        Requests requests = prepare(profile);
+        Map<Operation, Integer> weights = profile.getWeights();
+        Operation[] operations = weights.keySet().toArray(new Operation[0]);
+        int[] cumulativeWeights = new int[operations.length];
+        int totalWeight = 0;
+        Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+        for (int i = 0; i < operations.length; i++) {
+            totalWeight += weights.get(operations[i]);
+            cumulativeWeights[i] = totalWeight;
+            recorders.put(operations[i], new Recorder());
+        }
+
+        int concurrency = profile.getConcurrency();
+        // In a closed loop every worker sends the next request immediately.
+        long interval = profile.getRate() > 0
+            ? (long) (TimeUnit.SECONDS.toNanos(1) / profile.getRate())
+            : 0;
+        long startTime = System.nanoTime();
+        long measureStart = startTime + profile.getWarmupNanos();
+        long end = measureStart + profile.getDurationNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+            VaultThreads.daemonThreadFactory(
+                "load-" + GENERATOR_COUNTER.incrementAndGet()));
+        int total = totalWeight;
+        try {
+            for (int w = 0; w < concurrency; w++) {
+                long first = startTime + w * interval;
+                long workerInterval = interval * concurrency;
+                executor.execute(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long next = first;
+                    while (true) {
+                        long now = System.nanoTime();
+                        if (now >= end || next >= end) {
+                            return;
+                        }
+                        while (next > now) {
+                            LockSupport.parkNanos(next - now);
+                            now = System.nanoTime();
+                        }
+                        long intended = interval > 0 ? next : now;
+                        int r = random.nextInt(total);
+                        int i = 0;
+                        while (cumulativeWeights[i] <= r) {
+                            i++;
+                        }
+                        Operation operation = operations[i];
+                        Recorder recorder = recorders.get(operation);
+                        long sendTime = System.nanoTime();
+                        try {
+                            requests.execute(operation, random);
+                            long doneTime = System.nanoTime();
+                            if (intended >= measureStart) {
+                                recorder.latency.recordValue(doneTime - intended);
+                                recorder.serviceTime.recordValue(doneTime - sendTime);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            if (intended >= measureStart) {
+                                recorder.errors.incrementAndGet();
+                                recorder.firstError.compareAndSet(null, e);
+                            }
+                        }
+                        next = intended + workerInterval;
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                // Wait for the running requests.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating load");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<Operation, Result> results = new EnumMap<>(Operation.class);
+        for (Map.Entry<Operation, Recorder> entry : recorders.entrySet()) {
+            Recorder recorder = entry.getValue();
+            VaultLatencyHistogram latency = interval > 0
+                ? recorder.latency
+                : recorder.serviceTime.copyCorrectedForCoordinatedOmission(
+                    recorder.serviceTime.getValueAtPercentile(50));
+            results.put(entry.getKey(), new Result(entry.getKey(), latency,
+                recorder.serviceTime, recorder.errors.get(),
+                recorder.firstError.get(), profile.getDurationNanos()));
+        }
+        return new Report(profile, results);
+    }
+
+    private Requests prepare(VaultLoadProfile profile) throws IOException {
+        Map<Operation, Integer> weights = profile.getWeights();
+        Requests requests = new Requests(profile);
+        if (weights.containsKey(Operation.KV_READ)) {
+            new VaultSeeder(client).seed(IntStream.range(0, profile.getKeys())
+                .mapToObj(i -> VaultSeeder.Item.write(
+                    requests.kvPaths[i], requests.kvData)));
+        }
+        if (weights.containsKey(Operation.TRANSIT_ENCRYPT)) {
+            Map<String, Object> mounts = client.read("sys/mounts");
+            if (mounts == null || (VaultJson.get(mounts, "transit/") == null
+                && VaultJson.get(mounts, "data", "transit/") == null))
+            {
+                client.request("POST", "sys/mounts/transit",
+                    Collections.singletonMap("type", "transit"));
+            }
+            client.request("POST", "transit/keys/" + TRANSIT_KEY, null);
+        }
+        if (weights.containsKey(Operation.TOKEN_LOOKUP)) {
+            Map<String, Object> response = client.request(
+                "POST", "auth/token/create", requests.tokenCreate);
+            requests.tokenLookup = Collections.singletonMap("token",
+                VaultJson.get(response, "auth", "client_token"));
+        }
+        return requests;
+    }
+
+    /**
+     * The precomputed paths and bodies of the requests.
+     */
+    private final class Requests {
+
+        final String[] kvPaths;
+        final Map<String, ?> kvData;
+        final Map<String, ?> encrypt;
+        final Map<String, ?> tokenCreate;
+        Map<String, ?> tokenLookup;
+
+        Requests(VaultLoadProfile profile) {
+            String prefix = profile.getKvVersion() == 2
+                ? profile.getKvMount() + "/data/load-test/key-"
+                : profile.getKvMount() + "/load-test/key-";
+            kvPaths = new String[profile.getKeys()];
+            for (int i = 0; i < kvPaths.length; i++) {
+                kvPaths[i] = prefix + i;
+            }
+            char[] value = new char[profile.getValueSize()];
+            Arrays.fill(value, 'x');
+            Map<String, Object> secret =
+                Collections.singletonMap("value", new String(value));
+            kvData = profile.getKvVersion() == 2
+                ? Collections.singletonMap("data", secret)
+                : secret;
+            encrypt = Collections.singletonMap("plaintext",
+                Base64.getEncoder().encodeToString(
+                    new String(value).getBytes(StandardCharsets.US_ASCII)));
+            Map<String, Object> token = new LinkedHashMap<>();
+            token.put("policies", Collections.singletonList("default"));
+            token.put("ttl", "1h");
+            tokenCreate = token;
+        }
+
+        void execute(Operation operation, ThreadLocalRandom random)
+            throws IOException
+        {
+            switch (operation) {
+                case KV_READ:
+                    String path = kvPaths[random.nextInt(kvPaths.length)];
+                    if (client.read(path) == null) {
+                        throw new IOException("Secret " + path + " not found");
+                    }
+                    break;
+                case KV_WRITE:
+                    client.write(kvPaths[random.nextInt(kvPaths.length)], kvData);
+                    break;
+                case TRANSIT_ENCRYPT:
+                    client.request("POST", "transit/encrypt/" + TRANSIT_KEY,
+                        encrypt);
+                    break;
+                case TOKEN_CREATE:
+                    client.request("POST", "auth/token/create", tokenCreate);
+                    break;
+                case TOKEN_LOOKUP:
+                    client.request("POST", "auth/token/lookup", tokenLookup);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                        "Unknown operation " + operation);
+            }
+        }
+
+    }
+
+    private static final class Recorder {
+
+        final VaultLatencyHistogram latency = new VaultLatencyHistogram();
+        final VaultLatencyHistogram serviceTime = new VaultLatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicReference<Exception> firstError = new AtomicReference<>();
+
+    }
+
+    /**
+     * The results of a single operation.
+     */
+    public static final class Result {
+
+        private final Operation operation;
+        private final VaultLatencyHistogram latency;
+        private final VaultLatencyHistogram serviceTime;
+        private final long errors;
+        private final Exception firstError;
+        private final long durationNanos;
+
+        Result(Operation operation, VaultLatencyHistogram latency,
+            VaultLatencyHistogram serviceTime, long errors,
+            Exception firstError, long durationNanos)
+        {
+            this.operation = operation;
+            this.latency = latency;
+            this.serviceTime = serviceTime;
+            this.errors = errors;
+            this.firstError = firstError;
+            this.durationNanos = durationNanos;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Returns the number of successful requests.
+         */
+        public long getCount() {
+            return serviceTime.getTotalCount();
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Returns the first failure or {@code null} if all requests
+         * succeeded.
+         */
+        public Exception getFirstError() {
+            return firstError;
+        }
+
+        /**
+         * Returns the number of successful requests per second.
+         */
+        public double getThroughput() {
+            return getCount() * 1e9 / durationNanos;
+        }
+
+        /**
+         * Returns the latencies corrected for coordinated omission.
+         */
+        public VaultLatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Returns the time between sending a request and receiving the
+         * response, which is not corrected for coordinated omission.
+         */
+        public VaultLatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+    }
+
+    /**
+     * The results of a run.
+     */
+    public static final class Report {
+
+        private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+        private final VaultLoadProfile profile;
+        private final Map<Operation, Result> results;
+
+        Report(VaultLoadProfile profile, Map<Operation, Result> results) {
+            this.profile = profile;
+            this.results = Collections.unmodifiableMap(results);
+        }
+
+        public VaultLoadProfile getProfile() {
+            return profile;
+        }
+
+        public Map<Operation, Result> getResults() {
+            return results;
+        }
+
+        public Result getResult(Operation operation) {
+            return results.get(operation);
+        }
+
+        /**
+         * Returns the number of successful requests per second of all
+         * operations.
+         */
+        public double getThroughput() {
+            double throughput = 0;
+            for (Result result : results.values()) {
+                throughput += result.getThroughput();
+            }
+            return throughput;
+        }
+
+        /**
+         * Prints the throughput and the corrected latency percentiles of
+         * every operation in microseconds.
+         */
+        public void print(PrintStream out) {
+            out.print(this);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(512);
+            sb.append(profile).append('\n');
+            sb.append(String.format("%-16s %10s %8s %10s", "operation",
+                "count", "errors", "req/s"));
+            for (double percentile : PERCENTILES) {
+                sb.append(String.format(" %9s", "p" + format(percentile)));
+            }
+            sb.append(String.format(" %9s%n", "max"));
+            for (Result result : results.values()) {
+                sb.append(String.format("%-16s %10d %8d %10.1f",
+                    result.getOperation(), result.getCount(),
+                    result.getErrors(), result.getThroughput()));
+                VaultLatencyHistogram latency = result.getLatency();
+                for (double percentile : PERCENTILES) {
+                    sb.append(String.format(" %9.1f",
+                        latency.getValueAtPercentile(percentile) / 1000.0));
+                }
+                sb.append(String.format(" %9.1f%n", latency.getMaxValue() / 1000.0));
+            }
+            sb.append(String.format("total req/s: %.1f, latencies in us,"
+                + " corrected for coordinated omission%n", getThroughput()));
+            return sb.toString();
+        }
+
+        private static String format(double percentile) {
+            return percentile == Math.rint(percentile)
+                ? String.valueOf((long) percentile)
+                : String.valueOf(percentile);
+        }
+
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Describes the load generated by {@link VaultLoadGenerator}: the mix of
+ * operations, the concurrency, the request rate and the duration.
+ *
+ * <p>Without a rate the generator runs a closed loop, i.e. every worker
+ * sends the next request as soon as it has received the previous response.
+ * With a rate the requests are sent on a fixed schedule and the latency is
+ * measured from the time the request should have been sent.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultLoadProfile {
+
+    /**
+     * The operations of the load mix.
+     */
+    public enum Operation {
+
+        /** Reads a secret from the KV engine. */
+        KV_READ,
+
+        /** Writes a secret to the KV engine. */
+        KV_WRITE,
+
+        /** Encrypts a value with the transit engine. */
+        TRANSIT_ENCRYPT,
+
+        /** Creates a token. */
+        TOKEN_CREATE,
+
+        /** Looks up a token. */
+        TOKEN_LOOKUP
+
+    }
+
+    private static final VaultLoadProfile DEFAULTS = new VaultLoadProfile(
+        Collections.emptyMap(), 8, 0, TimeUnit.SECONDS.toNanos(10), 0,
+        100, 64, "secret", 2);
+
+    private final Map<Operation, Integer> weights;
+    private final int concurrency;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final int keys;
+    private final int valueSize;
+    private final String kvMount;
+    private final int kvVersion;
+
+    private VaultLoadProfile(Map<Operation, Integer> weights, int concurrency,
+        double rate, long durationNanos, long warmupNanos, int keys,
+        int valueSize, String kvMount, int kvVersion)
+    {
+        this.weights = weights;
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.durationNanos = durationNanos;
+        this.warmupNanos = warmupNanos;
+        this.keys = keys;
+        this.valueSize = valueSize;
+        this.kvMount = kvMount;
+        this.kvVersion = kvVersion;
+    }
+
+    /**
+     * Returns a profile with 8 workers running a closed loop of KV reads
+     * for 10 seconds against the KV version 2 engine mounted at
+     * {@code secret/}, which is mounted by the dev mode.
+     */
+    public static VaultLoadProfile defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Sets the relative weight of the given operation in the load mix,
+     * 0 removes the operation. If no weight is set, only KV reads are sent.
+     */
+    public VaultLoadProfile weight(Operation operation, int weight) {
+        requireNonNull(operation, "operation may not be null");
+        if (weight < 0) {
+            throw new IllegalArgumentException(
+                "weight may not be negative, but was " + weight);
+        }
+        Map<Operation, Integer> copy = new EnumMap<>(Operation.class);
+        copy.putAll(weights);
+        if (weight == 0) {
+            copy.remove(operation);
+        } else {
+            copy.put(operation, weight);
+        }
+        return new VaultLoadProfile(Collections.unmodifiableMap(copy),
+            concurrency, rate, durationNanos, warmupNanos, keys, valueSize,
+            kvMount, kvVersion);
+    }
+
+    /**
+     * Sets the number of workers, i.e. the maximum number of requests
+     * in flight.
+     */
+    public VaultLoadProfile concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException(
+                "concurrency must be greater than 0, but was " + concurrency);
+        }
+        return new VaultLoadProfile(weights, concurrency, rate, durationNanos,
+            warmupNanos, keys, valueSize, kvMount, kvVersion);
+    }
+
+    /**
+     * Sets the total number of requests per second sent by all workers,
+     * 0 runs a closed loop.
+     */
+    public VaultLoadProfile rate(double requestsPerSecond) {
+        if (requestsPerSecond < 0) {
+            throw new IllegalArgumentException(
+                "requestsPerSecond may not be negative, but was " + requestsPerSecond);
+        }
+        return new VaultLoadProfile(weights, concurrency, requestsPerSecond,
+            durationNanos, warmupNanos, keys, valueSize, kvMount, kvVersion);
+    }
+
+    public VaultLoadProfile duration(long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException(
+                "duration must be greater than 0, but was " + duration);
+        }
+        return new VaultLoadProfile(weights, concurrency, rate,
+            unit.toNanos(duration), warmupNanos, keys, valueSize, kvMount,
+            kvVersion);
+    }
+
+    /**
+     * Sets the time the load is generated before the measurement starts.
+     */
+    public VaultLoadProfile warmup(long warmup, TimeUnit unit) {
+        if (warmup < 0) {
+            throw new IllegalArgumentException(
+                "warmup may not be negative, but was " + warmup);
+        }
+        return new VaultLoadProfile(weights, concurrency, rate, durationNanos,
+            unit.toNanos(warmup), keys, valueSize, kvMount, kvVersion);
+    }
+
+    /**
+     * Sets the number of distinct secrets read and written by the KV
+     * operations.
+     */
+    public VaultLoadProfile keys(int keys) {
+        if (keys < 1) {
+            throw new IllegalArgumentException(
+                "keys must be greater than 0, but was " + keys);
+        }
+        return new VaultLoadProfile(weights, concurrency, rate, durationNanos,
+            warmupNanos, keys, valueSize, kvMount, kvVersion);
+    }
+
+    /**
+     * Sets the size of the written secret values and of the encrypted
+     * plaintext in bytes.
+     */
+    public VaultLoadProfile valueSize(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException(
+                "bytes may not be negative, but was " + bytes);
+        }
+        return new VaultLoadProfile(weights, concurrency, rate, durationNanos,
+            warmupNanos, keys, bytes, kvMount, kvVersion);
+    }
+
+    /**
+     * Sets the mount point and the version (1 or 2) of the KV engine.
+     */
+    public VaultLoadProfile kvEngine(String mount, int version) {
+        requireNonNull(mount, "mount may not be null");
+        if (version != 1 && version != 2) {
+            throw new IllegalArgumentException(
+                "version must be 1 or 2, but was " + version);
+        }
+        return new VaultLoadProfile(weights, concurrency, rate, durationNanos,
+            warmupNanos, keys, valueSize, mount, version);
+    }
+
+    /**
+     * Returns the weights of the load mix.
+     */
+    public Map<Operation, Integer> getWeights() {
+        return weights.isEmpty()
+            ? Collections.singletonMap(Operation.KV_READ, 1)
+            : weights;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Returns the number of requests per second or 0 for a closed loop.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public long getWarmupNanos() {
+        return warmupNanos;
+    }
+
+    public int getKeys() {
+        return keys;
+    }
+
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    public String getKvMount() {
+        return kvMount;
+    }
+
+    public int getKvVersion() {
+        return kvVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "VaultLoadProfile{mix=" + getWeights()
+            + ", concurrency=" + concurrency
+            + ", rate=" + (rate > 0 ? String.valueOf(rate) : "closed-loop")
+            + ", durationMillis=" + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+            + ", warmupMillis=" + TimeUnit.NANOSECONDS.toMillis(warmupNanos) + '}';
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+/**
+ * A single line of the Vault server log, e.g.
+ * <pre>
+ * 2018-09-20T10:15:30.123+0200 [DEBUG] core.cluster-listener: starting listener: listener_address=127.0.0.1:8201
+ * </pre>
+ *
+ * <p>An event only stores the boundaries of its parts within the output
+ * block it was read from. The parts are converted to strings on demand.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultLogEvent {
+
+    static final int KEY_VALUE_FIELDS = 5;
+
+    private final String source;
+    private final int start;
+    private final int end;
+    private final int timestampEnd;
+    private final VaultLogLevel level;
+    private final int subsystemStart;
+    private final int subsystemEnd;
+    private final int messageStart;
+    private final int messageEnd;
+    private final int[] keyValues;
+
+    VaultLogEvent(String source, int start, int end, int timestampEnd,
+        VaultLogLevel level, int subsystemStart, int subsystemEnd,
+        int messageStart, int messageEnd, int[] keyValues)
+    {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.timestampEnd = timestampEnd;
+        this.level = level;
+        this.subsystemStart = subsystemStart;
+        this.subsystemEnd = subsystemEnd;
+        this.messageStart = messageStart;
+        this.messageEnd = messageEnd;
+        this.keyValues = keyValues;
+    }
+
+    /**
+     * Returns the timestamp as written by Vault.
+     */
+    public String getTimestamp() {
+        return source.substring(start, timestampEnd);
+    }
+
+    public VaultLogLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the name of the logger, e.g. {@code core} or
+     * {@code core.cluster-listener}, or an empty string when the line
+     * does not name a logger.
+     */
+    public String getSubsystem() {
+        return source.substring(subsystemStart, subsystemEnd);
+    }
+
+    /**
+     * Returns {@code true} if this event was logged by the given subsystem.
+     * Does not create any strings.
+     */
+    public boolean isSubsystem(String subsystem) {
+        return subsystem.length() == subsystemEnd - subsystemStart
+            && source.regionMatches(subsystemStart, subsystem, 0, subsystem.length());
+    }
+
+    public String getMessage() {
+        return source.substring(messageStart, messageEnd);
+    }
+
+    public int getKeyValueCount() {
+        return keyValues.length / KEY_VALUE_FIELDS;
+    }
+
+    public String getKey(int index) {
+        int i = offset(index);
+        return source.substring(keyValues[i], keyValues[i + 1]);
+    }
+
+    public String getValue(int index) {
+        int i = offset(index);
+        return value(i);
+    }
+
+    /**
+     * Returns the value of the given key or {@code null} if the event does
+     * not contain the key.
+     */
+    public String getValue(String key) {
+        for (int i = 0; i < keyValues.length; i += KEY_VALUE_FIELDS) {
+            int length = keyValues[i + 1] - keyValues[i];
+            if (length == key.length()
+                && source.regionMatches(keyValues[i], key, 0, length))
+            {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the complete log line.
+     */
+    @Override
+    public String toString() {
+        return source.substring(start, end);
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= getKeyValueCount()) {
+            throw new IndexOutOfBoundsException(
+                "index: " + index + ", size: " + getKeyValueCount());
+        }
+        return index * KEY_VALUE_FIELDS;
+    }
+
+    private String value(int i) {
+        int from = keyValues[i + 2];
+        int to = keyValues[i + 3];
+        int escape = source.indexOf('\\', from);
+        if (keyValues[i + 4] == 0 || escape < 0 || escape >= to) {
+            return source.substring(from, to);
+        }
+        // Quoted values use Go's escape sequences.
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int j = from; j < to; j++) {
+            char c = source.charAt(j);
+            if (c == '\\' && j + 1 < to) {
+                c = source.charAt(++j);
+                switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    default:
+                        break;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Splits the output of a Vault server into lines and passes every log line
+ * as a {@link VaultLogEvent} to the listener. Lines which are not log
+ * lines, e.g. the banner, are skipped.
+ *
+ * <p>The parser scans character ranges of the output blocks and does not
+ * use regular expressions. Only lines split across two blocks are copied.
+ * It must be used for a single stream only.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultLogParser implements Consumer<String> {
+
+    private static final int[] NO_KEY_VALUES = new int[0];
+
+    private final VaultLogEventListener listener;
+    private final StringBuilder carry = new StringBuilder();
+    private int[] scratch = new int[8 * VaultLogEvent.KEY_VALUE_FIELDS];
+    private int scratchSize;
+
+    VaultLogParser(VaultLogEventListener listener) {
+        this.listener = requireNonNull(listener, "listener may not be null");
+    }
+
+    @Override
+    public void accept(String block) {
+        int from = 0;
+        int length = block.length();
+        while (from < length) {
+            int nl = block.indexOf('\n', from);
+            if (nl < 0) {
+                carry.append(block, from, length);
+                return;
+            }
+            if (carry.length() > 0) {
+                carry.append(block, from, nl);
+                String line = carry.toString();
+                carry.setLength(0);
+                parseLine(line, 0, line.length());
+            } else {
+                parseLine(block, from, nl);
+            }
+            from = nl + 1;
+        }
+    }
+
+    /**
+     * Parses the line between {@code start} (inclusive) and {@code end}
+     * (exclusive) and notifies the listener if it is a log line.
+     */
+    void parseLine(String s, int start, int end) {
+        if (end > start && s.charAt(end - 1) == '\r') {
+            end--;
+        }
+        if (start >= end || !isDigit(s.charAt(start))) {
+            return;
+        }
+        // Timestamp
+        int open = s.indexOf(" [", start);
+        if (open < 0 || open >= end) {
+            return;
+        }
+        int timestampEnd = open;
+        // Level
+        int close = s.indexOf(']', open + 2);
+        if (close < 0 || close >= end) {
+            return;
+        }
+        int levelEnd = close;
+        while (levelEnd > open + 2 && s.charAt(levelEnd - 1) == ' ') {
+            levelEnd--;
+        }
+        VaultLogLevel level = parseLevel(s, open + 2, levelEnd);
+        if (level == null) {
+            return;
+        }
+        int i = close + 1;
+        while (i < end && s.charAt(i) == ' ') {
+            i++;
+        }
+        // Subsystem
+        int subsystemStart = i;
+        int subsystemEnd = i;
+        int messageStart = i;
+        int j = i;
+        while (j < end && s.charAt(j) != ' ' && s.charAt(j) != ':') {
+            j++;
+        }
+        if (j > i && j < end && s.charAt(j) == ':'
+            && (j + 1 == end || s.charAt(j + 1) == ' '))
+        {
+            subsystemEnd = j;
+            messageStart = Math.min(j + 2, end);
+        }
+        // Message and key/values
+        int messageEnd = end;
+        int[] keyValues = NO_KEY_VALUES;
+        for (int p = s.indexOf(": ", messageStart); p >= 0 && p < end;
+             p = s.indexOf(": ", p + 1))
+        {
+            if (parseKeyValues(s, p + 2, end)) {
+                messageEnd = p;
+                keyValues = Arrays.copyOf(scratch, scratchSize);
+                break;
+            }
+        }
+        listener.onEvent(new VaultLogEvent(s, start, end, timestampEnd, level,
+            subsystemStart, subsystemEnd, messageStart, messageEnd, keyValues));
+    }
+
+    private boolean parseKeyValues(String s, int i, int end) {
+        scratchSize = 0;
+        while (i < end) {
+            int keyStart = i;
+            while (i < end) {
+                char c = s.charAt(i);
+                if (c == '=') {
+                    break;
+                }
+                if (c == ' ' || c == '"') {
+                    return false;
+                }
+                i++;
+            }
+            if (i == keyStart || i == end) {
+                return false;
+            }
+            int keyEnd = i++;
+            int valueStart;
+            int valueEnd;
+            int quoted = 0;
+            if (i < end && s.charAt(i) == '"') {
+                valueStart = ++i;
+                while (i < end && s.charAt(i) != '"') {
+                    i += s.charAt(i) == '\\' ? 2 : 1;
+                }
+                if (i >= end) {
+                    return false;
+                }
+                valueEnd = i++;
+                quoted = 1;
+                if (i < end && s.charAt(i) != ' ') {
+                    return false;
+                }
+            } else {
+                valueStart = i;
+                while (i < end && s.charAt(i) != ' ') {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            add(keyStart, keyEnd, valueStart, valueEnd, quoted);
+            while (i < end && s.charAt(i) == ' ') {
+                i++;
+            }
+        }
+        return scratchSize > 0;
+    }
+
+    private void add(int keyStart, int keyEnd, int valueStart, int valueEnd,
+        int quoted)
+    {
+        if (scratchSize + VaultLogEvent.KEY_VALUE_FIELDS > scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        scratch[scratchSize++] = keyStart;
+        scratch[scratchSize++] = keyEnd;
+        scratch[scratchSize++] = valueStart;
+        scratch[scratchSize++] = valueEnd;
+        scratch[scratchSize++] = quoted;
+    }
+
+    private static VaultLogLevel parseLevel(String s, int start, int end) {
+        switch (end - start) {
+            case 3:
+                return matches(s, start, "ERR") ? VaultLogLevel.ERR : null;
+            case 4:
+                if (matches(s, start, "INFO")) {
+                    return VaultLogLevel.INFO;
+                }
+                return matches(s, start, "WARN") ? VaultLogLevel.WARN : null;
+            case 5:
+                if (matches(s, start, "DEBUG")) {
+                    return VaultLogLevel.DEBUG;
+                }
+                if (matches(s, start, "TRACE")) {
+                    return VaultLogLevel.TRACE;
+                }
+                return matches(s, start, "ERROR") ? VaultLogLevel.ERR : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean matches(String s, int start, String token) {
+        return s.regionMatches(start, token, 0, token.length());
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
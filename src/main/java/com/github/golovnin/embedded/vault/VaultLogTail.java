@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Reads the output of a server, which is redirected to a file. Unlike the
+ * end of a pipe, the end of the file is not the end of the output, so the
+ * reader waits for new output until the server has exited or the reader
+ * is {@link #finish() finished}.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultLogTail extends InputStream {
+
+    private static final long POLL_INTERVAL_MILLIS = 20;
+
+    /**
+     * The interval to check whether the server is still running while
+     * there is no new output. The check may spawn a process.
+     */
+    private static final long RUNNING_CHECK_INTERVAL_NANOS =
+        TimeUnit.SECONDS.toNanos(1);
+
+    private final FileInputStream in;
+    private final BooleanSupplier running;
+    private volatile boolean finished;
+    private volatile boolean closed;
+
+    VaultLogTail(File file, BooleanSupplier running) throws IOException {
+        this.in = new FileInputStream(file);
+        this.running = running;
+    }
+
+    /**
+     * Lets the reader return the end of the stream as soon as it has read
+     * the output written so far.
+     */
+    void finish() {
+        finished = true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        long idleSince = System.nanoTime();
+        while (!closed) {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                return read;
+            }
+            if (finished) {
+                return -1;
+            }
+            if (System.nanoTime() - idleSince >= RUNNING_CHECK_INTERVAL_NANOS) {
+                // Read the output written before the exit once more.
+                finished = !running.getAsBoolean();
+                idleSince = System.nanoTime();
+                continue;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                    "Interrupted while waiting for the server output");
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed ? 0 : in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        in.close();
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Watches the output of a Vault server for the success message or one of
+ * the known failure messages.
+ *
+ * <p>Unlike flapdoodle's {@code LogWatchStreamProcessor} it does not keep
+ * the whole output in memory. Only the tail of the previous block is kept
+ * to find messages split across blocks, and the watch stops searching
+ * once the result is known.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultLogWatch implements IStreamProcessor {
+
+    private final String success;
+    private final List<String> failures;
+    private final IStreamProcessor destination;
+    private final int tailLength;
+    private String tail = "";
+    private boolean done;
+    private boolean initWithSuccess;
+    private String failureFound;
+
+    VaultLogWatch(String success, Set<String> failures,
+        IStreamProcessor destination)
+    {
+        this.success = requireNonNull(success, "success may not be null");
+        this.failures = new ArrayList<>(failures);
+        this.destination = requireNonNull(destination, "destination may not be null");
+        int maxLength = success.length();
+        for (String failure : failures) {
+            maxLength = Math.max(maxLength, failure.length());
+        }
+        this.tailLength = maxLength - 1;
+    }
+
+    @Override
+    public void process(String block) {
+        destination.process(block);
+        if (done) {
+            return;
+        }
+        String text = tail.isEmpty() ? block : tail + block;
+        if (text.contains(success)) {
+            gotResult(true, null);
+            return;
+        }
+        for (String failure : failures) {
+            int i = text.indexOf(failure);
+            if (i >= 0) {
+                gotResult(false, text.substring(i));
+                return;
+            }
+        }
+        tail = text.length() > tailLength
+            ? text.substring(text.length() - tailLength)
+            : text;
+    }
+
+    @Override
+    public void onProcessed() {
+        destination.onProcessed();
+        if (!done) {
+            gotResult(false, "<EOF>");
+        }
+    }
+
+    private synchronized void gotResult(boolean success, String message) {
+        done = true;
+        tail = "";
+        initWithSuccess = success;
+        failureFound = message;
+        notifyAll();
+    }
+
+    synchronized void waitForResult(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        try {
+            while (!done && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    synchronized boolean isInitWithSuccess() {
+        return initWithSuccess;
+    }
+
+    synchronized String getFailureFound() {
+        return failureFound;
+    }
+
+}
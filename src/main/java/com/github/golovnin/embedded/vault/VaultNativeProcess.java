@@ -0,0 +1,603 @@
+/*
+ * Copyright (c) 2017, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.net.BindException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import de.flapdoodle.embed.process.config.IRuntimeConfig;
+import de.flapdoodle.embed.process.config.io.ProcessOutput;
+import de.flapdoodle.embed.process.config.process.ProcessConfig;
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+import de.flapdoodle.embed.process.io.Processors;
+import de.flapdoodle.embed.process.io.StreamToLineProcessor;
+import de.flapdoodle.embed.process.io.directories.UserHome;
+import de.flapdoodle.embed.process.io.file.Files;
+import de.flapdoodle.embed.process.runtime.AbstractProcess;
+import de.flapdoodle.embed.process.runtime.ProcessControl;
+
+/**
+ * Runs the Vault executable in its own process.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultNativeProcess
+    extends AbstractProcess<VaultServerConfig, VaultServerExecutable, VaultServerProcess>
+    implements VaultServerBackend
+{
+
+    private static final String SUCCESS_MESSAGE =
+        "==> Vault server started!";
+
+    private static final Set<String> KNOWN_FAILURE_MESSAGES =
+        Collections.singleton("Error ");
+
+    /**
+     * The messages of the OS reporting that the listener port is in use.
+     */
+    private static final List<String> BIND_FAILURE_MESSAGES = Arrays.asList(
+        "address already in use",
+        "Only one usage of each socket address");
+
+    private static final long BANNER_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The maximum time to wait for the remaining output of a stopped
+     * server before its streams are closed.
+     */
+    private static final long OUTPUT_DRAIN_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The number of characters of the most recent output kept for failure
+     * messages.
+     */
+    private static final int RECENT_OUTPUT_SIZE = 16 * 1024;
+
+    private boolean stopped;
+    private volatile boolean killed;
+    private IStreamProcessor commandOutput;
+    private File configFile;
+    private VaultFixture.Snapshot snapshot;
+    private File storageDir;
+    private VaultRecentOutput recentOutput;
+    private VaultOutputPipeline outputPipeline;
+    private File stdoutFile;
+    private File stderrFile;
+    private VaultLogTail stdoutTail;
+    private VaultLogTail stderrTail;
+    private Thread stdoutReader;
+    private Thread stderrReader;
+    private volatile VaultStartupInfo startupInfo;
+    private long commandLineStartTime;
+    private long commandLineEndTime;
+    private long readinessStartTime;
+    private long readinessNanos;
+
+    VaultNativeProcess(Distribution distribution, VaultServerConfig config,
+        IRuntimeConfig runtimeConfig, VaultServerExecutable executable)
+        throws IOException
+    {
+        super(distribution, config, runtimeConfig, executable);
+    }
+
+    /**
+     * All servers of a version run the same executable from the shared
+     * extraction directory, so every process gets its own PID file in the
+     * temp directory instead of {@code vault.pid} next to the executable.
+     * It is deleted by {@link #stop()} right after {@link #cleanupInternal()}.
+     */
+    @Override
+    protected File pidFile(File executable) {
+        return new File(System.getProperty("java.io.tmpdir"),
+            "embedded-vault-" + UUID.randomUUID() + ".pid");
+    }
+
+    /**
+     * A process, which is not stopped on the exit of this JVM, writes its
+     * output to log files in the shared directory of the artifact store.
+     * A write to the pipes of an exited JVM would kill the server.
+     */
+    @Override
+    protected void onBeforeProcess(IRuntimeConfig runtimeConfig)
+        throws IOException
+    {
+        super.onBeforeProcess(runtimeConfig);
+        if (!runtimeConfig.isDaemonProcess()) {
+            File dir = new UserHome(
+                VaultBuilders.ARTIFACT_STORE_PATH + "/shared").asFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create directory " + dir);
+            }
+            stdoutFile = File.createTempFile("vault-", ".out", dir);
+            stderrFile = File.createTempFile("vault-", ".err", dir);
+        }
+    }
+
+    @Override
+    protected void onBeforeProcessStart(ProcessBuilder processBuilder,
+        VaultServerConfig config, IRuntimeConfig runtimeConfig)
+    {
+        super.onBeforeProcessStart(processBuilder, config, runtimeConfig);
+        if (stdoutFile != null) {
+            processBuilder.redirectOutput(stdoutFile);
+            processBuilder.redirectError(stderrFile);
+        }
+    }
+
+    @Override
+    protected List<String> getCommandLine(Distribution distribution,
+        VaultServerConfig config, IExtractedFileSet files) throws IOException
+    {
+        commandLineStartTime = System.nanoTime();
+        String json;
+        VaultFixture fixture = config.getFixture();
+        if (fixture != null) {
+            // A restored storage is already initialized, so the server
+            // can not run in the dev mode.
+            snapshot = fixture.cachedSnapshot(config.version());
+            storageDir = VaultFixture.restore(snapshot);
+            json = config.toJson(
+                VaultStorage.file(storageDir.getAbsolutePath()), false);
+        } else {
+            json = config.toJson();
+        }
+        configFile = File.createTempFile("embedded-vault-config", ".json");
+        try (
+            OutputStreamWriter writer = new OutputStreamWriter(
+                new FileOutputStream(configFile), "UTF-8")
+        ) {
+            writer.write(json);
+        }
+
+        String executable =
+            Files.fileOf(files.baseDir(), files.executable()).getAbsolutePath();
+        String listenerHost = config.getListenerHost();
+        String listenerPort = String.valueOf(config.getListenerPort());
+        String rootTokenID = config.getRootTokenID();
+        String logLevel = config.getLogLevel().toConsulValue();
+        List<String> commandLine;
+        if (!config.isDevMode()) {
+            commandLine = Arrays.asList(
+                executable,
+                "server",
+                "-config=" + configFile.getAbsolutePath(),
+                "-log-level=" + logLevel);
+        } else {
+            commandLine = Arrays.asList(
+                executable,
+                "server",
+                "-dev",
+                "-dev-root-token-id=" + rootTokenID,
+                "-dev-listen-address=" + listenerHost + ':' + listenerPort,
+                "-config=" + configFile.getAbsolutePath(),
+                "-log-level=" + logLevel);
+        }
+        commandLineEndTime = System.nanoTime();
+        return commandLine;
+    }
+
+    @Override
+    protected void onAfterProcessStart(ProcessControl process,
+        IRuntimeConfig runtimeConfig) throws IOException
+    {
+        readinessStartTime = System.nanoTime();
+        VaultServerConfig config = getConfig();
+        ProcessOutput outputConfig = runtimeConfig.getProcessOutput();
+        commandOutput = StreamToLineProcessor.wrap(outputConfig.getCommands());
+        VaultLogWatch logWatch = new VaultLogWatch(
+            SUCCESS_MESSAGE, KNOWN_FAILURE_MESSAGES,
+            StreamToLineProcessor.wrap(outputConfig.getOutput()));
+        recentOutput = new VaultRecentOutput(RECENT_OUTPUT_SIZE);
+        outputPipeline = new VaultOutputPipeline(
+            config.getOutputQueueCapacity(), config.getOutputOverflow());
+
+        Consumer<String> recent = recentOutput::append;
+        VaultOutputProcessor stdout = new VaultOutputProcessor(
+            connectLogParser(
+                outputPipeline.connect(logWatch, config.getOutConsumer())),
+            recent);
+        // The banner parser removes itself from the output path as soon as
+        // the banner is complete.
+        VaultBannerParser banner = new VaultBannerParser(info -> {
+            startupInfo = info;
+            stdout.setOutputProcessor(recent);
+        });
+        stdout.setOutputProcessor(recent.andThen(banner));
+        Reader stdoutIn = process.getReader();
+        Reader stderrIn = process.getError();
+        if (stdoutFile != null) {
+            stdoutTail = new VaultLogTail(stdoutFile, this::isProcessRunning);
+            stderrTail = new VaultLogTail(stderrFile, this::isProcessRunning);
+            stdoutIn = new InputStreamReader(stdoutTail);
+            stderrIn = new InputStreamReader(stderrTail);
+        }
+        stdoutReader = Processors.connect(stdoutIn, stdout);
+        stderrReader = Processors.connect(
+            stderrIn,
+            new VaultOutputProcessor(
+                connectLogParser(outputPipeline.connect(
+                    StreamToLineProcessor.wrap(outputConfig.getError()),
+                    config.getErrConsumer())),
+                recent));
+
+        boolean ready;
+        // A server outside the dev mode is sealed and must be unsealed
+        // before its health endpoint reports it as ready.
+        if (config.getReadiness() == VaultReadiness.HEALTH_PROBE
+            && config.isDevMode())
+        {
+            VaultHealthProbe probe = VaultHealthProbe.of(config);
+            // A server may exit without an error message, e.g. when it
+            // has been killed.
+            ready = probe.awaitReady(config.getStartupTimeout(),
+                () -> logWatch.getFailureFound() != null || !isProcessRunning());
+        } else {
+            logWatch.waitForResult(config.getStartupTimeout());
+            ready = logWatch.isInitWithSuccess();
+        }
+        if (ready) {
+            // The health probe may succeed before the end of the banner
+            // has been read.
+            banner.await(BANNER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            // The health probe may have reached another process listening
+            // on the same port.
+            ready = logWatch.getFailureFound() == null;
+            if (ready && !config.isDevMode()) {
+                ready = initialize(config, logWatch);
+            }
+        }
+        readinessNanos = System.nanoTime() - readinessStartTime;
+        if (ready) {
+            setProcessId(getProcessId());
+        } else {
+            String failureFound = logWatch.getFailureFound();
+            if (failureFound == null && isProcessRunning()) {
+                // The server is neither ready nor exiting, e.g. a Raft
+                // follower which could not join its cluster stays sealed.
+                // Waiting for the exit would block forever.
+                if (!sendSigKill()) {
+                    tryKillToProcess();
+                }
+                awaitOutput();
+                throw new IOException("Could not start process: the server"
+                    + " was not ready within " + config.getStartupTimeout()
+                    + " ms and has been killed.\n"
+                    + "The process output may contain the cause:\n"
+                    + recentOutput);
+            }
+            if (failureFound == null) {
+                failureFound = "\n----------------------\n"
+                             + "The failure message was not found.\n"
+                             + "The process output may contain the cause:\n"
+                             + recentOutput;
+            }
+            try {
+                if (process.waitFor() != 0) {
+                    if (isBindFailure(failureFound)) {
+                        throw new BindException(
+                            "Could not start process: " + failureFound);
+                    }
+                    throw new IOException(
+                        "Could not start process: " + failureFound);
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(
+                    "Could not start process: " + failureFound, e);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the server could not bind its listener port.
+     * The failure message found by the log watch may end before the cause,
+     * so the remaining output of the exited server is checked too.
+     */
+    private boolean isBindFailure(String failureFound) {
+        awaitOutput();
+        String output = failureFound + recentOutput;
+        for (String message : BIND_FAILURE_MESSAGES) {
+            if (output.contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the server as described by the stop policy of the config. The
+     * caller holds the lock of this process.
+     */
+    @Override
+    protected void stopInternal() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        long gracePeriod = getConfig().getStopPolicy().getGracePeriodMillis();
+        if (Platform.detect() == Platform.Windows) {
+            tryKillToProcess();
+            killed = true;
+        } else if (gracePeriod == 0 || !sendTermToProcess()
+            || !awaitExit(gracePeriod))
+        {
+            killed = sendSigKill() || tryKillToProcess();
+        }
+        awaitOutput();
+        stopProcess();
+    }
+
+    /**
+     * Waits until the output written by the server before its exit has been
+     * delivered, the output would be lost when the streams are closed.
+     */
+    private void awaitOutput() {
+        // The output files have no end, so the tails return the end of the
+        // stream as soon as they have read the output written so far.
+        for (VaultLogTail tail : Arrays.asList(stdoutTail, stderrTail)) {
+            if (tail != null) {
+                tail.finish();
+            }
+        }
+        try {
+            long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(OUTPUT_DRAIN_TIMEOUT_MILLIS);
+            for (Thread reader : Arrays.asList(stdoutReader, stderrReader)) {
+                if (reader != null) {
+                    reader.join(remainingMillis(deadline));
+                }
+            }
+            if (outputPipeline != null) {
+                outputPipeline.awaitDrained(remainingMillis(deadline));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long remainingMillis(long deadline) {
+        // Thread#join(0) waits forever.
+        return Math.max(1,
+            TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private boolean awaitExit(long timeoutMillis) {
+        // Process#waitFor(long, TimeUnit) is not available, the process is
+        // hidden behind ProcessControl.
+        CompletableFuture<Void> exit = CompletableFuture.runAsync(() -> {
+            try {
+                waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, VaultThreads.defaultExecutor());
+        try {
+            exit.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean sendSigKill() {
+        long pid = getProcessId();
+        return pid > 0 && ProcessControl.executeCommandLine(
+            getConfig().supportConfig(), "[kill -9 process]",
+            new ProcessConfig(
+                Arrays.asList("kill", "-9", String.valueOf(pid)),
+                commandOutput != null ? commandOutput : Processors.silent()));
+    }
+
+    @Override
+    public List<File> getLogFiles() {
+        return stdoutFile != null
+            ? Arrays.asList(stdoutFile, stderrFile)
+            : Collections.emptyList();
+    }
+
+    @Override
+    public boolean isKilled() {
+        return killed;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (!isProcessRunning()) {
+            throw new IOException("Vault server is not running");
+        }
+        VaultStateReset.reset(getConfig());
+    }
+
+    @Override
+    protected void cleanupInternal() {
+        Files.forceDelete(configFile);
+        String unixSocket = getConfig().getUnixSocket();
+        if (unixSocket != null) {
+            // A killed server leaves its socket file behind.
+            new File(unixSocket).delete();
+        }
+        for (VaultLogTail tail : Arrays.asList(stdoutTail, stderrTail)) {
+            if (tail != null) {
+                try {
+                    tail.close();
+                } catch (IOException e) {
+                    // NOP
+                }
+            }
+        }
+        for (File file : getLogFiles()) {
+            Files.forceDelete(file);
+        }
+        if (storageDir != null) {
+            try {
+                VaultFixture.delete(storageDir.toPath());
+            } catch (IOException e) {
+                // The storage is in the temp directory, the OS will clean it up.
+            }
+        }
+    }
+
+    /**
+     * Initializes and unseals a server which does not run in the dev mode.
+     * The storage of a fixture is initialized already and only needs to
+     * be unsealed. A server joining a Raft cluster is unsealed with the
+     * unseal key of the cluster.
+     */
+    private boolean initialize(VaultServerConfig config, VaultLogWatch logWatch)
+        throws IOException
+    {
+        String unsealKey;
+        String initialRootToken = null;
+        VaultRaftJoin raftJoin = config.getRaftJoin();
+        if (snapshot != null) {
+            unsealKey = snapshot.unsealKey;
+        } else if (raftJoin != null) {
+            VaultHttp.request(config, "PUT", "/v1/sys/storage/raft/join", null,
+                Collections.singletonMap(
+                    "leader_api_addr", raftJoin.getLeaderApiAddress()));
+            unsealKey = raftJoin.getUnsealKey();
+        } else {
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("secret_shares", 1);
+            request.put("secret_threshold", 1);
+            Object response = VaultHttp.request(
+                config, "PUT", "/v1/sys/init", null, request);
+            Object keys = VaultJson.get(response, "keys_base64");
+            Object rootToken = VaultJson.get(response, "root_token");
+            if (!(keys instanceof List) || ((List<?>) keys).isEmpty()
+                || !(((List<?>) keys).get(0) instanceof String)
+                || !(rootToken instanceof String))
+            {
+                throw new IOException(
+                    "Unexpected response to the initialization request: "
+                    + response);
+            }
+            unsealKey = (String) ((List<?>) keys).get(0);
+            initialRootToken = (String) rootToken;
+        }
+        VaultHttp.request(config, "PUT", "/v1/sys/unseal", null,
+            Collections.singletonMap("key", unsealKey));
+        VaultHealthProbe probe = VaultHealthProbe.of(config);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(
+            System.nanoTime() - readinessStartTime);
+        if (!probe.awaitReady(config.getStartupTimeout() - elapsed,
+            () -> logWatch.getFailureFound() != null || !isProcessRunning()))
+        {
+            return false;
+        }
+        if (initialRootToken != null) {
+            // Make the configured root token ID usable like in the dev mode.
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("id", config.getRootTokenID());
+            request.put("policies", Collections.singletonList("root"));
+            request.put("no_parent", true);
+            VaultHttp.request(config, "POST", "/v1/auth/token/create",
+                initialRootToken, request);
+        }
+        VaultStartupInfo info = startupInfo;
+        startupInfo = new VaultStartupInfo(
+            info != null ? info.getApiAddress() : null,
+            info != null ? info.getClusterAddress() : null,
+            config.getRootTokenID(), unsealKey,
+            info != null ? info.getVersion() : null);
+        return true;
+    }
+
+    @Override
+    public VaultStartupInfo getStartupInfo() {
+        return startupInfo;
+    }
+
+    @Override
+    public long getReadinessNanos() {
+        return readinessNanos;
+    }
+
+    @Override
+    public VaultStartupMetrics getStartupMetrics(
+        VaultStartupMetrics prepareMetrics)
+    {
+        return prepareMetrics.withStart(
+            commandLineEndTime - commandLineStartTime,
+            readinessStartTime - commandLineEndTime,
+            readinessNanos);
+    }
+
+    @Override
+    public String getRecentOutput() {
+        return recentOutput.toString();
+    }
+
+    @Override
+    public long getDroppedOutputLines() {
+        return outputPipeline.getDroppedLines();
+    }
+
+    @Override
+    public long getDroppedOutputBlocks() {
+        return outputPipeline.getDroppedBlocks();
+    }
+
+    /**
+     * Parses the log lines of the stream on the output thread if a log
+     * event listener is configured.
+     */
+    private IStreamProcessor connectLogParser(IStreamProcessor stream) {
+        VaultLogEventListener listener = getConfig().getLogEventListener();
+        if (listener == VaultServerConfig.Builder.NOP_LOG_EVENT_LISTENER) {
+            return stream;
+        }
+        return outputPipeline.connect(stream, new VaultLogParser(listener));
+    }
+
+}
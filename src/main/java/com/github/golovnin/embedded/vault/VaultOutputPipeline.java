@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hands the output of a Vault server to the user's consumers through a
+ * bounded queue on a dedicated thread, so a slow consumer does not stall
+ * the pipe readers. When the queue is full, the output is either dropped
+ * or the reader is blocked depending on the {@link VaultOutputOverflow}
+ * policy.
+ *
+ * <p>The thread is started with the first connected consumer and
+ * terminates after all connected streams reached their end and the queue
+ * has been drained.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultOutputPipeline {
+
+    private static final ThreadFactory THREAD_FACTORY =
+        VaultThreads.daemonThreadFactory("output");
+
+    private static final Entry END = new Entry(null, null);
+
+    private final BlockingQueue<Entry> queue;
+    private final VaultOutputOverflow overflow;
+    private final AtomicInteger openStreams = new AtomicInteger();
+    private final AtomicLong droppedBlocks = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private Thread thread;
+
+    VaultOutputPipeline(int capacity, VaultOutputOverflow overflow) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflow = requireNonNull(overflow, "overflow may not be null");
+    }
+
+    /**
+     * Returns a stream processor which passes every block synchronously to
+     * the delegate and asynchronously to the consumer.
+     */
+    synchronized IStreamProcessor connect(IStreamProcessor delegate,
+        Consumer<String> consumer)
+    {
+        requireNonNull(delegate, "delegate may not be null");
+        requireNonNull(consumer, "consumer may not be null");
+        if (consumer == VaultServerConfig.Builder.NOP_CONSUMER) {
+            return delegate;
+        }
+        openStreams.incrementAndGet();
+        if (thread == null) {
+            thread = THREAD_FACTORY.newThread(this::drain);
+            thread.start();
+        }
+        return new Stage(delegate, consumer);
+    }
+
+    /**
+     * Waits at most the given time until all connected streams reached
+     * their end and the queue has been drained.
+     */
+    void awaitDrained(long timeoutMillis) throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            t.join(timeoutMillis);
+        }
+    }
+
+    long getDroppedBlocks() {
+        return droppedBlocks.get();
+    }
+
+    long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    private void enqueue(Entry entry) {
+        if (overflow == VaultOutputOverflow.DROP) {
+            if (!queue.offer(entry)) {
+                droppedBlocks.incrementAndGet();
+                droppedLines.addAndGet(countLines(entry.block));
+            }
+        } else {
+            put(entry);
+        }
+    }
+
+    private void put(Entry entry) {
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedBlocks.incrementAndGet();
+            droppedLines.addAndGet(countLines(entry.block));
+        }
+    }
+
+    private void streamClosed() {
+        if (openStreams.decrementAndGet() == 0) {
+            put(END);
+        }
+    }
+
+    private void drain() {
+        try {
+            Entry entry;
+            while ((entry = queue.take()) != END) {
+                try {
+                    entry.consumer.accept(entry.block);
+                } catch (RuntimeException e) {
+                    // A failing consumer must not stop the delivery of the
+                    // output to the other consumer.
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int countLines(String block) {
+        int lines = 0;
+        for (int i = 0, n = block.length(); i < n; i++) {
+            if (block.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return Math.max(lines, 1);
+    }
+
+    private final class Stage implements IStreamProcessor {
+
+        private final IStreamProcessor delegate;
+        private final Consumer<String> consumer;
+
+        Stage(IStreamProcessor delegate, Consumer<String> consumer) {
+            this.delegate = delegate;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void process(String block) {
+            delegate.process(block);
+            enqueue(new Entry(consumer, block));
+        }
+
+        @Override
+        public void onProcessed() {
+            delegate.onProcessed();
+            streamClosed();
+        }
+
+    }
+
+    private static final class Entry {
+
+        final Consumer<String> consumer;
+        final String block;
+
+        Entry(Consumer<String> consumer, String block) {
+            this.consumer = consumer;
+            this.block = block;
+        }
+
+    }
+
+}
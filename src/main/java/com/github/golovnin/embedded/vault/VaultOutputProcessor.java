@@ -42,13 +42,21 @@ import static java.util.Objects.requireNonNull;
 final class VaultOutputProcessor implements IStreamProcessor {
 
     private final IStreamProcessor delegate;
-    private final Consumer<String> outputProcessor;
+    private Consumer<String> outputProcessor;
 
     VaultOutputProcessor(IStreamProcessor delegate, Consumer<String> outputProcessor) {
         this.delegate = requireNonNull(delegate, "delegate may not be null");
         this.outputProcessor = requireNonNull(outputProcessor, "outputProcessor may not be null");
     }
 
+    /**
+     * Replaces the output processor. Must be called either before the
+     * processor is connected to a stream or from the reader thread.
+     */
+    void setOutputProcessor(Consumer<String> outputProcessor) {
+        this.outputProcessor = requireNonNull(outputProcessor, "outputProcessor may not be null");
+    }
+
     @Override
     public void process(String block) {
         outputProcessor.accept(block);
@@ -112,4 +112,13 @@ final class VaultPackageResolver implements IPackageResolver {
         return version + "/vault_" + version + '_' + platform + '_' + arch + ".zip";
     }
 
+    /**
+     * Returns the path of the file containing the SHA-256 checksums of all
+     * archives of the given version relative to the download path.
+     */
+    String getChecksumsPath(Distribution distribution) {
+        String version = distribution.getVersion().asInDownloadPath();
+        return version + "/vault_" + version + "_SHA256SUMS";
+    }
+
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.io.directories.UserHome;
+
+/**
+ * Allocates free ports for Vault servers. A port chosen by the OS is free
+ * only until the next call, so JVMs running tests in parallel may choose
+ * the same port before any of the servers binds it. Therefore the allocated
+ * ports are reserved in a file under the artifact store directory, which is
+ * shared by all JVMs on the same host and guarded by a file lock.
+ *
+ * <p>Every allocation reserves two consecutive ports, the listener port and
+ * the default cluster port. A reservation expires after two minutes, at
+ * that time the server is expected to have bound its ports.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultPortAllocator {
+
+    private static final long RESERVATION_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private static final int MAX_ATTEMPTS = 100;
+
+    /**
+     * Guards the file lock, which is held by the JVM and not by a thread.
+     */
+    private static final Object MONITOR = new Object();
+
+    private VaultPortAllocator() {
+        // NOP
+    }
+
+    /**
+     * Returns a port, which is free on the given address together with the
+     * next port and was not allocated by any other JVM within the last two
+     * minutes.
+     */
+    static int allocate(InetAddress address) throws IOException {
+        synchronized (MONITOR) {
+            File dir = new UserHome(VaultBuilders.ARTIFACT_STORE_PATH).asFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create directory " + dir);
+            }
+            try (
+                FileChannel channel = FileChannel.open(
+                    new File(dir, "ports.lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+            ) {
+                FileLock lock = channel.lock();
+                try {
+                    File file = new File(dir, "ports.properties");
+                    Properties reservations = read(file);
+                    long now = System.currentTimeMillis();
+                    reservations.entrySet().removeIf(
+                        e -> Long.parseLong((String) e.getValue()) < now);
+                    int port = findFreePort(address, reservations);
+                    String expiry = String.valueOf(now + RESERVATION_MILLIS);
+                    reservations.setProperty(String.valueOf(port), expiry);
+                    reservations.setProperty(String.valueOf(port + 1), expiry);
+                    write(file, reservations);
+                    return port;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private static int findFreePort(InetAddress address,
+        Properties reservations) throws IOException
+    {
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0, 1, address)) {
+                port = socket.getLocalPort();
+            }
+            if (port < 65535
+                && !reservations.containsKey(String.valueOf(port))
+                && !reservations.containsKey(String.valueOf(port + 1))
+                && isFree(address, port + 1))
+            {
+                return port;
+            }
+        }
+        throw new IOException(
+            "Could not find two free consecutive ports on " + address);
+    }
+
+    private static boolean isFree(InetAddress address, int port) {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress(address, port), 1);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Properties read(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            } catch (IllegalArgumentException e) {
+                // A corrupted file only contains stale reservations.
+                properties.clear();
+            }
+            properties.entrySet().removeIf(e -> !isLong((String) e.getValue()));
+        }
+        return properties;
+    }
+
+    private static boolean isLong(String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void write(File file, Properties properties)
+        throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, "Embedded Vault port reservations");
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+/**
+ * A fixed-size ring buffer which keeps the most recent output of a Vault
+ * server for failure messages.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultRecentOutput {
+
+    private final char[] buffer;
+    private int end;
+    private boolean wrapped;
+
+    VaultRecentOutput(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                "capacity must be greater than 0, but was " + capacity);
+        }
+        this.buffer = new char[capacity];
+    }
+
+    synchronized void append(String block) {
+        int length = block.length();
+        int offset = 0;
+        if (length > buffer.length) {
+            offset = length - buffer.length;
+            length = buffer.length;
+        }
+        int first = Math.min(length, buffer.length - end);
+        block.getChars(offset, offset + first, buffer, end);
+        block.getChars(offset + first, offset + length, buffer, 0);
+        int next = end + length;
+        if (next >= buffer.length) {
+            wrapped = true;
+            next -= buffer.length;
+        }
+        end = next;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (!wrapped) {
+            return new String(buffer, 0, end);
+        }
+        return new StringBuilder(buffer.length)
+            .append(buffer, end, buffer.length - end)
+            .append(buffer, 0, end)
+            .toString();
+    }
+
+}
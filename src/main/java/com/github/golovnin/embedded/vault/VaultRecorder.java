@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A proxy in front of a running Vault server, which records all requests
+ * and the responses of the server. The recording is written to a file by
+ * {@link #save()} and can be served by {@link VaultReplayServer} without a
+ * Vault server. A recorder closed without saving discards the recording,
+ * so a failed test does not leave an incomplete recording behind.
+ *
+ * <p>Only the {@code X-Vault-Token} header is forwarded to the server.
+ * The tokens are not recorded.</p>
+ *
+ * <pre>
+ * try (VaultRecorder recorder = VaultRecorder.start(process, file)) {
+ *     // Send the requests to recorder.getListenerHost() and
+ *     // recorder.getListenerPort()
+ *     recorder.save();
+ * }
+ * </pre>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultRecorder implements Closeable {
+
+    private final Path file;
+    private final String vaultVersion;
+    private final String rootTokenID;
+    private final VaultClient client;
+    private final HttpServer server;
+    private final List<VaultRecordingFile.Exchange> exchanges;
+    private boolean closed;
+
+    private VaultRecorder(VaultServerProcess process, Path file)
+        throws IOException
+    {
+        VaultServerConfig config = process.getConfig();
+        this.file = file;
+        this.vaultVersion = config.version().asInDownloadPath();
+        this.rootTokenID = config.getRootTokenID();
+        this.exchanges = Collections.synchronizedList(new ArrayList<>());
+        this.client = new VaultClient(config.getListenerHost(),
+            config.getListenerPort(), null, VaultClient.DEFAULT_MAX_IN_FLIGHT);
+        try {
+            this.server = VaultHttpServer.start(
+                config.getListenerHost(), 0, this::handle);
+        } catch (IOException | RuntimeException e) {
+            client.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a recorder in front of the given server. The recorder listens
+     * on a random port of the listener host of the server.
+     *
+     * @param file the file to write the recording to, an existing file is
+     *        replaced
+     */
+    public static VaultRecorder start(VaultServerProcess process, Path file)
+        throws IOException
+    {
+        requireNonNull(process, "process may not be null");
+        requireNonNull(file, "file may not be null");
+        return new VaultRecorder(process, file);
+    }
+
+    public String getListenerHost() {
+        return server.getAddress().getHostString();
+    }
+
+    public int getListenerPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getRootTokenID() {
+        return rootTokenID;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of exchanges recorded so far.
+     */
+    public int getRecordedExchanges() {
+        return exchanges.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String uri = VaultHttpServer.requestURI(exchange);
+        byte[] request;
+        VaultHttpConnection.Response response;
+        try {
+            request = VaultHttpServer.readRequestBody(exchange);
+            response = client.exchange(method, uri,
+                exchange.getRequestHeaders().getFirst("X-Vault-Token"),
+                request.length > 0 ? request : null);
+        } catch (IOException e) {
+            // A failure of the proxy is not a response of Vault, so it is
+            // not recorded.
+            VaultHttpServer.sendResponse(exchange, 502, ByteBuffer.wrap(
+                VaultJson.writeCompact(Collections.singletonMap("errors",
+                    Collections.singletonList(e.toString())))
+                    .getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+        exchanges.add(new VaultRecordingFile.Exchange(method, uri,
+            ByteBuffer.wrap(request), response.status,
+            ByteBuffer.wrap(response.content)));
+        VaultHttpServer.sendResponse(exchange, response.status,
+            ByteBuffer.wrap(response.content));
+    }
+
+    /**
+     * Stops the proxy and writes the recording. An existing file is
+     * replaced only when the recording has been written completely.
+     *
+     * @throws IOException if the recorder is already closed or the
+     *         recording could not be written
+     */
+    public synchronized void save() throws IOException {
+        if (closed) {
+            throw new IOException("Recorder is closed");
+        }
+        close();
+        List<VaultRecordingFile.Exchange> recorded;
+        synchronized (exchanges) {
+            recorded = new ArrayList<>(exchanges);
+        }
+        VaultRecordingFile.write(file, vaultVersion, rootTokenID, recorded);
+    }
+
+    /**
+     * Stops the proxy. The recording is discarded unless it has been saved.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        server.stop(0);
+        client.close();
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Replays the recorded responses of a Vault server or, if there is no
+ * recording for the Vault version of the config yet, starts the server and
+ * records the responses. The recordings are kept in
+ * {@code <dir>/<name>-<version>.vaultrec}, so the tests run against the real
+ * server once per Vault version and are replayed otherwise.
+ *
+ * <pre>
+ * try (VaultRecording vault = VaultRecording.open(dir, "users-api", config)) {
+ *     // Send the requests to vault.getListenerHost() and
+ *     // vault.getListenerPort() using vault.getRootTokenID()
+ *     vault.save();
+ * }
+ * </pre>
+ *
+ * <p>A new recording is written only by {@link #save()}, so a test which
+ * fails before saving does not leave an incomplete recording behind.</p>
+ *
+ * <p>Replaying works for tests which send the same requests on every run.
+ * Delete the recording to record it again.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultRecording implements Closeable {
+
+    static final String FILE_EXTENSION = ".vaultrec";
+
+    private final Path file;
+    private final VaultReplayServer replay;
+    private final VaultServerExecutable executable;
+    private final VaultRecorder recorder;
+
+    private VaultRecording(Path file, VaultReplayServer replay,
+        VaultServerExecutable executable, VaultRecorder recorder)
+    {
+        this.file = file;
+        this.replay = replay;
+        this.executable = executable;
+        this.recorder = recorder;
+    }
+
+    public static VaultRecording open(Path dir, String name,
+        VaultServerConfig config) throws IOException
+    {
+        return open(VaultServerStarter.getDefaultInstance(), dir, name, config);
+    }
+
+    public static VaultRecording open(VaultServerStarter starter, Path dir,
+        String name, VaultServerConfig config) throws IOException
+    {
+        requireNonNull(starter, "starter may not be null");
+        requireNonNull(dir, "dir may not be null");
+        requireNonNull(name, "name may not be null");
+        requireNonNull(config, "config may not be null");
+        Path file = fileOf(dir, name, config);
+        if (Files.isRegularFile(file)) {
+            return new VaultRecording(file, VaultReplayServer.start(
+                file, config.getListenerHost(), 0), null, null);
+        }
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            VaultRecorder recorder =
+                VaultRecorder.start(executable.start(), file);
+            return new VaultRecording(file, null, executable, recorder);
+        } catch (IOException | RuntimeException e) {
+            executable.stop();
+            throw e;
+        }
+    }
+
+    static Path fileOf(Path dir, String name, VaultServerConfig config) {
+        return dir.resolve(
+            name + '-' + config.version().asInDownloadPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Returns {@code true} if the responses are replayed, {@code false} if
+     * they are recorded.
+     */
+    public boolean isReplay() {
+        return replay != null;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public String getListenerHost() {
+        return replay != null
+            ? replay.getListenerHost()
+            : recorder.getListenerHost();
+    }
+
+    public int getListenerPort() {
+        return replay != null
+            ? replay.getListenerPort()
+            : recorder.getListenerPort();
+    }
+
+    /**
+     * Returns the root token ID of the server. When replaying, it is the
+     * root token ID of the server the recording was made with.
+     */
+    public String getRootTokenID() {
+        return replay != null
+            ? replay.getRootTokenID()
+            : recorder.getRootTokenID();
+    }
+
+    /**
+     * Writes the recording and stops the Vault server. Does nothing if the
+     * responses are replayed.
+     */
+    public void save() throws IOException {
+        if (replay != null) {
+            return;
+        }
+        try {
+            recorder.save();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    /**
+     * Stops the replay server or stops the Vault server. A recording which
+     * has not been saved is discarded.
+     */
+    @Override
+    public void close() throws IOException {
+        if (replay != null) {
+            replay.close();
+            return;
+        }
+        try {
+            recorder.close();
+        } finally {
+            executable.stop();
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The file format of the recordings of {@link VaultRecorder}. All numbers
+ * are big-endian:
+ * <pre>
+ * recording := magic:int32 format:int16 version:string rootToken:string
+ *              count:int32 exchange*
+ * exchange  := method:string uri:string request:bytes status:int16
+ *              response:bytes
+ * string    := bytes in UTF-8
+ * bytes     := length:int32 byte*
+ * </pre>
+ * A recording is read from a memory-mapped file. The bodies of the exchanges
+ * are slices of the mapping and are not copied to the heap.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultRecordingFile {
+
+    /**
+     * The characters {@code EVRR}.
+     */
+    private static final int MAGIC = 0x45565252;
+
+    private static final short FORMAT = 1;
+
+    private final String vaultVersion;
+    private final String rootTokenID;
+    private final Map<String, List<Exchange>> exchanges;
+    private final int size;
+
+    private VaultRecordingFile(String vaultVersion, String rootTokenID,
+        Map<String, List<Exchange>> exchanges, int size)
+    {
+        this.vaultVersion = vaultVersion;
+        this.rootTokenID = rootTokenID;
+        this.exchanges = exchanges;
+        this.size = size;
+    }
+
+    /**
+     * Writes the exchanges to a temporary file, which replaces the given
+     * file when it is complete.
+     */
+    static void write(Path file, String vaultVersion, String rootTokenID,
+        List<Exchange> exchanges) throws IOException
+    {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))
+            ) {
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT);
+                writeBytes(out, utf8(vaultVersion));
+                writeBytes(out, utf8(rootTokenID));
+                out.writeInt(exchanges.size());
+                for (Exchange exchange : exchanges) {
+                    writeBytes(out, utf8(exchange.method));
+                    writeBytes(out, utf8(exchange.uri));
+                    writeBytes(out, exchange.request);
+                    out.writeShort(exchange.status);
+                    writeBytes(out, exchange.response);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Maps the recording into memory and indexes its exchanges by the
+     * method and the URI.
+     */
+    static VaultRecordingFile read(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a Vault recording: " + file);
+            }
+            short format = buffer.getShort();
+            if (format != FORMAT) {
+                throw new IOException("Unsupported format " + format
+                    + " of the Vault recording: " + file);
+            }
+            String vaultVersion = readString(buffer);
+            String rootTokenID = readString(buffer);
+            int size = buffer.getInt();
+            Map<String, List<Exchange>> exchanges = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                Exchange exchange = new Exchange(
+                    readString(buffer), readString(buffer),
+                    readBytes(buffer), buffer.getShort(), readBytes(buffer));
+                exchanges.computeIfAbsent(exchange.key(), k -> new ArrayList<>())
+                    .add(exchange);
+            }
+            return new VaultRecordingFile(vaultVersion, rootTokenID,
+                exchanges, size);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated Vault recording: " + file, e);
+        }
+    }
+
+    String getVaultVersion() {
+        return vaultVersion;
+    }
+
+    String getRootTokenID() {
+        return rootTokenID;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the recorded exchanges with the given method and URI in the
+     * order of their recording.
+     */
+    List<Exchange> get(String method, String uri) {
+        return exchanges.getOrDefault(
+            Exchange.key(method, uri), Collections.emptyList());
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes)
+        throws IOException
+    {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeBytes(DataOutputStream out, ByteBuffer bytes)
+        throws IOException
+    {
+        ByteBuffer buffer = bytes.duplicate();
+        out.writeInt(buffer.remaining());
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.remaining());
+        } else {
+            while (buffer.hasRemaining()) {
+                out.write(buffer.get());
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        ByteBuffer bytes = readBytes(buffer);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private static ByteBuffer readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer bytes = buffer.slice();
+        bytes.limit(length);
+        buffer.position(buffer.position() + length);
+        return bytes;
+    }
+
+    /**
+     * A request and the response of the server. The bodies are read-only,
+     * use {@link ByteBuffer#duplicate()} to read them.
+     */
+    static final class Exchange {
+
+        final String method;
+        final String uri;
+        final ByteBuffer request;
+        final int status;
+        final ByteBuffer response;
+
+        Exchange(String method, String uri, ByteBuffer request, int status,
+            ByteBuffer response)
+        {
+            this.method = method;
+            this.uri = uri;
+            this.request = request;
+            this.status = status;
+            this.response = response;
+        }
+
+        String key() {
+            return key(method, uri);
+        }
+
+        static String key(String method, String uri) {
+            return method + ' ' + uri;
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Serves the responses recorded by {@link VaultRecorder} without a Vault
+ * server. The recording is memory-mapped, so the responses are served
+ * without reading the file to the heap.
+ *
+ * <p>A request is answered with the next recorded response to a request with
+ * the same method, URI and body. A request which was sent more often than
+ * recorded gets the last of these responses again. If no recorded request
+ * has the same body, e.g. because the body contains a random value, the
+ * responses to the requests with the same method and URI are used in the
+ * order of their recording. Requests with an unknown method and URI are
+ * answered with HTTP 404.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultReplayServer implements Closeable {
+
+    private static final String DEFAULT_HOST = "127.0.0.1";
+
+    private final VaultRecordingFile recording;
+    private final HttpServer server;
+    private final Map<String, Integer> positions;
+    private final AtomicLong unmatchedRequests;
+
+    private VaultReplayServer(VaultRecordingFile recording, String host,
+        int port) throws IOException
+    {
+        this.recording = recording;
+        this.positions = new HashMap<>();
+        this.unmatchedRequests = new AtomicLong();
+        this.server = VaultHttpServer.start(host, port, this::handle);
+    }
+
+    /**
+     * Replays the recording on a random port of {@code 127.0.0.1}.
+     */
+    public static VaultReplayServer start(Path file) throws IOException {
+        return start(file, DEFAULT_HOST, 0);
+    }
+
+    /**
+     * Replays the recording on the given address.
+     *
+     * @param port the port or {@code 0} to use a random port
+     */
+    public static VaultReplayServer start(Path file, String host, int port)
+        throws IOException
+    {
+        requireNonNull(file, "file may not be null");
+        requireNonNull(host, "host may not be null");
+        return new VaultReplayServer(VaultRecordingFile.read(file), host, port);
+    }
+
+    public String getListenerHost() {
+        return server.getAddress().getHostString();
+    }
+
+    public int getListenerPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the root token ID of the server the recording was made with.
+     */
+    public String getRootTokenID() {
+        return recording.getRootTokenID();
+    }
+
+    /**
+     * Returns the version of the Vault server the recording was made with.
+     */
+    public String getVaultVersion() {
+        return recording.getVaultVersion();
+    }
+
+    public int getRecordedExchanges() {
+        return recording.size();
+    }
+
+    /**
+     * Returns the number of requests which were answered with HTTP 404,
+     * because they were not recorded.
+     */
+    public long getUnmatchedRequests() {
+        return unmatchedRequests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String uri = VaultHttpServer.requestURI(exchange);
+        ByteBuffer request;
+        try {
+            request = ByteBuffer.wrap(VaultHttpServer.readRequestBody(exchange));
+        } catch (IOException e) {
+            exchange.close();
+            throw e;
+        }
+        VaultRecordingFile.Exchange recorded = find(method, uri, request);
+        if (recorded == null) {
+            unmatchedRequests.incrementAndGet();
+            VaultHttpServer.sendResponse(exchange, 404, ByteBuffer.wrap(
+                VaultJson.writeCompact(Collections.singletonMap("errors",
+                    Collections.singletonList(
+                        "no recorded response for " + method + ' ' + uri)))
+                    .getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+        VaultHttpServer.sendResponse(
+            exchange, recorded.status, recorded.response.duplicate());
+    }
+
+    private synchronized VaultRecordingFile.Exchange find(String method,
+        String uri, ByteBuffer request)
+    {
+        List<VaultRecordingFile.Exchange> candidates = recording.get(method, uri);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        String key = VaultRecordingFile.Exchange.key(method, uri);
+        int position = positions.getOrDefault(key, 0);
+        for (int i = position; i < candidates.size(); i++) {
+            if (candidates.get(i).request.equals(request)) {
+                positions.put(key, i + 1);
+                return candidates.get(i);
+            }
+        }
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (candidates.get(i).request.equals(request)) {
+                return candidates.get(i);
+            }
+        }
+        positions.put(key, position + 1);
+        return candidates.get(Math.min(position, candidates.size() - 1));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.extract.ImmutableExtractedFileSet;
+import de.flapdoodle.embed.process.io.directories.IDirectory;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An artifact store which runs the Vault executable straight from the
+ * versioned extract directory instead of copying it to the temp directory
+ * for every server.
+ *
+ * <p>The archive is extracted once by the delegate. A marker file written
+ * after a complete extraction tells other threads and JVMs that the
+ * executable may be used. The extraction itself is guarded by a file lock.
+ * The shared executable is never deleted by {@link #removeFileSet}.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultReusingArtifactStore implements IArtifactStore {
+
+    static final String MARKER_FILE_NAME = ".extracted";
+
+    private final IArtifactStore delegate;
+    private final IDirectory extractDir;
+    private final VaultPackageResolver packageResolver;
+
+    VaultReusingArtifactStore(IArtifactStore delegate, IDirectory extractDir) {
+        this.delegate = requireNonNull(delegate, "delegate may not be null");
+        this.extractDir = requireNonNull(extractDir, "extractDir may not be null");
+        this.packageResolver = new VaultPackageResolver();
+    }
+
+    /**
+     * Returns the directory the given distribution is extracted to.
+     */
+    static File extractedDirOf(IDirectory extractDir, Distribution distribution) {
+        return new File(extractDir.asFile(),
+            distribution.getPlatform().name() + '-'
+            + distribution.getBitsize().name() + "--"
+            + distribution.getVersion().asInDownloadPath());
+    }
+
+    @Override
+    public boolean checkDistribution(Distribution distribution)
+        throws IOException
+    {
+        return delegate.checkDistribution(distribution);
+    }
+
+    @Override
+    public IExtractedFileSet extractFileSet(Distribution distribution)
+        throws IOException
+    {
+        File dir = extractedDirOf(extractDir, distribution);
+        String executableName = executableName(distribution);
+        File marker = new File(dir, MARKER_FILE_NAME);
+        if (!marker.isFile()) {
+            extract(distribution, dir, marker);
+        }
+        return ImmutableExtractedFileSet.builder(dir)
+            .baseDirIsGenerated(false)
+            .executable(new File(executableName))
+            .build();
+    }
+
+    @Override
+    public void removeFileSet(Distribution distribution,
+        IExtractedFileSet files)
+    {
+        if (!files.baseDir().equals(extractedDirOf(extractDir, distribution))) {
+            delegate.removeFileSet(distribution, files);
+        }
+    }
+
+    private void extract(Distribution distribution, File dir, File marker)
+        throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        File lockFile = new File(dir.getParentFile(), dir.getName() + ".lock");
+        // File locks are held on behalf of the whole JVM, so threads must
+        // be serialized separately.
+        synchronized (VaultReusingArtifactStore.class) {
+            try (
+                FileChannel channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+            ) {
+                FileLock lock = channel.lock();
+                try {
+                    if (marker.isFile()) {
+                        return;
+                    }
+                    // The delegate extracts the archive into the shared
+                    // directory and hands out a temporary copy, which is not
+                    // needed here.
+                    delegate.removeFileSet(distribution,
+                        delegate.extractFileSet(distribution));
+                    Files.createFile(marker.toPath());
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private String executableName(Distribution distribution) {
+        FileSet fileSet = packageResolver.getFileSet(distribution);
+        for (FileSet.Entry entry : fileSet.entries()) {
+            if (entry.type() == FileType.Executable) {
+                return entry.destination();
+            }
+        }
+        throw new IllegalArgumentException(
+            "No executable found for " + distribution);
+    }
+
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Loads secrets, policies, auth roles and any other data into a Vault
+ * server using a fixed number of concurrent requests.
+ *
+ * <p>The items are read from the input by the calling thread and handed
+ * over to the workers through a bounded queue, so a large stream of items
+ * is never held in memory completely. Seeding stops at the first failed
+ * item.</p>
+ *
+ * <p>A fixture file is a JSON array of items:</p>
+ * <pre>
+ * [
+ *   {"type": "secret", "path": "secret/foo", "data": {"value": "bar"}},
+ *   {"type": "kv2", "mount": "secret", "path": "foo", "data": {"value": "bar"}},
+ *   {"type": "policy", "name": "app", "rules": "path \"secret/*\" { ... }"},
+ *   {"type": "role", "mount": "approle", "name": "app", "data": {"policies": "app"}},
+ *   {"type": "write", "path": "sys/mounts/kv", "data": {"type": "kv"}}
+ * ]
+ * </pre>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultSeeder {
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    public static final int DEFAULT_MAX_PENDING = 1024;
+
+    private static final AtomicInteger SEEDER_COUNTER = new AtomicInteger();
+
+    private static final Listener NOP_LISTENER = (item, latencyNanos) -> {};
+
+    private static final Item END = new Item("END", null, null);
+
+    private final VaultClient client;
+    private final int concurrency;
+    private final int maxPending;
+    private final Listener listener;
+
+    public VaultSeeder(VaultClient client) {
+        this(client, DEFAULT_CONCURRENCY, DEFAULT_MAX_PENDING, NOP_LISTENER);
+    }
+
+    /**
+     * @param concurrency the number of concurrent requests
+     * @param maxPending the number of items read ahead from the input
+     * @param listener the listener notified about every seeded item
+     */
+    public VaultSeeder(VaultClient client, int concurrency, int maxPending,
+        Listener listener)
+    {
+        this.client = requireNonNull(client, "client may not be null");
+        if (concurrency < 1) {
+            throw new IllegalArgumentException(
+                "concurrency must be greater than 0, but was " + concurrency);
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException(
+                "maxPending must be greater than 0, but was " + maxPending);
+        }
+        this.concurrency = concurrency;
+        this.maxPending = maxPending;
+        this.listener = requireNonNull(listener, "listener may not be null");
+    }
+
+    /**
+     * Seeds the items of the given fixture file.
+     */
+    public Report seed(Path fixtureFile) throws IOException {
+        return seed(readFixture(fixtureFile));
+    }
+
+    public Report seed(Iterable<? extends Item> items) throws IOException {
+        return seed(items.iterator());
+    }
+
+    /**
+     * Seeds the items of the given stream. The stream is consumed lazily.
+     */
+    public Report seed(Stream<? extends Item> items) throws IOException {
+        return seed(items.iterator());
+    }
+
+    /**
+     * Seeds all items of the given iterator.
+     *
+     * @throws IOException if an item could not be seeded
+     */
+    public Report seed(Iterator<? extends Item> items) throws IOException {
+        requireNonNull(items, "items may not be null");
+        BlockingQueue<Item> queue = new ArrayBlockingQueue<>(maxPending);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Worker[] workers = new Worker[concurrency];
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+            VaultThreads.daemonThreadFactory(
+                "seeder-" + SEEDER_COUNTER.incrementAndGet()));
+        long startTime = System.nanoTime();
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                workers[i] = new Worker(queue, failure);
+                executor.execute(workers[i]);
+            }
+            while (items.hasNext() && failure.get() == null) {
+                offer(queue, requireNonNull(items.next(), "item may not be null"),
+                    failure);
+            }
+            for (int i = 0; i < concurrency && failure.get() == null; i++) {
+                offer(queue, END, failure);
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                // Workers waiting for items are not woken up by a failure.
+                if (failure.get() != null) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while seeding");
+        } finally {
+            executor.shutdownNow();
+        }
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+        return new Report(System.nanoTime() - startTime, workers);
+    }
+
+    private static void offer(BlockingQueue<Item> queue, Item item,
+        AtomicReference<IOException> failure) throws InterruptedException
+    {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the items of the given fixture file.
+     *
+     * @throws IOException if the file can not be read or is not a valid
+     *         fixture file
+     */
+    public static List<Item> readFixture(Path fixtureFile) throws IOException {
+        String content = new String(
+            Files.readAllBytes(fixtureFile), StandardCharsets.UTF_8);
+        try {
+            Object json = VaultJson.parse(content);
+            if (!(json instanceof List)) {
+                throw new IllegalArgumentException("A JSON array expected");
+            }
+            List<?> entries = (List<?>) json;
+            List<Item> items = new ArrayList<>(entries.size());
+            for (Object entry : entries) {
+                items.add(Item.of(entry));
+            }
+            return items;
+        } catch (IllegalArgumentException | ClassCastException e) {
+            throw new IOException(
+                "Invalid fixture file " + fixtureFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Notified by the worker threads about every seeded item, therefore
+     * implementations must be thread-safe.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        void onItem(Item item, long latencyNanos);
+
+    }
+
+    /**
+     * A single write request.
+     */
+    public static final class Item {
+
+        private final String method;
+        private final String path;
+        private final Map<String, ?> data;
+
+        private Item(String method, String path, Map<String, ?> data) {
+            this.method = method;
+            this.path = path;
+            this.data = data;
+        }
+
+        /**
+         * Writes the secret to the given path of a KV version 1 engine,
+         * e.g. {@code secret/foo}.
+         */
+        public static Item secret(String path, Map<String, ?> data) {
+            return write(path, data);
+        }
+
+        /**
+         * Writes the secret to the given path of a KV version 2 engine
+         * mounted at the given mount point.
+         */
+        public static Item secretV2(String mount, String path,
+            Map<String, ?> data)
+        {
+            requireNonNull(mount, "mount may not be null");
+            requireNonNull(path, "path may not be null");
+            return write(mount + "/data/" + path, Collections.singletonMap(
+                "data", requireNonNull(data, "data may not be null")));
+        }
+
+        public static Item policy(String name, String rules) {
+            requireNonNull(name, "name may not be null");
+            return write("sys/policy/" + name, Collections.singletonMap(
+                "policy", requireNonNull(rules, "rules may not be null")));
+        }
+
+        /**
+         * Writes the role to an auth method, e.g.
+         * {@code role("approle", "app", data)}.
+         */
+        public static Item role(String mount, String name, Map<String, ?> data) {
+            requireNonNull(mount, "mount may not be null");
+            requireNonNull(name, "name may not be null");
+            return write("auth/" + mount + "/role/" + name, data);
+        }
+
+        public static Item write(String path, Map<String, ?> data) {
+            return new Item("PUT",
+                requireNonNull(path, "path may not be null"),
+                requireNonNull(data, "data may not be null"));
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Map<String, ?> getData() {
+            return data;
+        }
+
+        @Override
+        public String toString() {
+            return method + ' ' + path;
+        }
+
+        static Item of(Object json) {
+            Object type = VaultJson.get(json, "type");
+            if ("secret".equals(type)) {
+                return secret(string(json, "path"), map(json));
+            }
+            if ("kv2".equals(type)) {
+                return secretV2(string(json, "mount"), string(json, "path"),
+                    map(json));
+            }
+            if ("policy".equals(type)) {
+                return policy(string(json, "name"), string(json, "rules"));
+            }
+            if ("role".equals(type)) {
+                return role(string(json, "mount"), string(json, "name"),
+                    map(json));
+            }
+            if ("write".equals(type)) {
+                return write(string(json, "path"), map(json));
+            }
+            throw new IllegalArgumentException("Unknown item type " + type
+                + ", expected one of "
+                + Arrays.asList("secret", "kv2", "policy", "role", "write"));
+        }
+
+        private static String string(Object json, String name) {
+            Object value = VaultJson.get(json, name);
+            if (!(value instanceof String)) {
+                throw new IllegalArgumentException(
+                    "The item attribute \"" + name + "\" must be a string");
+            }
+            return (String) value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String, ?> map(Object json) {
+            Object value = VaultJson.get(json, "data");
+            if (!(value instanceof Map)) {
+                throw new IllegalArgumentException(
+                    "The item attribute \"data\" must be an object");
+            }
+            return new LinkedHashMap<>((Map<String, ?>) value);
+        }
+
+    }
+
+    /**
+     * The throughput and the latency of a seeding run.
+     */
+    public static final class Report {
+
+        private final long elapsedNanos;
+        private final long[] latencies;
+
+        Report(long elapsedNanos, Worker[] workers) {
+            this.elapsedNanos = elapsedNanos;
+            int count = 0;
+            for (Worker worker : workers) {
+                count += worker.count;
+            }
+            long[] latencies = new long[count];
+            int offset = 0;
+            for (Worker worker : workers) {
+                System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+                offset += worker.count;
+            }
+            Arrays.sort(latencies);
+            this.latencies = latencies;
+        }
+
+        public int getItems() {
+            return latencies.length;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getItemsPerSecond() {
+            return elapsedNanos == 0
+                ? 0
+                : latencies.length * 1e9 / elapsedNanos;
+        }
+
+        public long getMeanLatencyNanos() {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            long sum = 0;
+            for (long latency : latencies) {
+                sum += latency;
+            }
+            return sum / latencies.length;
+        }
+
+        public long getMaxLatencyNanos() {
+            return latencies.length == 0 ? 0 : latencies[latencies.length - 1];
+        }
+
+        /**
+         * Returns the latency below which the given percentage of the
+         * items were seeded, e.g. {@code getLatencyNanos(99.0)}.
+         */
+        public long getLatencyNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException(
+                    "percentile must be between 0 and 100, but was " + percentile);
+            }
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, index)];
+        }
+
+        @Override
+        public String toString() {
+            return "items=" + getItems()
+                + ", elapsedMillis=" + elapsedNanos / 1_000_000
+                + ", itemsPerSecond=" + Math.round(getItemsPerSecond())
+                + ", meanLatencyMicros=" + getMeanLatencyNanos() / 1000
+                + ", p99LatencyMicros=" + getLatencyNanos(99) / 1000
+                + ", maxLatencyMicros=" + getMaxLatencyNanos() / 1000;
+        }
+
+    }
+
+    private final class Worker implements Runnable {
+
+        private final BlockingQueue<Item> queue;
+        private final AtomicReference<IOException> failure;
+        long[] latencies = new long[256];
+        int count;
+
+        Worker(BlockingQueue<Item> queue, AtomicReference<IOException> failure) {
+            this.queue = queue;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (failure.get() == null) {
+                    Item item = queue.take();
+                    if (item == END) {
+                        return;
+                    }
+                    long startTime = System.nanoTime();
+                    try {
+                        client.request(item.method, item.path, item.data);
+                        long latency = System.nanoTime() - startTime;
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = latency;
+                        listener.onItem(item, latency);
+                    } catch (IOException | RuntimeException e) {
+                        failure.compareAndSet(null,
+                            new IOException("Could not seed " + item, e));
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Seeding was aborted.
+            }
+        }
+
+    }
+
+}
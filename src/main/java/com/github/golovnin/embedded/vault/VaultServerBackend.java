@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The server behind a {@link VaultServerProcess}, either a process running
+ * the Vault executable or the in-memory stand-in.
+ *
+ * @author Andrej Golovnin
+ */
+interface VaultServerBackend {
+
+    VaultStartupInfo getStartupInfo();
+
+    long getReadinessNanos();
+
+    /**
+     * Returns the metrics of the prepare phase completed with the metrics
+     * of the start of this server.
+     */
+    VaultStartupMetrics getStartupMetrics(VaultStartupMetrics prepareMetrics);
+
+    String getRecentOutput();
+
+    long getDroppedOutputLines();
+
+    long getDroppedOutputBlocks();
+
+    long getProcessId();
+
+    boolean isProcessRunning();
+
+    boolean isRegisteredJobKiller();
+
+    /**
+     * Returns the files the output of the server is written to, or an empty
+     * list if the output is read from pipes.
+     */
+    List<File> getLogFiles();
+
+    /**
+     * Returns {@code true} if the server did not shut down within the grace
+     * period of the stop policy and was killed.
+     */
+    boolean isKilled();
+
+    /**
+     * Restores the state of a just started server.
+     *
+     * @see VaultServerProcess#reset()
+     */
+    void reset() throws IOException;
+
+    void stop();
+
+}
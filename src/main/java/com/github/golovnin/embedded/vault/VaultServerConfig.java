@@ -33,6 +33,9 @@ package com.github.golovnin.embedded.vault;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -42,7 +45,6 @@ import de.flapdoodle.embed.process.builder.TypedProperty;
 import de.flapdoodle.embed.process.config.IExecutableProcessConfig;
 import de.flapdoodle.embed.process.config.ISupportConfig;
 import de.flapdoodle.embed.process.distribution.IVersion;
-import de.flapdoodle.embed.process.runtime.Network;
 
 import static java.util.Objects.requireNonNull;
 
@@ -53,40 +55,94 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
 
     private final IVersion version;
     private final long startupTimeout;
+    private final VaultReadiness readiness;
     private final String listenerHost;
     private final int listenerPort;
+    private final boolean randomPort;
+    private final Integer clusterPort;
+    private final String unixSocket;
     private final String rootTokenID;
+    private final boolean rootTokenIDGenerated;
     private final VaultLogLevel logLevel;
     private final String clusterName;
     private final String defaultLeaseTTL;
     private final String maxLeaseTTL;
+    private final VaultStorage storage;
+    private final VaultListenerConfig listener;
+    private final Integer cacheSize;
+    private final boolean disableCache;
+    private final boolean disableMlock;
+    private final boolean ui;
+    private final VaultTelemetryConfig telemetry;
+    private final VaultFixture fixture;
+    private final VaultRaftJoin raftJoin;
+    private final boolean inMemory;
+    private final VaultStopPolicy stopPolicy;
     private final Consumer<String> outConsumer;
     private final Consumer<String> errConsumer;
+    private final int outputQueueCapacity;
+    private final VaultOutputOverflow outputOverflow;
+    private final VaultLogEventListener logEventListener;
+    private final VaultStartupListener startupListener;
 
     VaultServerConfig(IVersion version, long startupTimeout,
-        String listenerHost, int listenerPort, String rootTokenID,
+        VaultReadiness readiness, String listenerHost, int listenerPort,
+        boolean randomPort, Integer clusterPort, String unixSocket,
+        String rootTokenID, boolean rootTokenIDGenerated,
         VaultLogLevel logLevel, String clusterName, String defaultLeaseTTL,
-        String maxLeaseTTL, Consumer<String> outConsumer,
-        Consumer<String> errConsumer)
+        String maxLeaseTTL, VaultStorage storage, VaultListenerConfig listener,
+        Integer cacheSize, boolean disableCache, boolean disableMlock,
+        boolean ui, VaultTelemetryConfig telemetry, VaultFixture fixture,
+        VaultRaftJoin raftJoin, boolean inMemory, VaultStopPolicy stopPolicy,
+        Consumer<String> outConsumer,
+        Consumer<String> errConsumer, int outputQueueCapacity,
+        VaultOutputOverflow outputOverflow,
+        VaultLogEventListener logEventListener,
+        VaultStartupListener startupListener)
     {
         this.version = version;
         this.startupTimeout = startupTimeout;
+        this.readiness = readiness;
         this.listenerHost = listenerHost;
         this.listenerPort = listenerPort;
+        this.randomPort = randomPort;
+        this.clusterPort = clusterPort;
+        this.unixSocket = unixSocket;
         this.rootTokenID = rootTokenID;
+        this.rootTokenIDGenerated = rootTokenIDGenerated;
         this.logLevel = logLevel;
         this.clusterName = clusterName;
         this.defaultLeaseTTL = defaultLeaseTTL;
         this.maxLeaseTTL = maxLeaseTTL;
+        this.storage = storage;
+        this.listener = listener;
+        this.cacheSize = cacheSize;
+        this.disableCache = disableCache;
+        this.disableMlock = disableMlock;
+        this.ui = ui;
+        this.telemetry = telemetry;
+        this.fixture = fixture;
+        this.raftJoin = raftJoin;
+        this.inMemory = inMemory;
+        this.stopPolicy = stopPolicy;
         this.outConsumer = outConsumer;
         this.errConsumer = errConsumer;
+        this.outputQueueCapacity = outputQueueCapacity;
+        this.outputOverflow = outputOverflow;
+        this.logEventListener = logEventListener;
+        this.startupListener = startupListener;
     }
 
     public static final class Builder extends AbstractBuilder<VaultServerConfig> {
 
         private static final String DEFAULT_ADDRESS = "127.0.0.1";
 
-        private static final Consumer<String> NOP_CONSUMER = s -> {};
+        static final Consumer<String> NOP_CONSUMER = s -> {};
+
+        static final VaultLogEventListener NOP_LOG_EVENT_LISTENER = e -> {};
+
+        private static final VaultStartupListener NOP_STARTUP_LISTENER =
+            (process, metrics) -> {};
 
         private static final TypedProperty<IVersion> VERSION =
             TypedProperty.with("version", IVersion.class);
@@ -94,12 +150,24 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
         private static final TypedProperty<Long> STARTUP_TIMEOUT =
             TypedProperty.with("startup-timeout", Long.class);
 
+        private static final TypedProperty<VaultReadiness> READINESS =
+            TypedProperty.with("readiness", VaultReadiness.class);
+
         private static final TypedProperty<String> LISTENER_HOST =
             TypedProperty.with("listener-host", String.class);
 
         private static final TypedProperty<Integer> LISTENER_PORT =
             TypedProperty.with("listener-port", Integer.class);
 
+        private static final TypedProperty<Boolean> RANDOM_PORT =
+            TypedProperty.with("random-port", Boolean.class);
+
+        private static final TypedProperty<Integer> CLUSTER_PORT =
+            TypedProperty.with("cluster-port", Integer.class);
+
+        private static final TypedProperty<String> UNIX_SOCKET =
+            TypedProperty.with("unix-socket", String.class);
+
         private static final TypedProperty<String> ROOT_TOKEN_ID =
             TypedProperty.with("root-token-id", String.class);
 
@@ -115,24 +183,83 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
         private static final TypedProperty<String> MAX_LEASE_TTL =
             TypedProperty.with("max-lease-ttl", String.class);
 
+        private static final TypedProperty<VaultStorage> STORAGE =
+            TypedProperty.with("storage", VaultStorage.class);
+
+        private static final TypedProperty<VaultListenerConfig> LISTENER =
+            TypedProperty.with("listener", VaultListenerConfig.class);
+
+        private static final TypedProperty<Integer> CACHE_SIZE =
+            TypedProperty.with("cache-size", Integer.class);
+
+        private static final TypedProperty<Boolean> DISABLE_CACHE =
+            TypedProperty.with("disable-cache", Boolean.class);
+
+        private static final TypedProperty<Boolean> DISABLE_MLOCK =
+            TypedProperty.with("disable-mlock", Boolean.class);
+
+        private static final TypedProperty<Boolean> UI =
+            TypedProperty.with("ui", Boolean.class);
+
+        private static final TypedProperty<VaultTelemetryConfig> TELEMETRY =
+            TypedProperty.with("telemetry", VaultTelemetryConfig.class);
+
+        private static final TypedProperty<VaultFixture> FIXTURE =
+            TypedProperty.with("fixture", VaultFixture.class);
+
+        private static final TypedProperty<VaultRaftJoin> RAFT_JOIN =
+            TypedProperty.with("raft-join", VaultRaftJoin.class);
+
+        private static final TypedProperty<Boolean> IN_MEMORY =
+            TypedProperty.with("in-memory", Boolean.class);
+
+        private static final TypedProperty<VaultStopPolicy> STOP_POLICY =
+            TypedProperty.with("stop-policy", VaultStopPolicy.class);
+
         private static final TypedProperty<Consumer> OUT_CONSUMER =
             TypedProperty.with("out-consumer", Consumer.class);
 
         private static final TypedProperty<Consumer> ERR_CONSUMER =
             TypedProperty.with("err-consumer", Consumer.class);
 
+        private static final TypedProperty<Integer> OUTPUT_QUEUE_CAPACITY =
+            TypedProperty.with("output-queue-capacity", Integer.class);
+
+        private static final TypedProperty<VaultOutputOverflow> OUTPUT_OVERFLOW =
+            TypedProperty.with("output-overflow", VaultOutputOverflow.class);
+
+        private static final TypedProperty<VaultLogEventListener> LOG_EVENT_LISTENER =
+            TypedProperty.with("log-event-listener", VaultLogEventListener.class);
+
+        private static final TypedProperty<VaultStartupListener> STARTUP_LISTENER =
+            TypedProperty.with("startup-listener", VaultStartupListener.class);
+
+        private boolean rootTokenIDSet;
+
         public Builder() {
             property(VERSION).setDefault(VaultVersion.V0_11_1);
             property(STARTUP_TIMEOUT).setDefault(60000L);
+            property(READINESS).setDefault(VaultReadiness.LOG_WATCH);
             property(LISTENER_HOST).setDefault(DEFAULT_ADDRESS);
             property(LISTENER_PORT).setDefault(8200);
+            property(RANDOM_PORT).setDefault(false);
             property(ROOT_TOKEN_ID).setDefault(UUID.randomUUID().toString());
             property(LOG_LEVEL).setDefault(VaultLogLevel.INFO);
             property(CLUSTER_NAME).setDefault("dev");
             property(DEFAULT_LEASE_TTL).setDefault("768h");
             property(MAX_LEASE_TTL).setDefault("768h");
+            property(STORAGE).setDefault(VaultStorage.inmem());
+            property(DISABLE_CACHE).setDefault(false);
+            property(DISABLE_MLOCK).setDefault(true);
+            property(UI).setDefault(false);
+            property(IN_MEMORY).setDefault(false);
+            property(STOP_POLICY).setDefault(VaultStopPolicy.defaults());
             property(OUT_CONSUMER).setDefault(NOP_CONSUMER);
             property(ERR_CONSUMER).setDefault(NOP_CONSUMER);
+            property(OUTPUT_QUEUE_CAPACITY).setDefault(1024);
+            property(OUTPUT_OVERFLOW).setDefault(VaultOutputOverflow.BLOCK);
+            property(LOG_EVENT_LISTENER).setDefault(NOP_LOG_EVENT_LISTENER);
+            property(STARTUP_LISTENER).setDefault(NOP_STARTUP_LISTENER);
         }
 
         public Builder version(IVersion version) {
@@ -149,6 +276,11 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
             return this;
         }
 
+        public Builder readiness(VaultReadiness readiness) {
+            property(READINESS).set(requireNonNull(readiness));
+            return this;
+        }
+
         public Builder listenerHost(String address) {
             property(LISTENER_HOST).set(address);
             return this;
@@ -159,8 +291,29 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
             return this;
         }
 
+        /**
+         * Sets the port of the cluster listener used by the Raft storage.
+         * The default is the listener port + 1.
+         */
+        public Builder clusterPort(int port) {
+            property(CLUSTER_PORT).set(port);
+            return this;
+        }
+
+        /**
+         * Lets the server listen on the given unix socket instead of the
+         * listener host and port. The server runs outside of the dev mode
+         * like a server with a custom listener. Connecting to the socket
+         * requires Java 16 or newer.
+         */
+        public Builder unixSocket(String path) {
+            property(UNIX_SOCKET).set(requireNonNull(path));
+            return this;
+        }
+
         public Builder rootTokenID(String id) {
             property(ROOT_TOKEN_ID).set(id);
+            rootTokenIDSet = true;
             return this;
         }
 
@@ -168,12 +321,19 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
             return randomPort(DEFAULT_ADDRESS);
         }
 
+        /**
+         * Uses a free port on the given address as the listener port. The
+         * port and the next port are reserved for this server across all
+         * JVMs on the host. If another process binds the port anyway, the
+         * server is restarted on a new port.
+         */
         public Builder randomPort(String address) {
             try {
-                int port = Network.getFreeServerPort(
+                int port = VaultPortAllocator.allocate(
                     InetAddress.getByName(address));
                 listenerHost(address);
                 listenerPort(port);
+                property(RANDOM_PORT).set(true);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -200,6 +360,112 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
             return this;
         }
 
+        /**
+         * Sets the storage backend. The default is the in-memory storage.
+         * A file storage must be empty or not exist, because the server
+         * initializes the storage on start.
+         */
+        public Builder storage(VaultStorage storage) {
+            property(STORAGE).set(requireNonNull(storage));
+            return this;
+        }
+
+        /**
+         * Uses the file storage backend in the given directory.
+         */
+        public Builder fileStorage(String path) {
+            return storage(VaultStorage.file(path));
+        }
+
+        /**
+         * Tunes the listener of the server. The listener of the dev mode
+         * can not be tuned, so the server is started outside the dev mode
+         * and initialized and unsealed on start.
+         */
+        public Builder listener(VaultListenerConfig listener) {
+            property(LISTENER).set(requireNonNull(listener));
+            return this;
+        }
+
+        /**
+         * Sets the number of entries of the read cache in front of the
+         * storage backend.
+         */
+        public Builder cacheSize(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException(
+                    "size may not be negative, but was " + size);
+            }
+            property(CACHE_SIZE).set(size);
+            return this;
+        }
+
+        public Builder disableCache(boolean disable) {
+            property(DISABLE_CACHE).set(disable);
+            return this;
+        }
+
+        /**
+         * Enables or disables mlock. Mlock is disabled by default, because
+         * it requires additional privileges.
+         */
+        public Builder disableMlock(boolean disable) {
+            property(DISABLE_MLOCK).set(disable);
+            return this;
+        }
+
+        public Builder ui(boolean enable) {
+            property(UI).set(enable);
+            return this;
+        }
+
+        public Builder telemetry(VaultTelemetryConfig telemetry) {
+            property(TELEMETRY).set(requireNonNull(telemetry));
+            return this;
+        }
+
+        /**
+         * Starts the server with the data of the given fixture. The root
+         * token of the server is set to the root token of the fixture.
+         */
+        public Builder fixture(VaultFixture fixture) {
+            property(FIXTURE).set(requireNonNull(fixture));
+            property(ROOT_TOKEN_ID).overwriteDefault(fixture.getRootTokenID());
+            return this;
+        }
+
+        /**
+         * Joins the server to the Raft cluster of the given leader instead
+         * of initializing it. The server is unsealed with the unseal key
+         * of the cluster.
+         */
+        Builder raftJoin(VaultRaftJoin join) {
+            property(RAFT_JOIN).set(requireNonNull(join));
+            return this;
+        }
+
+        /**
+         * Runs the server as an in-memory stand-in inside of this JVM
+         * instead of the Vault executable. The stand-in starts within
+         * milliseconds without a download, but supports only a subset of
+         * the HTTP API of Vault: the KV engines, the transit engine, token
+         * authentication, policies and the health endpoints. Policies are
+         * stored, but not enforced.
+         */
+        public Builder inMemory(boolean inMemory) {
+            property(IN_MEMORY).set(inMemory);
+            return this;
+        }
+
+        /**
+         * Sets how the server is stopped. By default the server gets
+         * 5 seconds to shut down before it is killed.
+         */
+        public Builder stopPolicy(VaultStopPolicy policy) {
+            property(STOP_POLICY).set(requireNonNull(policy));
+            return this;
+        }
+
         public Builder outConsumer(Consumer<String> consumer) {
             property(OUT_CONSUMER).set(requireNonNull(consumer));
             return this;
@@ -210,21 +476,107 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
             return this;
         }
 
+        /**
+         * Sets the number of output blocks which may wait for delivery to
+         * the output consumers.
+         */
+        public Builder outputQueueCapacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException(
+                    "capacity must be greater than 0, but was " + capacity);
+            }
+            property(OUTPUT_QUEUE_CAPACITY).set(capacity);
+            return this;
+        }
+
+        public Builder outputOverflow(VaultOutputOverflow overflow) {
+            property(OUTPUT_OVERFLOW).set(requireNonNull(overflow));
+            return this;
+        }
+
+        /**
+         * Sets the listener which receives the parsed log lines of the
+         * server. Parsing is only enabled when a listener is set.
+         */
+        public Builder logEventListener(VaultLogEventListener listener) {
+            property(LOG_EVENT_LISTENER).set(requireNonNull(listener));
+            return this;
+        }
+
+        public Builder startupListener(VaultStartupListener listener) {
+            property(STARTUP_LISTENER).set(requireNonNull(listener));
+            return this;
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         public VaultServerConfig build() {
+            VaultFixture fixture = get(FIXTURE, null);
+            if (fixture != null) {
+                if (!property(STORAGE).get().isInmem()) {
+                    throw new IllegalArgumentException(
+                        "A fixture can not be combined with a storage backend");
+                }
+                if (!fixture.getRootTokenID().equals(property(ROOT_TOKEN_ID).get())) {
+                    throw new IllegalArgumentException(
+                        "The root token ID is defined by the fixture");
+                }
+            }
+            VaultRaftJoin raftJoin = get(RAFT_JOIN, null);
+            if (raftJoin != null && !property(STORAGE).get().isRaft()) {
+                throw new IllegalArgumentException(
+                    "Only a server with the Raft storage can join a cluster");
+            }
+            if (property(IN_MEMORY).get()) {
+                if (!property(STORAGE).get().isInmem()) {
+                    throw new IllegalArgumentException(
+                        "An in-memory server can not use a storage backend");
+                }
+                if (fixture != null) {
+                    throw new IllegalArgumentException(
+                        "An in-memory server can not be started with a fixture");
+                }
+                if (get(UNIX_SOCKET, null) != null) {
+                    throw new IllegalArgumentException(
+                        "An in-memory server can not listen on a unix socket");
+                }
+            }
+            if (get(UNIX_SOCKET, null) != null && property(STORAGE).get().isRaft()) {
+                throw new IllegalArgumentException(
+                    "A server with the Raft storage can not listen on a unix socket");
+            }
             return new VaultServerConfig(
                 property(VERSION).get(),
                 property(STARTUP_TIMEOUT).get(),
+                property(READINESS).get(),
                 property(LISTENER_HOST).get(),
                 property(LISTENER_PORT).get(),
+                property(RANDOM_PORT).get(),
+                get(CLUSTER_PORT, null),
+                get(UNIX_SOCKET, null),
                 property(ROOT_TOKEN_ID).get(),
+                !rootTokenIDSet,
                 property(LOG_LEVEL).get(),
                 property(CLUSTER_NAME).get(),
                 property(DEFAULT_LEASE_TTL).get(),
                 property(MAX_LEASE_TTL).get(),
+                property(STORAGE).get(),
+                get(LISTENER, null),
+                get(CACHE_SIZE, null),
+                property(DISABLE_CACHE).get(),
+                property(DISABLE_MLOCK).get(),
+                property(UI).get(),
+                get(TELEMETRY, null),
+                fixture,
+                raftJoin,
+                property(IN_MEMORY).get(),
+                property(STOP_POLICY).get(),
                 (Consumer<String>) property(OUT_CONSUMER).get(),
-                (Consumer<String>) property(ERR_CONSUMER).get());
+                (Consumer<String>) property(ERR_CONSUMER).get(),
+                property(OUTPUT_QUEUE_CAPACITY).get(),
+                property(OUTPUT_OVERFLOW).get(),
+                property(LOG_EVENT_LISTENER).get(),
+                property(STARTUP_LISTENER).get());
         }
 
     }
@@ -233,6 +585,10 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
         return startupTimeout;
     }
 
+    public VaultReadiness getReadiness() {
+        return readiness;
+    }
+
     public String getListenerHost() {
         return listenerHost;
     }
@@ -241,6 +597,30 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
         return listenerPort;
     }
 
+    /**
+     * Returns {@code true} if the listener port was chosen by
+     * {@link Builder#randomPort()} and may be replaced by another free port.
+     */
+    public boolean isRandomPort() {
+        return randomPort;
+    }
+
+    /**
+     * Returns the port of the cluster listener, which Vault places next to
+     * the API port by default.
+     */
+    public int getClusterPort() {
+        return clusterPort != null ? clusterPort : listenerPort + 1;
+    }
+
+    /**
+     * Returns the path of the unix socket the server listens on or
+     * {@code null} if the server listens on the listener host and port.
+     */
+    public String getUnixSocket() {
+        return unixSocket;
+    }
+
     public String getRootTokenID() {
         return rootTokenID;
     }
@@ -269,6 +649,88 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
         return errConsumer;
     }
 
+    public int getOutputQueueCapacity() {
+        return outputQueueCapacity;
+    }
+
+    public VaultOutputOverflow getOutputOverflow() {
+        return outputOverflow;
+    }
+
+    public VaultStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns the listener tuning or {@code null} if the server uses the
+     * listener of the dev mode.
+     */
+    public VaultListenerConfig getListener() {
+        return listener;
+    }
+
+    /**
+     * Returns the size of the read cache or {@code null} if the server
+     * uses the default size.
+     */
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    public boolean isDisableCache() {
+        return disableCache;
+    }
+
+    public boolean isDisableMlock() {
+        return disableMlock;
+    }
+
+    public boolean isUi() {
+        return ui;
+    }
+
+    public VaultTelemetryConfig getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Returns {@code true} if the server runs in the dev mode, i.e. it is
+     * initialized and unsealed by Vault itself. Servers with a listener
+     * config, the Raft storage or a fixture run outside the dev mode.
+     */
+    public boolean isDevMode() {
+        return fixture == null && listener == null && unixSocket == null
+            && !storage.isRaft();
+    }
+
+    /**
+     * Returns {@code true} if the server runs as the in-memory stand-in
+     * inside of this JVM.
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    public VaultStopPolicy getStopPolicy() {
+        return stopPolicy;
+    }
+
+    public VaultFixture getFixture() {
+        return fixture;
+    }
+
+    VaultRaftJoin getRaftJoin() {
+        return raftJoin;
+    }
+
+    public VaultLogEventListener getLogEventListener() {
+        return logEventListener;
+    }
+
+    public VaultStartupListener getStartupListener() {
+        return startupListener;
+    }
+
     @Override
     public IVersion version() {
         return version;
@@ -279,12 +741,149 @@ public final class VaultServerConfig implements IExecutableProcessConfig {
         return VaultSupportConfig.INSTANCE;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof VaultServerConfig)) {
+            return false;
+        }
+        VaultServerConfig that = (VaultServerConfig) obj;
+        return startupTimeout == that.startupTimeout
+            && readiness == that.readiness
+            && listenerPort == that.listenerPort
+            && randomPort == that.randomPort
+            && Objects.equals(clusterPort, that.clusterPort)
+            && Objects.equals(unixSocket, that.unixSocket)
+            && version.asInDownloadPath().equals(that.version.asInDownloadPath())
+            && listenerHost.equals(that.listenerHost)
+            && rootTokenID.equals(that.rootTokenID)
+            && rootTokenIDGenerated == that.rootTokenIDGenerated
+            && logLevel == that.logLevel
+            && clusterName.equals(that.clusterName)
+            && defaultLeaseTTL.equals(that.defaultLeaseTTL)
+            && maxLeaseTTL.equals(that.maxLeaseTTL)
+            && storage.equals(that.storage)
+            && Objects.equals(listener, that.listener)
+            && Objects.equals(cacheSize, that.cacheSize)
+            && disableCache == that.disableCache
+            && disableMlock == that.disableMlock
+            && ui == that.ui
+            && Objects.equals(telemetry, that.telemetry)
+            && Objects.equals(fixture, that.fixture)
+            && Objects.equals(raftJoin, that.raftJoin)
+            && inMemory == that.inMemory
+            && stopPolicy.equals(that.stopPolicy)
+            && outConsumer.equals(that.outConsumer)
+            && errConsumer.equals(that.errConsumer)
+            && outputQueueCapacity == that.outputQueueCapacity
+            && outputOverflow == that.outputOverflow
+            && logEventListener.equals(that.logEventListener)
+            && startupListener.equals(that.startupListener);
+    }
+
+    /**
+     * Returns a copy of this config using the given listener port.
+     */
+    VaultServerConfig withListenerPort(int port) {
+        return new VaultServerConfig(version, startupTimeout, readiness,
+            listenerHost, port, randomPort, clusterPort, unixSocket,
+            rootTokenID, rootTokenIDGenerated, logLevel,
+            clusterName, defaultLeaseTTL, maxLeaseTTL, storage, listener,
+            cacheSize, disableCache, disableMlock, ui, telemetry, fixture,
+            raftJoin, inMemory, stopPolicy, outConsumer, errConsumer,
+            outputQueueCapacity, outputOverflow, logEventListener,
+            startupListener);
+    }
+
+    /**
+     * Returns the key of the server described by this config, i.e. a copy
+     * of this config without the generated values: the generated root token
+     * ID and the port chosen by {@link Builder#randomPort()}. Configs built
+     * the same way have equal keys.
+     */
+    VaultServerConfig sharingKey() {
+        if (!randomPort && !rootTokenIDGenerated) {
+            return this;
+        }
+        return new VaultServerConfig(version, startupTimeout, readiness,
+            listenerHost, randomPort ? 0 : listenerPort, randomPort,
+            clusterPort, unixSocket,
+            rootTokenIDGenerated ? "" : rootTokenID, rootTokenIDGenerated,
+            logLevel, clusterName, defaultLeaseTTL, maxLeaseTTL, storage,
+            listener, cacheSize, disableCache, disableMlock, ui, telemetry,
+            fixture, raftJoin, inMemory, stopPolicy, outConsumer, errConsumer,
+            outputQueueCapacity, outputOverflow, logEventListener,
+            startupListener);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(version.asInDownloadPath(), listenerHost,
+            listenerPort, rootTokenID);
+    }
+
+    @Override
+    public String toString() {
+        return "VaultServerConfig{version=" + version.asInDownloadPath()
+            + ", listener=" + (unixSocket != null
+                ? "unix:" + unixSocket
+                : listenerHost + ':' + listenerPort)
+            + ", logLevel=" + logLevel
+            + ", clusterName=" + clusterName + '}';
+    }
+
     String toJson() {
-        return "{\n" +
-                "\t\"cluster_name\": \"" + clusterName + "\",\n" +
-                "\t\"default_lease_ttl\": \"" + defaultLeaseTTL + "\",\n" +
-                "\t\"max_lease_ttl\": \"" + maxLeaseTTL + "\"\n" +
-                "}\n";
+        return toJson(storage, isDevMode());
+    }
+
+    /**
+     * @param storage the storage backend to use instead of the configured
+     *        one
+     * @param devMode {@code false} to add the listener and the addresses,
+     *        which are configured by the dev mode otherwise
+     */
+    String toJson(VaultStorage storage, boolean devMode) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("cluster_name", clusterName);
+        json.put("default_lease_ttl", defaultLeaseTTL);
+        json.put("max_lease_ttl", maxLeaseTTL);
+        if (!devMode || !storage.isInmem()) {
+            json.put("storage", storage.toJsonObject());
+        }
+        if (!devMode) {
+            String clusterAddress = storage.isRaft()
+                ? listenerHost + ':' + getClusterPort()
+                : null;
+            VaultListenerConfig options = listener != null
+                ? listener
+                : VaultListenerConfig.defaults();
+            if (unixSocket != null) {
+                json.put("listener", options.toUnixJsonObject(unixSocket));
+            } else {
+                json.put("listener", options.toJsonObject(
+                    listenerHost + ':' + listenerPort, clusterAddress));
+                json.put("api_addr", "http://" + listenerHost + ':' + listenerPort);
+            }
+            if (clusterAddress != null) {
+                json.put("cluster_addr", "https://" + clusterAddress);
+            }
+        }
+        json.put("disable_mlock", disableMlock);
+        if (cacheSize != null) {
+            json.put("cache_size", cacheSize);
+        }
+        if (disableCache) {
+            json.put("disable_cache", true);
+        }
+        if (ui) {
+            json.put("ui", true);
+        }
+        if (telemetry != null) {
+            json.put("telemetry", telemetry.getOptions());
+        }
+        return VaultJson.write(json);
     }
 
 }
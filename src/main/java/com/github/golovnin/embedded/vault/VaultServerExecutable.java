@@ -31,12 +31,20 @@
 package com.github.golovnin.embedded.vault;
 
 import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import de.flapdoodle.embed.process.config.IRuntimeConfig;
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.extract.IExtractedFileSet;
 import de.flapdoodle.embed.process.runtime.Executable;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * @author Andrej Golovnin
  */
@@ -44,6 +52,14 @@ public final class VaultServerExecutable
     extends Executable<VaultServerConfig, VaultServerProcess>
 {
 
+    /**
+     * The number of attempts to start a server on a random port, which was
+     * bound by another process in the meantime.
+     */
+    private static final int MAX_BIND_ATTEMPTS = 3;
+
+    private VaultStartupMetrics prepareMetrics = VaultStartupMetrics.EMPTY;
+
     VaultServerExecutable(Distribution distribution,
         VaultServerConfig config, IRuntimeConfig runtimeConfig,
         IExtractedFileSet files)
@@ -51,11 +67,69 @@ public final class VaultServerExecutable
         super(distribution, config, runtimeConfig, files);
     }
 
+    /**
+     * Starts the Vault server asynchronously using an internal pool of
+     * daemon threads.
+     */
+    public CompletableFuture<VaultServerProcess> startAsync() {
+        return startAsync(VaultThreads.defaultExecutor());
+    }
+
+    /**
+     * Starts the Vault server asynchronously using the given executor.
+     * The returned future fails with the {@link IOException} thrown by
+     * {@link #start()} as its cause.
+     */
+    public CompletableFuture<VaultServerProcess> startAsync(Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return start();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Stops all given executables and their servers concurrently and waits
+     * until all of them are stopped.
+     */
+    public static void stopAll(Collection<VaultServerExecutable> executables) {
+        requireNonNull(executables, "executables may not be null");
+        VaultThreads.runInParallel(executables, VaultServerExecutable::stop);
+    }
+
+    void setPrepareMetrics(VaultStartupMetrics prepareMetrics) {
+        this.prepareMetrics = prepareMetrics;
+    }
+
     @Override
     protected VaultServerProcess start(Distribution distribution,
         VaultServerConfig config, IRuntimeConfig runtime) throws IOException
     {
-        return new VaultServerProcess(distribution, config, runtime, this);
+        VaultFixture fixture = config.getFixture();
+        if (fixture != null) {
+            // Seeds the fixture unless its snapshot is cached already.
+            fixture.snapshot(VaultServerStarter.getInstance(runtime), config);
+        }
+        VaultServerBackend backend;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                backend = config.isInMemory()
+                    ? VaultInMemoryServer.start(config)
+                    : new VaultNativeProcess(distribution, config, runtime, this);
+                break;
+            } catch (BindException e) {
+                if (!config.isRandomPort() || attempt == MAX_BIND_ATTEMPTS) {
+                    throw e;
+                }
+                config = config.withListenerPort(VaultPortAllocator.allocate(
+                    InetAddress.getByName(config.getListenerHost())));
+            }
+        }
+        VaultServerProcess process = new VaultServerProcess(config, backend);
+        process.onStarted(prepareMetrics);
+        return process;
     }
 
 }
@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.io.Processors;
+import de.flapdoodle.embed.process.io.directories.UserHome;
+import de.flapdoodle.embed.process.runtime.ProcessControl;
+import de.flapdoodle.embed.process.runtime.Processes;
+
+/**
+ * A lease on a Vault server shared by all JVMs on the same host. The first
+ * JVM starts the server and records its address, root token and PID in a
+ * descriptor file under the artifact store directory. Later JVMs attach to
+ * the recorded server instead of starting a new one.
+ *
+ * <p>Every lease is registered in the descriptor together with the PID of the
+ * JVM holding it. Leases of JVMs which are not running anymore are ignored.
+ * The server is stopped as soon as the last lease is closed. The server is
+ * not bound to the JVM which has started it. On shutdown a JVM only removes
+ * its own leases and the server keeps running until the last lease of any
+ * other JVM is closed. The output of the server is written to log files
+ * next to the descriptor, as the pipes to the JVM which has started it are
+ * closed on its exit.</p>
+ *
+ * <p>Servers are shared between configs which describe the same server,
+ * i.e. with the same version, listener host, log level, cluster name, lease
+ * TTLs, storage, listener options, cache, UI, telemetry, stop policy and
+ * fixture. The listener port and the root token of an attached server are
+ * taken from the descriptor and may differ from the values in the
+ * config.</p>
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerStarter#attachOrStart(VaultServerConfig)
+ */
+public final class VaultServerLease implements Closeable {
+
+    private static final String HOST = "host";
+    private static final String PORT = "port";
+    private static final String ROOT_TOKEN_ID = "root-token-id";
+    private static final String UNSEAL_KEY = "unseal-key";
+    private static final String PID = "pid";
+    private static final String OWNER = "owner";
+    private static final String LEASES = "leases";
+    private static final String LOG_FILES = "log-files";
+
+    private static final long KILL_TIMEOUT_MILLIS = 5000;
+
+    private static final long KILL_POLL_INTERVAL_MILLIS = 50;
+
+    private static final Platform PLATFORM = Platform.detect();
+
+    private static final long JVM_PID = currentProcessId();
+
+    private static final Object MONITOR = new Object();
+
+    private static final Map<String, VaultServerExecutable> OWNED =
+        new HashMap<>();
+
+    private static boolean shutdownHookRegistered;
+
+    private final String key;
+    private final String leaseID;
+    private final String listenerHost;
+    private final int listenerPort;
+    private final String rootTokenID;
+    private final String unsealKey;
+    private final long processId;
+    private final boolean owner;
+    private final AtomicBoolean closed;
+
+    private VaultServerLease(String key, String leaseID, Properties server) {
+        this.key = key;
+        this.leaseID = leaseID;
+        this.listenerHost = server.getProperty(HOST);
+        this.listenerPort = Integer.parseInt(server.getProperty(PORT));
+        this.rootTokenID = server.getProperty(ROOT_TOKEN_ID);
+        this.unsealKey = server.getProperty(UNSEAL_KEY);
+        this.processId = Long.parseLong(server.getProperty(PID));
+        this.owner = isOwnedByThisJVM(server);
+        this.closed = new AtomicBoolean();
+    }
+
+    static VaultServerLease acquire(VaultServerStarter starter,
+        VaultServerConfig config) throws IOException
+    {
+        if (config.isInMemory()) {
+            // The server lives and dies with the JVM which started it.
+            throw new IllegalArgumentException(
+                "An in-memory server can not be shared between JVMs");
+        }
+        if (config.getUnixSocket() != null) {
+            // The descriptor records the listener host and port only.
+            throw new IllegalArgumentException(
+                "A server listening on a unix socket can not be shared between JVMs");
+        }
+        if (config.getStorage().isRaft()) {
+            // A Raft node belongs to the cluster of the JVM which started it.
+            throw new IllegalArgumentException(
+                "A server with the Raft storage can not be shared between JVMs");
+        }
+        String key = keyOf(config);
+        String leaseID = JVM_PID + ":" + UUID.randomUUID();
+        synchronized (MONITOR) {
+            try (Descriptor descriptor = Descriptor.lock(key)) {
+                Properties server = descriptor.read();
+                if (!isAlive(server)) {
+                    stopServer(key, server);
+                    server = startServer(starter, config, key);
+                }
+                List<String> leases = leasesOf(server);
+                leases.add(leaseID);
+                server.setProperty(LEASES, String.join(",", leases));
+                descriptor.write(server);
+                return new VaultServerLease(key, leaseID, server);
+            }
+        }
+    }
+
+    public String getListenerHost() {
+        return listenerHost;
+    }
+
+    public int getListenerPort() {
+        return listenerPort;
+    }
+
+    public String getRootTokenID() {
+        return rootTokenID;
+    }
+
+    public String getUnsealKey() {
+        return unsealKey;
+    }
+
+    public long getProcessId() {
+        return processId;
+    }
+
+    /**
+     * Returns {@code true} if the server was started by this JVM.
+     */
+    public boolean isOwner() {
+        return owner;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (MONITOR) {
+            try (Descriptor descriptor = Descriptor.lock(key)) {
+                Properties server = descriptor.read();
+                if (server.isEmpty()
+                    || Long.parseLong(server.getProperty(PID)) != processId)
+                {
+                    // The server has been replaced in the meantime.
+                    return;
+                }
+                List<String> leases = leasesOf(server);
+                leases.remove(leaseID);
+                if (leases.isEmpty()) {
+                    stopServer(key, server);
+                    descriptor.delete();
+                } else {
+                    server.setProperty(LEASES, String.join(",", leases));
+                    descriptor.write(server);
+                }
+            }
+        }
+    }
+
+    private static Properties startServer(VaultServerStarter starter,
+        VaultServerConfig config, String key) throws IOException
+    {
+        VaultServerExecutable executable = starter.prepare(config);
+        VaultServerProcess process;
+        try {
+            process = executable.start();
+        } catch (IOException | RuntimeException e) {
+            executable.stop();
+            throw e;
+        }
+        if (!shutdownHookRegistered) {
+            ProcessControl.addShutdownHook(VaultServerLease::releaseAll);
+            shutdownHookRegistered = true;
+        }
+        OWNED.put(key, executable);
+
+        Properties server = new Properties();
+        server.setProperty(HOST, config.getListenerHost());
+        server.setProperty(PORT, String.valueOf(config.getListenerPort()));
+        server.setProperty(ROOT_TOKEN_ID, config.getRootTokenID());
+        if (process.getUnsealKey() != null) {
+            server.setProperty(UNSEAL_KEY, process.getUnsealKey());
+        }
+        server.setProperty(PID, String.valueOf(process.getProcessId()));
+        server.setProperty(OWNER, String.valueOf(JVM_PID));
+        List<String> logFiles = new ArrayList<>();
+        for (File file : process.getLogFiles()) {
+            logFiles.add(file.getAbsolutePath());
+        }
+        server.setProperty(LOG_FILES,
+            String.join(File.pathSeparator, logFiles));
+        return server;
+    }
+
+    private static void stopServer(String key, Properties server) {
+        VaultServerExecutable executable = OWNED.remove(key);
+        if (executable != null) {
+            executable.stop();
+        } else if (!server.isEmpty()) {
+            long pid = Long.parseLong(server.getProperty(PID));
+            if (Processes.isProcessRunning(PLATFORM, pid)) {
+                Processes.killProcess(VaultSupportConfig.INSTANCE, PLATFORM,
+                    Processors.silent(), pid);
+                awaitExit(pid);
+            }
+            // The output of a server stopped by another JVM than its owner
+            // is left behind.
+            String logFiles = server.getProperty(LOG_FILES, "");
+            if (!logFiles.isEmpty()) {
+                for (String logFile : logFiles.split(File.pathSeparator)) {
+                    new File(logFile).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the process killed by PID has exited, so its port is
+     * free when the last lease is closed.
+     */
+    private static void awaitExit(long pid) {
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(KILL_TIMEOUT_MILLIS);
+        try {
+            while (Processes.isProcessRunning(PLATFORM, pid)
+                && System.nanoTime() < deadline)
+            {
+                Thread.sleep(KILL_POLL_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called on shutdown of a JVM which has started servers. Removes the
+     * leases of this JVM and stops the servers which are not leased by
+     * other JVMs anymore. Servers still leased by other JVMs keep running,
+     * the last lessee stops them by PID.
+     */
+    private static void releaseAll() {
+        synchronized (MONITOR) {
+            for (String key : new ArrayList<>(OWNED.keySet())) {
+                try (Descriptor descriptor = Descriptor.lock(key)) {
+                    Properties server = descriptor.read();
+                    List<String> leases = leasesOf(server);
+                    leases.removeIf(lease -> lease.startsWith(JVM_PID + ":"));
+                    if (!isOwnedByThisJVM(server)) {
+                        // The server has been replaced in the meantime.
+                        stopServer(key, new Properties());
+                    } else if (leases.isEmpty()) {
+                        stopServer(key, server);
+                        descriptor.delete();
+                    } else {
+                        OWNED.remove(key);
+                        server.setProperty(LEASES, String.join(",", leases));
+                        descriptor.write(server);
+                    }
+                } catch (IOException e) {
+                    stopServer(key, new Properties());
+                }
+            }
+        }
+    }
+
+    private static boolean isAlive(Properties server) {
+        // The server outlives the JVM which has started it.
+        return !server.isEmpty() && isRunning(server.getProperty(PID));
+    }
+
+    private static boolean isOwnedByThisJVM(Properties server) {
+        return String.valueOf(JVM_PID).equals(server.getProperty(OWNER));
+    }
+
+    private static boolean isRunning(String pid) {
+        long value = Long.parseLong(pid);
+        return value == JVM_PID || Processes.isProcessRunning(PLATFORM, value);
+    }
+
+    /**
+     * Returns the leases of the server held by running JVMs.
+     */
+    private static List<String> leasesOf(Properties server) {
+        List<String> leases = new ArrayList<>();
+        String value = server.getProperty(LEASES, "");
+        if (!value.isEmpty()) {
+            for (String lease : value.split(",")) {
+                leases.add(lease);
+            }
+        }
+        Iterator<String> it = leases.iterator();
+        while (it.hasNext()) {
+            String lease = it.next();
+            if (!isRunning(lease.substring(0, lease.indexOf(':')))) {
+                it.remove();
+            }
+        }
+        return leases;
+    }
+
+    private static String keyOf(VaultServerConfig config) {
+        String key = config.version().asInDownloadPath()
+            + '|' + config.getListenerHost()
+            + '|' + config.getLogLevel()
+            + '|' + config.getClusterName()
+            + '|' + config.getDefaultLeaseTTL()
+            + '|' + config.getMaxLeaseTTL()
+            + '|' + config.getStorage().getType()
+            + sorted(config.getStorage().getOptions())
+            + '|' + (config.getListener() != null
+                ? sorted(config.getListener().getOptions()) : null)
+            + '|' + config.getCacheSize()
+            + '|' + config.isDisableCache()
+            + '|' + config.isDisableMlock()
+            + '|' + config.isUi()
+            + '|' + (config.getTelemetry() != null
+                ? sorted(config.getTelemetry().getOptions()) : null)
+            + '|' + config.getStopPolicy().getGracePeriodMillis()
+            + '|' + (config.getFixture() != null
+                ? config.getFixture().getKey() : null);
+        return "vault-" + config.version().asInDownloadPath() + '-'
+            + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the options in a stable order, the order in which they were
+     * set does not matter.
+     */
+    private static Map<String, Object> sorted(Map<String, Object> options) {
+        return new TreeMap<>(options);
+    }
+
+    private static long currentProcessId() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        return Long.parseLong(name.substring(0, name.indexOf('@')));
+    }
+
+    /**
+     * The descriptor file of a shared server together with the file lock
+     * guarding it.
+     */
+    private static final class Descriptor implements Closeable {
+
+        private final File file;
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        private Descriptor(File file, FileChannel channel, FileLock lock) {
+            this.file = file;
+            this.channel = channel;
+            this.lock = lock;
+        }
+
+        static Descriptor lock(String key) throws IOException {
+            File dir = new UserHome(
+                VaultBuilders.ARTIFACT_STORE_PATH + "/shared").asFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create directory " + dir);
+            }
+            FileChannel channel = FileChannel.open(
+                new File(dir, key + ".lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return new Descriptor(new File(dir, key + ".properties"),
+                    channel, channel.lock());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        Properties read() throws IOException {
+            Properties properties = new Properties();
+            if (file.isFile()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    properties.load(in);
+                }
+            }
+            return properties;
+        }
+
+        void write(Properties properties) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                properties.store(out, "Embedded Vault shared server");
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(file.toPath());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+            } finally {
+                channel.close();
+            }
+        }
+
+    }
+
+}
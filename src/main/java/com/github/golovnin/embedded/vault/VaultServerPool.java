@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps a fixed number of Vault servers booting or booted in the background
+ * and hands them out on {@link #acquire()}. Every acquired server is replaced
+ * by a new one immediately, so the next caller usually gets a server which
+ * is already up and running.
+ *
+ * <p>Released servers are stopped and never handed out again, because their
+ * state is no longer pristine.</p>
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultServerPool implements Closeable {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final VaultServerStarter starter;
+    private final Supplier<VaultServerConfig> configFactory;
+    private final ExecutorService executor;
+    private final Queue<Future<Entry>> warm;
+    private final Map<VaultServerProcess, VaultServerExecutable> leased;
+    private final Statistics statistics;
+    private boolean closed;
+
+    /**
+     * Creates a pool of {@code size} servers using the default starter.
+     * Every server listens on its own random port.
+     */
+    public VaultServerPool(int size) {
+        this(VaultServerStarter.getDefaultInstance(),
+            () -> new VaultServerConfig.Builder().randomPort().build(), size);
+    }
+
+    /**
+     * Creates a pool of {@code size} servers. The config factory is called
+     * once per server and must return configs which do not conflict with
+     * each other, e.g. configs using {@link VaultServerConfig.Builder#randomPort()}.
+     */
+    public VaultServerPool(VaultServerStarter starter,
+        Supplier<VaultServerConfig> configFactory, int size)
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException(
+                "size must be greater than 0, but was " + size);
+        }
+        this.starter = requireNonNull(starter, "starter may not be null");
+        this.configFactory = requireNonNull(configFactory, "configFactory may not be null");
+        this.executor = Executors.newFixedThreadPool(size,
+            VaultThreads.daemonThreadFactory(
+                "pool-" + POOL_COUNTER.incrementAndGet()));
+        this.warm = new ArrayDeque<>(size);
+        this.leased = new IdentityHashMap<>();
+        this.statistics = new Statistics();
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                warm.add(executor.submit(this::startServer));
+            }
+        }
+    }
+
+    /**
+     * Returns a running server. Blocks until a server is available.
+     */
+    public VaultServerProcess acquire() throws IOException {
+        long startTime = System.nanoTime();
+        Future<Entry> next;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Pool is closed");
+            }
+            next = warm.remove();
+            warm.add(executor.submit(this::startServer));
+        }
+        boolean hit = next.isDone();
+        Entry entry = await(next);
+        synchronized (this) {
+            if (closed) {
+                entry.executable.stop();
+                throw new IllegalStateException("Pool is closed");
+            }
+            leased.put(entry.process, entry.executable);
+        }
+        statistics.record(hit, System.nanoTime() - startTime);
+        return entry.process;
+    }
+
+    /**
+     * Returns the server to the pool. The server is stopped in background
+     * on the {@link VaultThreads#defaultExecutor() default executor}, so the
+     * stop does not delay the start of the replacements. Releasing a server
+     * after the pool was closed does nothing, the server was already stopped
+     * by {@link #close()}.
+     */
+    public void release(VaultServerProcess process) {
+        VaultServerExecutable executable;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            executable = leased.remove(process);
+        }
+        if (executable == null) {
+            throw new IllegalArgumentException(
+                "The process was not acquired from this pool");
+        }
+        VaultThreads.defaultExecutor().execute(executable::stop);
+    }
+
+    /**
+     * Returns the number of servers, which are started and wait for an
+     * acquisition.
+     */
+    synchronized int getReadyServers() {
+        int ready = 0;
+        for (Future<Entry> future : warm) {
+            if (future.isDone()) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Stops all servers started by this pool including servers which were
+     * acquired, but not released yet.
+     */
+    @Override
+    public void close() {
+        List<Future<Entry>> pending;
+        List<VaultServerExecutable> executables;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = new ArrayList<>(warm);
+            warm.clear();
+            executables = new ArrayList<>(leased.values());
+            leased.clear();
+        }
+        executor.shutdown();
+        for (Future<Entry> future : pending) {
+            try {
+                executables.add(await(future).executable);
+            } catch (IOException e) {
+                // The server could not be started, so there is nothing to stop.
+            }
+        }
+        VaultServerExecutable.stopAll(executables);
+    }
+
+    private Entry startServer() throws IOException {
+        VaultServerExecutable executable = starter.prepare(configFactory.get());
+        try {
+            return new Entry(executable, executable.start());
+        } catch (IOException | RuntimeException e) {
+            executable.stop();
+            throw e;
+        }
+    }
+
+    private static Entry await(Future<Entry> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not start Vault server", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Acquire statistics of a pool. A hit is an acquisition which was served
+     * by an already started server, a miss had to wait for a server to boot.
+     */
+    public static final class Statistics {
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong totalAcquireNanos = new AtomicLong();
+        private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+        Statistics() {
+            // NOP
+        }
+
+        void record(boolean hit, long acquireNanos) {
+            (hit ? hits : misses).incrementAndGet();
+            totalAcquireNanos.addAndGet(acquireNanos);
+            maxAcquireNanos.accumulateAndGet(acquireNanos, Math::max);
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getAcquisitions() {
+            return hits.get() + misses.get();
+        }
+
+        public long getTotalAcquireNanos() {
+            return totalAcquireNanos.get();
+        }
+
+        public long getMaxAcquireNanos() {
+            return maxAcquireNanos.get();
+        }
+
+        public long getAverageAcquireNanos() {
+            long acquisitions = getAcquisitions();
+            return acquisitions == 0 ? 0 : totalAcquireNanos.get() / acquisitions;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + getHits()
+                + ", misses=" + getMisses()
+                + ", avgAcquireMillis=" + getAverageAcquireNanos() / 1_000_000
+                + ", maxAcquireMillis=" + getMaxAcquireNanos() / 1_000_000;
+        }
+
+    }
+
+    private static final class Entry {
+
+        final VaultServerExecutable executable;
+        final VaultServerProcess process;
+
+        Entry(VaultServerExecutable executable, VaultServerProcess process) {
+            this.executable = executable;
+            this.process = process;
+        }
+
+    }
+
+}
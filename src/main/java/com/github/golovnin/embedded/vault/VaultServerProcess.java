@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017, Andrej Golovnin
+ * Copyright (c) 2018, Andrej Golovnin
  * All rights reserved.
  *
  * Redistribution and use in source and binary forms, with or without
@@ -31,152 +31,206 @@
 package com.github.golovnin.embedded.vault;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.function.Consumer;
-
-import de.flapdoodle.embed.process.config.IRuntimeConfig;
-import de.flapdoodle.embed.process.config.io.ProcessOutput;
-import de.flapdoodle.embed.process.distribution.Distribution;
-import de.flapdoodle.embed.process.extract.IExtractedFileSet;
-import de.flapdoodle.embed.process.io.LogWatchStreamProcessor;
-import de.flapdoodle.embed.process.io.Processors;
-import de.flapdoodle.embed.process.io.StreamToLineProcessor;
-import de.flapdoodle.embed.process.io.file.Files;
-import de.flapdoodle.embed.process.runtime.AbstractProcess;
-import de.flapdoodle.embed.process.runtime.ProcessControl;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import de.flapdoodle.embed.process.runtime.IStopable;
+
+import static java.util.Objects.requireNonNull;
 
 /**
+ * A started Vault server. The server runs either the Vault executable in its
+ * own process or, if the config is {@link VaultServerConfig#isInMemory()
+ * in-memory}, the in-memory stand-in inside of this JVM.
+ *
  * @author Andrej Golovnin
  */
-public final class VaultServerProcess
-    extends AbstractProcess<VaultServerConfig, VaultServerExecutable, VaultServerProcess>
-{
+public final class VaultServerProcess implements IStopable {
 
-    private static final String SUCCESS_MESSAGE =
-        "==> Vault server started!";
+    private final VaultServerConfig config;
+    private final VaultServerBackend backend;
+    private VaultStartupMetrics startupMetrics;
+    private volatile long stopNanos = -1;
 
-    private static final Set<String> KNOWN_FAILURE_MESSAGES =
-        Collections.singleton("Error ");
+    VaultServerProcess(VaultServerConfig config, VaultServerBackend backend) {
+        this.config = config;
+        this.backend = backend;
+    }
 
-    private static final String UNSEAL_KEY = "Unseal Key:";
+    public VaultServerConfig getConfig() {
+        return config;
+    }
 
-    private boolean stopped;
-    private File configFile;
-    private Consumer<String> outConsumer;
-    private Consumer<String> errConsumer;
-    private String unsealKey;
+    /**
+     * Returns {@code true} if the server is the in-memory stand-in.
+     */
+    public boolean isInMemory() {
+        return config.isInMemory();
+    }
 
-    VaultServerProcess(Distribution distribution, VaultServerConfig config,
-        IRuntimeConfig runtimeConfig, VaultServerExecutable executable)
-        throws IOException
-    {
-        super(distribution, config, runtimeConfig, executable);
+    public String getUnsealKey() {
+        VaultStartupInfo info = backend.getStartupInfo();
+        return info != null ? info.getUnsealKey() : null;
     }
 
-    @Override
-    protected List<String> getCommandLine(Distribution distribution,
-        VaultServerConfig config, IExtractedFileSet files) throws IOException
-    {
-        configFile = File.createTempFile("embedded-vault-config", ".json");
-        try (
-            OutputStreamWriter writer = new OutputStreamWriter(
-                new FileOutputStream(configFile), "UTF-8")
-        ) {
-            writer.write(config.toJson());
-        }
+    /**
+     * Returns the information printed by the server in its startup banner
+     * or {@code null} if the banner could not be read.
+     */
+    public VaultStartupInfo getStartupInfo() {
+        return backend.getStartupInfo();
+    }
 
-        Consumer<String> unsealKeyConsumer = this::extractUnsealKey;
-        this.outConsumer = unsealKeyConsumer.andThen(config.getOutConsumer());
-        this.errConsumer = config.getErrConsumer();
+    /**
+     * Returns the time in nanoseconds between the start of the process
+     * and the moment the server was detected as ready.
+     */
+    public long getReadinessNanos() {
+        return backend.getReadinessNanos();
+    }
 
-        String listenerHost = config.getListenerHost();
-        String listenerPort = String.valueOf(config.getListenerPort());
-        String rootTokenID = config.getRootTokenID();
-        String logLevel = config.getLogLevel().toConsulValue();
-        return Arrays.asList(
-            Files.fileOf(files.baseDir(), files.executable()).getAbsolutePath(),
-            "server",
-            "-dev",
-            "-dev-root-token-id=" + rootTokenID,
-            "-dev-listen-address=" + listenerHost + ':' + listenerPort,
-            "-config=" + configFile.getAbsolutePath(),
-            "-log-level=" + logLevel);
+    /**
+     * Returns the most recent output of the server, at most the last 16K
+     * characters of stdout and stderr.
+     */
+    public String getRecentOutput() {
+        return backend.getRecentOutput();
     }
 
-    @Override
-    protected void onAfterProcessStart(ProcessControl process,
-        IRuntimeConfig runtimeConfig) throws IOException
-    {
-        ProcessOutput outputConfig = runtimeConfig.getProcessOutput();
-        LogWatchStreamProcessor logWatch = new LogWatchStreamProcessor(
-            SUCCESS_MESSAGE, KNOWN_FAILURE_MESSAGES,
-            StreamToLineProcessor.wrap(outputConfig.getOutput()));
-
-        Processors.connect(
-            process.getReader(),
-            new VaultOutputProcessor(logWatch, outConsumer));
-        Processors.connect(
-            process.getError(),
-            new VaultOutputProcessor(
-                StreamToLineProcessor.wrap(outputConfig.getError()),
-                errConsumer));
-
-        logWatch.waitForResult(getConfig().getStartupTimeout());
-        if (logWatch.isInitWithSuccess()) {
-            setProcessId(getProcessId());
-        } else {
-            String failureFound = logWatch.getFailureFound();
-            if (failureFound == null) {
-                failureFound = "\n----------------------\n"
-                             + "The failure message was not found.\n"
-                             + "The process output may contain the cause:\n"
-                             + logWatch.getOutput();
-            }
-            try {
-                if (process.waitFor() != 0) {
-                    throw new IOException(
-                        "Could not start process: " + failureFound);
-                }
-            } catch (InterruptedException e) {
-                throw new IOException(
-                    "Could not start process: " + failureFound, e);
-            }
+    /**
+     * Returns the number of output lines which were not delivered to the
+     * output consumers because of {@link VaultOutputOverflow#DROP}.
+     */
+    public long getDroppedOutputLines() {
+        return backend.getDroppedOutputLines();
+    }
+
+    public long getDroppedOutputBlocks() {
+        return backend.getDroppedOutputBlocks();
+    }
+
+    public VaultStartupMetrics getStartupMetrics() {
+        return startupMetrics;
+    }
+
+    /**
+     * Returns the PID of the server process or {@code 0} for the in-memory
+     * stand-in.
+     */
+    public long getProcessId() {
+        return backend.getProcessId();
+    }
+
+    public boolean isProcessRunning() {
+        return backend.isProcessRunning();
+    }
+
+    /**
+     * Restores the state of the just started server without restarting it.
+     * All mounts, auth methods, audit devices and policies created after the
+     * start are removed and all tokens except the root token are revoked,
+     * which revokes their leases. The {@code secret/} mount is recreated
+     * empty. The process, the listener address and the root token are kept.
+     *
+     * <p>The reset takes a few concurrent API calls, the in-memory
+     * stand-in resets its state directly.</p>
+     *
+     * <p>Only a server in the dev mode can be reset. A server seeded by a
+     * {@link VaultFixture} or running outside the dev mode starts with
+     * state, which the reset would delete.</p>
+     *
+     * @throws IOException if the server is not running or an API call fails
+     * @throws IllegalStateException if the server does not run in the dev
+     *         mode
+     */
+    public void reset() throws IOException {
+        VaultServerConfig config = getConfig();
+        if (config.getFixture() != null) {
+            throw new IllegalStateException("A server seeded by the fixture "
+                + config.getFixture().getKey() + " can not be reset");
+        }
+        if (!config.isDevMode()) {
+            throw new IllegalStateException(
+                "A server outside the dev mode can not be reset");
         }
+        backend.reset();
     }
 
+    /**
+     * Stops the server as described by the {@link VaultStopPolicy} of the
+     * config and waits until the server is stopped.
+     */
     @Override
-    protected void stopInternal() {
-        synchronized (this) {
-            if (!stopped) {
-                stopped = true;
-                if (!sendKillToProcess()) {
-                    tryKillToProcess();
-                }
-                stopProcess();
-            }
+    public void stop() {
+        long startTime = System.nanoTime();
+        backend.stop();
+        if (stopNanos < 0) {
+            stopNanos = System.nanoTime() - startTime;
         }
     }
 
+    /**
+     * Stops the server asynchronously using an internal pool of daemon
+     * threads.
+     */
+    public CompletableFuture<Void> stopAsync() {
+        return stopAsync(VaultThreads.defaultExecutor());
+    }
+
+    public CompletableFuture<Void> stopAsync(Executor executor) {
+        requireNonNull(executor, "executor may not be null");
+        return CompletableFuture.runAsync(this::stop, executor);
+    }
+
+    /**
+     * Stops all given servers concurrently and waits until all of them are
+     * stopped.
+     */
+    public static void stopAll(Collection<VaultServerProcess> processes) {
+        requireNonNull(processes, "processes may not be null");
+        VaultThreads.runInParallel(processes, VaultServerProcess::stop);
+    }
+
+    /**
+     * Returns the time in nanoseconds the first call of {@link #stop()}
+     * took to stop the server or {@code -1} if the server was not stopped
+     * yet.
+     */
+    public long getStopNanos() {
+        return stopNanos;
+    }
+
+    /**
+     * Returns {@code true} if the server did not shut down within the grace
+     * period of the stop policy and was killed.
+     */
+    public boolean isKilled() {
+        return backend.isKilled();
+    }
+
     @Override
-    protected void cleanupInternal() {
-        Files.forceDelete(configFile);
+    public boolean isRegisteredJobKiller() {
+        return backend.isRegisteredJobKiller();
     }
 
-    public String getUnsealKey() {
-        return unsealKey;
+    /**
+     * Returns the files the output of the server is written to, or an empty
+     * list if the output is read from pipes.
+     */
+    List<File> getLogFiles() {
+        return backend.getLogFiles();
     }
 
-    private void extractUnsealKey(String block) {
-        int i = block.indexOf(UNSEAL_KEY);
-        if (i >= 0) {
-            unsealKey = block.substring(i + UNSEAL_KEY.length()).trim();
-        }
+    /**
+     * Completes the startup metrics of this process with the metrics of
+     * the prepare phase and notifies the startup listener.
+     */
+    void onStarted(VaultStartupMetrics prepareMetrics) {
+        startupMetrics = backend.getStartupMetrics(prepareMetrics);
+        config.getStartupListener().onStartup(this, startupMetrics);
     }
 
 }
@@ -30,10 +30,19 @@
 
 package com.github.golovnin.embedded.vault;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 import de.flapdoodle.embed.process.config.IRuntimeConfig;
 import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.exceptions.DistributionException;
 import de.flapdoodle.embed.process.extract.IExtractedFileSet;
 import de.flapdoodle.embed.process.runtime.Starter;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+import static java.util.Objects.requireNonNull;
 
 /**
  * @author Andrej Golovnin
@@ -42,8 +51,14 @@ public final class VaultServerStarter
     extends Starter<VaultServerConfig, VaultServerExecutable, VaultServerProcess>
 {
 
+    private static final VaultPackageResolver PACKAGE_RESOLVER =
+        new VaultPackageResolver();
+
+    private final IRuntimeConfig runtime;
+
     private VaultServerStarter(IRuntimeConfig config) {
         super(config);
+        this.runtime = config;
     }
 
     public static VaultServerStarter getInstance(IRuntimeConfig config) {
@@ -54,6 +69,141 @@ public final class VaultServerStarter
         return getInstance(VaultBuilders.runtimeConfigBuilder().build());
     }
 
+    /**
+     * Returns a starter using the default runtime config, which reports the
+     * progress of Vault downloads to the given listener.
+     */
+    public static VaultServerStarter getInstance(VaultDownloadListener listener) {
+        requireNonNull(listener, "listener may not be null");
+        return getInstance(VaultBuilders.runtimeConfigBuilder(
+            new VaultDownloader(VaultDownloader.DEFAULT_SEGMENTS, listener))
+            .build());
+    }
+
+    @Override
+    public VaultServerExecutable prepare(VaultServerConfig config) {
+        long startTime = System.nanoTime();
+        Distribution distribution = Distribution.detectFor(config.version());
+        return prepare(config, distribution, startTime);
+    }
+
+    @Override
+    public VaultServerExecutable prepare(VaultServerConfig config,
+        Distribution distribution)
+    {
+        return prepare(config, distribution, System.nanoTime());
+    }
+
+    private VaultServerExecutable prepare(VaultServerConfig config,
+        Distribution distribution, long resolveStartTime)
+    {
+        if (config.isInMemory()) {
+            // The in-memory stand-in needs neither a download nor the
+            // extracted executable.
+            return newExecutable(config, distribution,
+                VaultInMemoryServer.runtimeConfigOf(runtime), null);
+        }
+        try {
+            // Resolve the archive and the executable of the distribution
+            // before the artifact store is asked for them, so an unsupported
+            // platform fails fast.
+            PACKAGE_RESOLVER.getPath(distribution);
+            PACKAGE_RESOLVER.getFileSet(distribution);
+            long resolveNanos = System.nanoTime() - resolveStartTime;
+            IArtifactStore artifactStore = runtime.getArtifactStore();
+            long startTime = System.nanoTime();
+            if (!artifactStore.checkDistribution(distribution)) {
+                throw new DistributionException(
+                    "could not find Distribution", distribution);
+            }
+            long downloadNanos = System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            IExtractedFileSet files = artifactStore.extractFileSet(distribution);
+            long extractNanos = System.nanoTime() - startTime;
+            VaultServerExecutable executable =
+                newExecutable(config, distribution, runtime, files);
+            executable.setPrepareMetrics(VaultStartupMetrics.ofPrepare(
+                resolveNanos, downloadNanos, extractNanos));
+            return executable;
+        } catch (IOException e) {
+            throw new DistributionException(distribution, e);
+        }
+    }
+
+    /**
+     * Prepares the executable asynchronously using an internal pool of
+     * daemon threads.
+     */
+    public CompletableFuture<VaultServerExecutable> prepareAsync(
+        VaultServerConfig config)
+    {
+        return prepareAsync(config, VaultThreads.defaultExecutor());
+    }
+
+    /**
+     * Prepares the executable asynchronously using the given executor.
+     * Combined with {@link VaultServerExecutable#startAsync(Executor)} it
+     * allows to start many servers in parallel:
+     * <pre>
+     * CompletableFuture&lt;VaultServerProcess&gt; process = starter
+     *     .prepareAsync(config, executor)
+     *     .thenCompose(e -&gt; e.startAsync(executor));
+     * </pre>
+     */
+    public CompletableFuture<VaultServerExecutable> prepareAsync(
+        VaultServerConfig config, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(() -> prepare(config), executor);
+    }
+
+    /**
+     * Returns a handle, which starts the Vault server on the first use and
+     * stops it when the server has not been used for one minute.
+     */
+    public static LazyVaultServer lazy(VaultServerConfig config) {
+        return lazy(config, LazyVaultServer.DEFAULT_IDLE_TIMEOUT_MILLIS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a handle, which starts the Vault server on the first use and
+     * stops it when the server has not been used for the given time.
+     */
+    public static LazyVaultServer lazy(VaultServerConfig config,
+        long idleTimeout, TimeUnit unit)
+    {
+        requireNonNull(config, "config may not be null");
+        requireNonNull(unit, "unit may not be null");
+        return new LazyVaultServer(getDefaultInstance(), config, idleTimeout, unit);
+    }
+
+    /**
+     * Returns a handle to the Vault server shared by all callers using
+     * an equal config. The server is started on the first call and stopped
+     * when the last handle is closed.
+     */
+    public static SharedVaultServer shared(VaultServerConfig config)
+        throws IOException
+    {
+        return SharedVaultServer.acquire(getDefaultInstance(), config);
+    }
+
+    /**
+     * Attaches to the Vault server started by another JVM on this host or
+     * starts a new one, if there is no server for the given config yet.
+     *
+     * @see VaultServerLease
+     */
+    public static VaultServerLease attachOrStart(VaultServerConfig config)
+        throws IOException
+    {
+        // The server must survive the shutdown hooks of the executable,
+        // as other JVMs may still use it. VaultServerLease stops it.
+        VaultServerStarter starter = getInstance(
+            VaultBuilders.runtimeConfigBuilder().daemonProcess(false).build());
+        return VaultServerLease.acquire(starter, config);
+    }
+
     @Override
     protected VaultServerExecutable newExecutable(VaultServerConfig config,
         Distribution distribution, IRuntimeConfig runtime,
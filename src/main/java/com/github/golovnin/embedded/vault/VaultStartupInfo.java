@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+/**
+ * The information printed by a Vault server in its startup banner.
+ * Values which are not printed by the used Vault version are {@code null}.
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerProcess#getStartupInfo()
+ */
+public final class VaultStartupInfo {
+
+    private final String apiAddress;
+    private final String clusterAddress;
+    private final String rootToken;
+    private final String unsealKey;
+    private final String version;
+
+    VaultStartupInfo(String apiAddress, String clusterAddress,
+        String rootToken, String unsealKey, String version)
+    {
+        this.apiAddress = apiAddress;
+        this.clusterAddress = clusterAddress;
+        this.rootToken = rootToken;
+        this.unsealKey = unsealKey;
+        this.version = version;
+    }
+
+    /**
+     * Returns the API address, e.g. {@code http://127.0.0.1:8200}.
+     */
+    public String getApiAddress() {
+        return apiAddress;
+    }
+
+    /**
+     * Returns the cluster address, e.g. {@code https://127.0.0.1:8201}.
+     */
+    public String getClusterAddress() {
+        return clusterAddress;
+    }
+
+    public String getRootToken() {
+        return rootToken;
+    }
+
+    public String getUnsealKey() {
+        return unsealKey;
+    }
+
+    /**
+     * Returns the version reported by the server, e.g. {@code 0.11.1}.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "VaultStartupInfo{apiAddress=" + apiAddress
+            + ", clusterAddress=" + clusterAddress
+            + ", version=" + version + '}';
+    }
+
+}
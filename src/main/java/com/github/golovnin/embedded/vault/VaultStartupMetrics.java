@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the phases of a Vault server launch in nanoseconds.
+ *
+ * <ul>
+ *   <li><b>resolve</b> - detecting the distribution for the configured
+ *       version and platform and resolving its archive and executable.</li>
+ *   <li><b>download</b> - looking up the archive in the artifact store,
+ *       downloading it, if it is not in the store yet, and verifying
+ *       it.</li>
+ *   <li><b>extract</b> - extracting the archive, if required, and copying
+ *       the executable to its final location.</li>
+ *   <li><b>command line</b> - building the command line including writing
+ *       the temporary config file.</li>
+ *   <li><b>spawn</b> - spawning the process.</li>
+ *   <li><b>readiness</b> - waiting until the server is ready.</li>
+ * </ul>
+ *
+ * The first three phases are measured once per
+ * {@link VaultServerStarter#prepare(VaultServerConfig) prepare} call and are
+ * shared by all processes started from the same executable.
+ *
+ * @author Andrej Golovnin
+ */
+public final class VaultStartupMetrics {
+
+    static final VaultStartupMetrics EMPTY =
+        new VaultStartupMetrics(0, 0, 0, 0, 0, 0);
+
+    private final long resolveNanos;
+    private final long downloadNanos;
+    private final long extractNanos;
+    private final long commandLineNanos;
+    private final long spawnNanos;
+    private final long readinessNanos;
+
+    private VaultStartupMetrics(long resolveNanos, long downloadNanos,
+        long extractNanos, long commandLineNanos, long spawnNanos,
+        long readinessNanos)
+    {
+        this.resolveNanos = resolveNanos;
+        this.downloadNanos = downloadNanos;
+        this.extractNanos = extractNanos;
+        this.commandLineNanos = commandLineNanos;
+        this.spawnNanos = spawnNanos;
+        this.readinessNanos = readinessNanos;
+    }
+
+    static VaultStartupMetrics ofPrepare(long resolveNanos,
+        long downloadNanos, long extractNanos)
+    {
+        return new VaultStartupMetrics(
+            resolveNanos, downloadNanos, extractNanos, 0, 0, 0);
+    }
+
+    VaultStartupMetrics withStart(long commandLineNanos, long spawnNanos,
+        long readinessNanos)
+    {
+        return new VaultStartupMetrics(resolveNanos, downloadNanos,
+            extractNanos, commandLineNanos, spawnNanos, readinessNanos);
+    }
+
+    public long getResolveNanos() {
+        return resolveNanos;
+    }
+
+    public long getDownloadNanos() {
+        return downloadNanos;
+    }
+
+    public long getExtractNanos() {
+        return extractNanos;
+    }
+
+    public long getCommandLineNanos() {
+        return commandLineNanos;
+    }
+
+    public long getSpawnNanos() {
+        return spawnNanos;
+    }
+
+    public long getReadinessNanos() {
+        return readinessNanos;
+    }
+
+    public long getTotalNanos() {
+        return resolveNanos + downloadNanos + extractNanos
+            + commandLineNanos + spawnNanos + readinessNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "resolve=" + millis(resolveNanos)
+            + "ms, download=" + millis(downloadNanos)
+            + "ms, extract=" + millis(extractNanos)
+            + "ms, commandLine=" + millis(commandLineNanos)
+            + "ms, spawn=" + millis(spawnNanos)
+            + "ms, readiness=" + millis(readinessNanos)
+            + "ms, total=" + millis(getTotalNanos()) + "ms";
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Restores the state of a just started Vault server using its API. The
+ * state is read with one round of concurrent requests and removed with a
+ * second one, so a reset takes two round trips plus the time Vault needs
+ * to unmount the engines.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultStateReset {
+
+    private static final int MAX_IN_FLIGHT = 16;
+
+    /** Mounts which exist on every server and cannot be removed. */
+    private static final Set<String> BUILTIN_MOUNTS = new HashSet<>(
+        Arrays.asList("sys/", "cubbyhole/", "identity/"));
+
+    /** The mount of the KV engine created by the dev mode. */
+    private static final String SECRET_MOUNT = "secret/";
+
+    private static final Set<String> BUILTIN_POLICIES = new HashSet<>(
+        Arrays.asList("root", "default"));
+
+    private static final String TOKEN_AUTH = "token/";
+
+    private VaultStateReset() {
+        // NOP
+    }
+
+    static void reset(VaultServerConfig config) throws IOException {
+        try (VaultClient client = new VaultClient(config, MAX_IN_FLIGHT)) {
+            CompletableFuture<Map<String, Object>> mounts =
+                readAsync(client, "sys/mounts");
+            CompletableFuture<Map<String, Object>> auths =
+                readAsync(client, "sys/auth");
+            CompletableFuture<Map<String, Object>> audits =
+                readAsync(client, "sys/audit");
+            CompletableFuture<Map<String, Object>> policies =
+                readAsync(client, "sys/policy");
+            CompletableFuture<Map<String, Object>> accessors =
+                readAsync(client, "auth/token/accessors?list=true");
+            CompletableFuture<Map<String, Object>> self =
+                readAsync(client, "auth/token/lookup-self");
+
+            List<Action> actions = new ArrayList<>();
+            Map<String, Object> mountTable = dataOf(join(mounts));
+            mountTable.forEach((path, entry) -> {
+                if (!(entry instanceof Map) || BUILTIN_MOUNTS.contains(path)) {
+                    return;
+                }
+                if (path.equals(SECRET_MOUNT)) {
+                    actions.add(() -> remount(client, path, (Map<?, ?>) entry));
+                } else {
+                    actions.add(() -> client.delete("sys/mounts/" + path));
+                }
+            });
+            dataOf(join(auths)).forEach((path, entry) -> {
+                if (entry instanceof Map && !path.equals(TOKEN_AUTH)) {
+                    actions.add(() -> client.delete("sys/auth/" + path));
+                }
+            });
+            dataOf(join(audits)).forEach((path, entry) -> {
+                if (entry instanceof Map) {
+                    actions.add(() -> client.delete("sys/audit/" + path));
+                }
+            });
+            for (Object name : listOf(dataOf(join(policies)), "policies")) {
+                if (!BUILTIN_POLICIES.contains(String.valueOf(name))) {
+                    actions.add(() -> client.delete("sys/policy/" + name));
+                }
+            }
+            Object rootAccessor = VaultJson.get(join(self), "data", "accessor");
+            for (Object accessor : listOf(dataOf(join(accessors)), "keys")) {
+                if (!accessor.equals(rootAccessor)) {
+                    actions.add(() -> revokeAccessor(client,
+                        config.getRootTokenID(), String.valueOf(accessor)));
+                }
+            }
+            runInParallel(actions);
+        }
+    }
+
+    private static void remount(VaultClient client, String path,
+        Map<?, ?> entry) throws IOException
+    {
+        // Deleting all secrets one by one would take a request per secret.
+        Map<String, Object> mount = new LinkedHashMap<>();
+        mount.put("type", entry.get("type"));
+        if (entry.get("options") instanceof Map) {
+            mount.put("options", entry.get("options"));
+        }
+        client.delete("sys/mounts/" + path);
+        client.write("sys/mounts/" + path, mount);
+    }
+
+    private static void revokeAccessor(VaultClient client, String token,
+        String accessor) throws IOException
+    {
+        // Revoking a token revokes its children concurrently, so the
+        // accessor may already be invalid.
+        VaultHttpConnection.Response response = client.exchange("POST",
+            "/v1/auth/token/revoke-accessor", token,
+            VaultJson.writeCompact(Collections.singletonMap("accessor", accessor))
+                .getBytes(StandardCharsets.UTF_8));
+        if (response.status > 400) {
+            throw new IOException("Could not revoke the token accessor "
+                + accessor + ": HTTP " + response.status + ": "
+                + response.contentAsString());
+        }
+    }
+
+    private static CompletableFuture<Map<String, Object>> readAsync(
+        VaultClient client, String path)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.read(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, VaultThreads.defaultExecutor());
+    }
+
+    /**
+     * Returns the response or an empty map if the path does not exist,
+     * e.g. an older Vault version does not support it.
+     */
+    private static Map<String, Object> join(
+        CompletableFuture<Map<String, Object>> future) throws IOException
+    {
+        try {
+            Map<String, Object> response = future.join();
+            return response != null ? response : Collections.emptyMap();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the data of the response. Older Vault versions return the
+     * mount tables at the top level.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> dataOf(Map<String, Object> response) {
+        Object data = response.get("data");
+        return data instanceof Map
+            ? (Map<String, Object>) data
+            : response;
+    }
+
+    private static List<?> listOf(Map<String, Object> response, String name) {
+        Object list = response.get(name);
+        return list instanceof List ? (List<?>) list : Collections.emptyList();
+    }
+
+    private static void runInParallel(List<Action> actions) throws IOException {
+        try {
+            VaultThreads.runInParallel(actions, action -> {
+                try {
+                    action.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(Throwable failure) {
+        if (failure instanceof UncheckedIOException) {
+            IOException cause = ((UncheckedIOException) failure).getCause();
+            for (Throwable suppressed : failure.getSuppressed()) {
+                cause.addSuppressed(suppressed);
+            }
+            return cause;
+        }
+        return new IOException("Could not reset the Vault server", failure);
+    }
+
+    @FunctionalInterface
+    private interface Action {
+
+        void run() throws IOException;
+
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Describes how a Vault server is stopped: the server is asked to shut down
+ * with {@code SIGTERM} and killed with {@code SIGKILL}, if it does not exit
+ * within the grace period. On Windows the server is always terminated
+ * forcibly.
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerConfig.Builder#stopPolicy(VaultStopPolicy)
+ */
+public final class VaultStopPolicy {
+
+    private static final VaultStopPolicy DEFAULTS =
+        new VaultStopPolicy(TimeUnit.SECONDS.toMillis(5));
+
+    private static final VaultStopPolicy FORCIBLE = new VaultStopPolicy(0);
+
+    private final long gracePeriodMillis;
+
+    private VaultStopPolicy(long gracePeriodMillis) {
+        this.gracePeriodMillis = gracePeriodMillis;
+    }
+
+    /**
+     * Returns the policy giving the server 5 seconds to shut down.
+     */
+    public static VaultStopPolicy defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns the policy killing the server immediately. It is the fastest
+     * way to stop a server whose data is thrown away anyway.
+     */
+    public static VaultStopPolicy forcible() {
+        return FORCIBLE;
+    }
+
+    /**
+     * Sets the time the server may take to shut down after {@code SIGTERM}.
+     * A grace period of 0 kills the server immediately.
+     */
+    public VaultStopPolicy gracePeriod(long gracePeriod, TimeUnit unit) {
+        requireNonNull(unit, "unit may not be null");
+        if (gracePeriod < 0) {
+            throw new IllegalArgumentException(
+                "gracePeriod may not be negative, but was " + gracePeriod);
+        }
+        return new VaultStopPolicy(unit.toMillis(gracePeriod));
+    }
+
+    public long getGracePeriodMillis() {
+        return gracePeriodMillis;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof VaultStopPolicy
+            && gracePeriodMillis == ((VaultStopPolicy) obj).gracePeriodMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(gracePeriodMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "VaultStopPolicy{gracePeriodMillis=" + gracePeriodMillis + '}';
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The storage backend of a Vault server.
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerConfig.Builder#storage(VaultStorage)
+ */
+public final class VaultStorage {
+
+    private static final VaultStorage INMEM =
+        new VaultStorage("inmem", Collections.emptyMap());
+
+    private final String type;
+    private final Map<String, Object> options;
+
+    private VaultStorage(String type, Map<String, Object> options) {
+        this.type = type;
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * The in-memory storage. This is the default storage.
+     */
+    public static VaultStorage inmem() {
+        return INMEM;
+    }
+
+    /**
+     * The file storage in the given directory.
+     */
+    public static VaultStorage file(String path) {
+        requireNonNull(path, "path may not be null");
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("path", path);
+        return new VaultStorage("file", options);
+    }
+
+    /**
+     * The integrated Raft storage in the given directory. Requires a Vault
+     * version with integrated storage, i.e. 1.4 or newer. A server using
+     * the Raft storage does not run in the dev mode.
+     */
+    public static VaultStorage raft(String path, String nodeId) {
+        requireNonNull(path, "path may not be null");
+        requireNonNull(nodeId, "nodeId may not be null");
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("path", path);
+        options.put("node_id", nodeId);
+        return new VaultStorage("raft", options);
+    }
+
+    /**
+     * Returns a copy of this storage with an additional backend specific
+     * option, e.g. {@code performance_multiplier} of the Raft storage.
+     */
+    public VaultStorage option(String name, Object value) {
+        requireNonNull(name, "name may not be null");
+        requireNonNull(value, "value may not be null");
+        Map<String, Object> copy = new LinkedHashMap<>(options);
+        copy.put(name, value);
+        return new VaultStorage(type, copy);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    boolean isInmem() {
+        return "inmem".equals(type);
+    }
+
+    boolean isRaft() {
+        return "raft".equals(type);
+    }
+
+    Map<String, Object> toJsonObject() {
+        return Collections.singletonMap(type, options);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof VaultStorage)) {
+            return false;
+        }
+        VaultStorage that = (VaultStorage) obj;
+        return type.equals(that.type) && options.equals(that.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + options.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + options;
+    }
+
+}
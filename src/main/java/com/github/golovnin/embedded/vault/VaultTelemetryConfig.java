@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The {@code telemetry} stanza of a Vault server.
+ *
+ * @author Andrej Golovnin
+ * @see VaultServerConfig.Builder#telemetry(VaultTelemetryConfig)
+ */
+public final class VaultTelemetryConfig {
+
+    private static final VaultTelemetryConfig DEFAULTS =
+        new VaultTelemetryConfig(Collections.emptyMap());
+
+    private final Map<String, Object> options;
+
+    private VaultTelemetryConfig(Map<String, Object> options) {
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    public static VaultTelemetryConfig defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Sends metrics to a statsd server, e.g. {@code 127.0.0.1:8125}.
+     */
+    public VaultTelemetryConfig statsdAddress(String address) {
+        return with("statsd_address", address);
+    }
+
+    public VaultTelemetryConfig statsiteAddress(String address) {
+        return with("statsite_address", address);
+    }
+
+    public VaultTelemetryConfig disableHostname(boolean disable) {
+        return with("disable_hostname", disable);
+    }
+
+    /**
+     * Keeps metrics for Prometheus for the given duration, e.g.
+     * {@code 30s}. Requires Vault 1.1 or newer.
+     */
+    public VaultTelemetryConfig prometheusRetentionTime(String duration) {
+        return with("prometheus_retention_time", duration);
+    }
+
+    /**
+     * Sets any other telemetry option.
+     */
+    public VaultTelemetryConfig with(String name, Object value) {
+        requireNonNull(name, "name may not be null");
+        requireNonNull(value, "value may not be null");
+        Map<String, Object> copy = new LinkedHashMap<>(options);
+        copy.put(name, value);
+        return new VaultTelemetryConfig(copy);
+    }
+
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof VaultTelemetryConfig
+            && options.equals(((VaultTelemetryConfig) obj).options);
+    }
+
+    @Override
+    public int hashCode() {
+        return options.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "VaultTelemetryConfig" + options;
+    }
+
+}
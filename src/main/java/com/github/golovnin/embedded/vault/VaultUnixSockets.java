@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connects to unix domain sockets. The library is compiled for Java 8, which
+ * does not support unix domain sockets, so the API of Java 16 and newer is
+ * used through reflection.
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultUnixSockets {
+
+    private static final ProtocolFamily UNIX;
+    private static final Method OPEN;
+    private static final Method ADDRESS_OF;
+
+    static {
+        ProtocolFamily unix = null;
+        Method open = null;
+        Method addressOf = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            // The JVM does not support unix domain sockets.
+            unix = null;
+        }
+        UNIX = unix;
+        OPEN = open;
+        ADDRESS_OF = addressOf;
+    }
+
+    private VaultUnixSockets() {
+        // NOP
+    }
+
+    /**
+     * Returns {@code true} if the running JVM supports unix domain sockets.
+     */
+    static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * Opens a blocking channel connected to the given socket file.
+     */
+    static SocketChannel connect(String path) throws IOException {
+        if (!isSupported()) {
+            throw new IOException(
+                "Unix domain sockets require Java 16 or newer, but the JVM is "
+                + System.getProperty("java.version"));
+        }
+        SocketAddress address;
+        SocketChannel channel;
+        try {
+            address = (SocketAddress) ADDRESS_OF.invoke(null, path);
+            channel = (SocketChannel) OPEN.invoke(null, UNIX);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not connect to " + path, e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            channel.connect(address);
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+}
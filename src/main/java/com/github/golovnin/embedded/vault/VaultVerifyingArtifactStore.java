@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.io.directories.IDirectory;
+import de.flapdoodle.embed.process.io.progress.IProgressListener;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An artifact store which verifies every archive against the
+ * {@code SHA256SUMS} file published by HashiCorp before it is used.
+ *
+ * <p>The checksums file is downloaded once and kept next to the archive.
+ * The digest of a verified archive is recorded together with its size and
+ * modification time in an index file in the artifact store directory,
+ * so an unchanged archive is hashed only once. A corrupt archive is
+ * deleted together with its extracted files and downloaded again.</p>
+ *
+ * <p>If no published checksum is available, e.g. when working offline,
+ * the archive is checked to be a complete ZIP file with valid entry
+ * checksums instead.</p>
+ *
+ * @author Andrej Golovnin
+ */
+final class VaultVerifyingArtifactStore implements IArtifactStore {
+
+    static final String INDEX_FILE_NAME = "sha256.index";
+
+    private static final long MAPPING_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Checksum files which could not be downloaded. They are not requested
+     * again to avoid paying the connection timeout on every prepare call
+     * when working offline.
+     */
+    private static final Set<String> UNAVAILABLE_CHECKSUMS = new HashSet<>();
+
+    /**
+     * Archives without a published checksum, which were checked to be valid
+     * ZIP files, keyed by their path, size and modification time.
+     */
+    private static final Set<String> VALID_ARCHIVES = new HashSet<>();
+
+    private final IArtifactStore delegate;
+    private final IDownloadConfig downloadConfig;
+    private final IDirectory extractDir;
+    private final VaultPackageResolver packageResolver;
+
+    VaultVerifyingArtifactStore(IArtifactStore delegate,
+        IDownloadConfig downloadConfig, IDirectory extractDir)
+    {
+        this.delegate = requireNonNull(delegate, "delegate may not be null");
+        this.downloadConfig = requireNonNull(downloadConfig, "downloadConfig may not be null");
+        this.extractDir = requireNonNull(extractDir, "extractDir may not be null");
+        this.packageResolver = new VaultPackageResolver();
+    }
+
+    @Override
+    public boolean checkDistribution(Distribution distribution)
+        throws IOException
+    {
+        if (!delegate.checkDistribution(distribution)) {
+            return false;
+        }
+        if (verify(distribution)) {
+            return true;
+        }
+        // Discard the corrupt archive and everything extracted from it
+        // and try to download it once again.
+        discard(distribution);
+        if (!delegate.checkDistribution(distribution)) {
+            return false;
+        }
+        if (!verify(distribution)) {
+            discard(distribution);
+            throw new IOException("The checksum of " + archiveOf(distribution)
+                + " does not match the published checksum");
+        }
+        return true;
+    }
+
+    @Override
+    public IExtractedFileSet extractFileSet(Distribution distribution)
+        throws IOException
+    {
+        return delegate.extractFileSet(distribution);
+    }
+
+    @Override
+    public void removeFileSet(Distribution distribution,
+        IExtractedFileSet files)
+    {
+        delegate.removeFileSet(distribution, files);
+    }
+
+    private boolean verify(Distribution distribution) throws IOException {
+        File archive = archiveOf(distribution);
+        String key = packageResolver.getPath(distribution);
+        String stamp = archive.length() + ":" + archive.lastModified();
+        synchronized (VaultVerifyingArtifactStore.class) {
+            Properties index = readIndex();
+            String indexed = index.getProperty(key);
+            if (indexed != null && indexed.endsWith(':' + stamp)) {
+                return true;
+            }
+            String expected = readChecksums(distribution).get(archive.getName());
+            if (expected == null) {
+                String validated = archive.getPath() + ':' + stamp;
+                if (VALID_ARCHIVES.contains(validated)) {
+                    return true;
+                }
+                if (!isValidZip(archive)) {
+                    return false;
+                }
+                IProgressListener progress = downloadConfig.getProgressListener();
+                progress.info("Verify " + distribution,
+                    "No published checksum found for " + archive.getName()
+                    + ", only the integrity of the archive was checked");
+                VALID_ARCHIVES.add(validated);
+                return true;
+            }
+            String actual = sha256(archive);
+            if (!expected.equalsIgnoreCase(actual)) {
+                return false;
+            }
+            index.setProperty(key, actual + ':' + stamp);
+            writeIndex(index);
+            return true;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the file is a complete ZIP file and the
+     * checksums of all entries match their content.
+     */
+    static boolean isValidZip(File file) {
+        try (ZipFile zip = new ZipFile(file)) {
+            if (zip.size() == 0) {
+                return false;
+            }
+        } catch (IOException e) {
+            // The central directory is missing or damaged.
+            return false;
+        }
+        // Unlike ZipFile, ZipInputStream compares the checksum of every
+        // entry with its content.
+        byte[] buffer = new byte[64 * 1024];
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(file))) {
+            while (in.getNextEntry() != null) {
+                while (in.read(buffer) != -1) {
+                    // Only the checksum matters.
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void discard(Distribution distribution) throws IOException {
+        Files.deleteIfExists(archiveOf(distribution).toPath());
+        File extracted = VaultReusingArtifactStore.extractedDirOf(
+            extractDir, distribution);
+        // Remove the marker first, so nobody picks up a half deleted
+        // executable.
+        Files.deleteIfExists(new File(extracted,
+            VaultReusingArtifactStore.MARKER_FILE_NAME).toPath());
+        File[] files = extracted.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private File archiveOf(Distribution distribution) {
+        return new File(downloadConfig.getArtifactStorePath().asFile(),
+            packageResolver.getPath(distribution));
+    }
+
+    /**
+     * Returns the published checksums of all archives of the given version
+     * keyed by the archive name.
+     */
+    private Map<String, String> readChecksums(Distribution distribution)
+        throws IOException
+    {
+        String path = packageResolver.getChecksumsPath(distribution);
+        File file = new File(
+            downloadConfig.getArtifactStorePath().asFile(), path);
+        if (!file.isFile()) {
+            String url = downloadConfig.getDownloadPath().getPath(distribution)
+                + path;
+            if (UNAVAILABLE_CHECKSUMS.contains(url)) {
+                return new HashMap<>();
+            }
+            try {
+                download(url, file);
+            } catch (IOException e) {
+                UNAVAILABLE_CHECKSUMS.add(url);
+                return new HashMap<>();
+            }
+        }
+        Map<String, String> checksums = new HashMap<>();
+        try (
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))
+        ) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int i = line.indexOf(' ');
+                if (i > 0) {
+                    checksums.put(line.substring(i).trim(), line.substring(0, i));
+                }
+            }
+        }
+        return checksums;
+    }
+
+    private void download(String url, File file) throws IOException {
+        Proxy proxy = downloadConfig.proxyFactory().createProxy();
+        URLConnection connection = proxy != null
+            ? new URL(url).openConnection(proxy)
+            : new URL(url).openConnection();
+        connection.setRequestProperty("User-Agent", downloadConfig.getUserAgent());
+        connection.setConnectTimeout(
+            downloadConfig.getTimeoutConfig().getConnectionTimeout());
+        connection.setReadTimeout(
+            downloadConfig.getTimeoutConfig().getReadTimeout());
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (InputStream in = connection.getInputStream()) {
+            Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Properties readIndex() throws IOException {
+        Properties index = new Properties();
+        File file = indexFile();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                index.load(in);
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(Properties index) throws IOException {
+        File file = indexFile();
+        File tmp = File.createTempFile(INDEX_FILE_NAME, ".tmp",
+            file.getParentFile());
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            index.store(out, "SHA-256 digests of verified archives");
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File indexFile() {
+        return new File(downloadConfig.getArtifactStorePath().asFile(),
+            INDEX_FILE_NAME);
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(
+            file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAPPING_CHUNK_SIZE) {
+                MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAPPING_CHUNK_SIZE, size - position));
+                digest.update(buffer);
+            }
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
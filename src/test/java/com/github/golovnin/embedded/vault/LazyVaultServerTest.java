@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class LazyVaultServerTest {
+
+    @Test
+    public void testStartOnFirstAccess() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .build();
+        VaultServerProcess process;
+        try (LazyVaultServer server = VaultServerStarter.lazy(config)) {
+            assertFalse(server.isRunning());
+            assertEquals(0, server.getStartCount());
+            String address = server.getAddress();
+            assertTrue(server.isRunning());
+            process = server.getProcess();
+            assertTrue(address.endsWith(":" + process.getConfig().getListenerPort()));
+            assertEquals(config.getRootTokenID(), server.getRootTokenID());
+            assertNotNull(server.getUnsealKey());
+            assertEquals(1, server.getStartCount());
+        }
+        assertFalse(process.isProcessRunning());
+    }
+
+    @Test
+    public void testRestartAfterIdleStop() throws Exception {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .inMemory(true)
+            .build();
+        try (LazyVaultServer server = VaultServerStarter.lazy(
+            config, 100, TimeUnit.MILLISECONDS))
+        {
+            VaultServerProcess first = server.getProcess();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (server.isRunning() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertFalse(first.isProcessRunning());
+            assertEquals(1, server.getIdleStopCount());
+            VaultServerProcess second = server.getProcess();
+            assertNotSame(first, second);
+            assertTrue(second.isProcessRunning());
+            assertEquals(2, server.getStartCount());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .inMemory(true)
+            .build();
+        LazyVaultServer server = VaultServerStarter.lazy(config);
+        server.close();
+        server.getProcess();
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class SharedVaultServerTest {
+
+    @Test
+    public void testSameConfigSharesProcess() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .build();
+        VaultServerProcess process;
+        try (SharedVaultServer first = VaultServerStarter.shared(config)) {
+            process = first.getProcess();
+            assertTrue(process.isProcessRunning());
+            try (SharedVaultServer second = VaultServerStarter.shared(config)) {
+                assertSame(process, second.getProcess());
+                assertEquals(2, second.getReferenceCount());
+            }
+            assertTrue(process.isProcessRunning());
+        }
+        assertFalse(process.isProcessRunning());
+    }
+
+    @Test
+    public void testEquallyBuiltConfigsShareProcess() throws IOException {
+        VaultServerConfig first = new VaultServerConfig.Builder()
+            .randomPort()
+            .build();
+        VaultServerConfig second = new VaultServerConfig.Builder()
+            .randomPort()
+            .build();
+        VaultServerConfig other = new VaultServerConfig.Builder()
+            .randomPort()
+            .rootTokenID("other")
+            .build();
+        try (SharedVaultServer a = VaultServerStarter.shared(first);
+             SharedVaultServer b = VaultServerStarter.shared(second);
+             SharedVaultServer c = VaultServerStarter.shared(other))
+        {
+            assertSame(a.getProcess(), b.getProcess());
+            assertEquals(2, a.getReferenceCount());
+            assertNotSame(a.getProcess(), c.getProcess());
+            assertEquals("other", c.getProcess().getConfig().getRootTokenID());
+        }
+    }
+
+    @Test
+    public void testConcurrentAcquire() throws Exception {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<SharedVaultServer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> VaultServerStarter.shared(config));
+            }
+            List<SharedVaultServer> handles = new ArrayList<>();
+            for (Future<SharedVaultServer> future : executor.invokeAll(tasks)) {
+                handles.add(future.get());
+            }
+            VaultServerProcess process = handles.get(0).getProcess();
+            for (SharedVaultServer handle : handles) {
+                assertSame(process, handle.getProcess());
+            }
+            handles.forEach(SharedVaultServer::close);
+            assertFalse(process.isProcessRunning());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultClientTest {
+
+    private final AtomicInteger drops = new AtomicInteger();
+
+    private HttpServer server;
+    private VaultClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        client = new VaultClient("127.0.0.1", server.getAddress().getPort(),
+            "s.token", 4);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionIsReused() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> response = client.write("echo",
+                Collections.singletonMap("value", "v" + i));
+            assertEquals("v" + i, VaultJson.get(response, "value"));
+            assertEquals("s.token", VaultJson.get(response, "token"));
+        }
+        assertEquals(1, client.getOpenedConnections());
+    }
+
+    @Test
+    public void testChunkedResponse() throws IOException {
+        Map<String, Object> response = client.read("/chunked");
+        assertEquals(1000L, VaultJson.get(response, "count"));
+        client.read("chunked");
+        assertEquals(1, client.getOpenedConnections());
+    }
+
+    @Test
+    public void testMissingPath() throws IOException {
+        assertNull(client.read("missing"));
+        client.delete("echo");
+        assertEquals(1, client.getOpenedConnections());
+    }
+
+    @Test
+    public void testErrorStatus() {
+        try {
+            client.request("POST", "error", Collections.emptyMap());
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HTTP 500"));
+            assertTrue(e.getMessage(), e.getMessage().contains("permission denied"));
+        }
+    }
+
+    @Test
+    public void testOnlyIdempotentRequestsAreRetried() throws IOException {
+        client.delete("echo");
+        try {
+            client.request("POST", "drop", Collections.emptyMap());
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertEquals(1, drops.get());
+
+        client.delete("echo");
+        try {
+            client.read("drop");
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertEquals(3, drops.get());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String body = read(exchange.getRequestBody());
+        String token = exchange.getRequestHeaders().getFirst("X-Vault-Token");
+        if (path.equals("/v1/echo")) {
+            if (body.isEmpty()) {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+                return;
+            }
+            String response = body.substring(0, body.length() - 1)
+                + ",\"token\":" + VaultJson.quote(token) + '}';
+            send(exchange, 200, response, false);
+        } else if (path.equals("/v1/chunked")) {
+            StringBuilder response = new StringBuilder("{\"padding\": \"");
+            for (int i = 0; i < 20000; i++) {
+                response.append('x');
+            }
+            response.append("\", \"count\": 1000}");
+            send(exchange, 200, response.toString(), true);
+        } else if (path.equals("/v1/drop")) {
+            // Closes the connection without a response.
+            drops.incrementAndGet();
+            exchange.close();
+        } else if (path.equals("/v1/error")) {
+            send(exchange, 500, "{\"errors\": [\"permission denied\"]}", false);
+        } else {
+            send(exchange, 404, "{\"errors\": []}", false);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body,
+        boolean chunked) throws IOException
+    {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, chunked ? 0 : content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultClusterTest {
+
+    @Test
+    public void testStartCluster() throws IOException {
+        VaultClusterStarter starter = VaultClusterStarter.getDefaultInstance();
+        try (VaultCluster cluster = starter.start(3)) {
+            List<VaultServerProcess> nodes = cluster.getNodes();
+            assertEquals(3, nodes.size());
+            assertSame(nodes.get(0), cluster.getLeader());
+            assertEquals(VaultCluster.apiAddressOf(nodes.get(0)),
+                cluster.getLeaderAddress());
+            assertEquals(nodes.subList(1, 3), cluster.getFollowers());
+            assertEquals(2, cluster.getFollowerAddresses().size());
+            assertNotNull(cluster.getUnsealKey());
+            for (VaultServerProcess node : nodes) {
+                assertTrue(node.isProcessRunning());
+                assertEquals(cluster.getRootTokenID(),
+                    node.getStartupInfo().getRootToken());
+                assertEquals(cluster.getUnsealKey(), node.getUnsealKey());
+                assertTrue(node.getConfig().getStorage().isRaft());
+            }
+            assertNotEquals(nodes.get(1).getConfig().getClusterPort(),
+                nodes.get(2).getConfig().getClusterPort());
+        }
+    }
+
+    @Test
+    public void testFailover() throws IOException {
+        VaultClusterStarter starter = VaultClusterStarter.getDefaultInstance();
+        try (VaultCluster cluster = starter.start(2)) {
+            VaultServerProcess leader = cluster.getLeader();
+            cluster.stop(leader);
+            VaultServerProcess newLeader =
+                cluster.awaitLeader(10, TimeUnit.SECONDS);
+            assertNotSame(leader, newLeader);
+            assertSame(cluster.getNodes().get(1), newLeader);
+            assertTrue(cluster.getFollowers().isEmpty());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testNodeWhichCannotJoinIsKilled() throws IOException {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        int port = VaultPortAllocator.allocate(address);
+        int leaderPort = VaultPortAllocator.allocate(address);
+        File dataDir = Files.createTempDirectory("embedded-vault-raft").toFile();
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .version(VaultClusterStarter.DEFAULT_VERSION)
+            .listenerHost(address.getHostAddress())
+            .listenerPort(port)
+            .clusterPort(port + 1)
+            .storage(VaultStorage.raft(dataDir.getAbsolutePath(), "node-1"))
+            .raftJoin(new VaultRaftJoin(
+                "http://127.0.0.1:" + leaderPort, "key"))
+            .startupTimeout(2, TimeUnit.SECONDS)
+            .build();
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(config);
+        try {
+            executable.start();
+            fail("The node has joined a cluster without a leader");
+        } catch (IOException expected) {
+            // expected
+        } finally {
+            executable.stop();
+            VaultFixture.delete(dataDir.toPath());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRaftJoinRequiresRaftStorage() {
+        new VaultServerConfig.Builder()
+            .raftJoin(new VaultRaftJoin("http://127.0.0.1:8200", "key"))
+            .build();
+    }
+
+}
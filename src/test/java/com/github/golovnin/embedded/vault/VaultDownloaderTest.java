@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.flapdoodle.embed.process.config.store.DownloadConfigBuilder;
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
+import de.flapdoodle.embed.process.distribution.BitSize;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.directories.FixedPath;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+import de.flapdoodle.embed.process.store.ArtifactStore;
+import de.flapdoodle.embed.process.store.IDownloader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultDownloaderTest {
+
+    private static final byte[] ARCHIVE = new byte[3 * 1024 * 1024 + 17];
+
+    static {
+        new Random(42).nextBytes(ARCHIVE);
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Distribution distribution =
+        new Distribution(VaultVersion.V0_11_1, Platform.Linux, BitSize.B64);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
+    private volatile boolean rangesSupported = true;
+    private volatile int dropAfterBytes = Integer.MAX_VALUE;
+    private volatile long budget = Long.MAX_VALUE;
+
+    private HttpServer server;
+    private IDownloadConfig downloadConfig;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        downloadConfig = new DownloadConfigBuilder()
+            .fileNaming(new UUIDTempNaming())
+            .downloadPath("http://127.0.0.1:" + server.getAddress().getPort() + "/")
+            .progressListener(new StandardConsoleProgressListener())
+            .artifactStorePath(new FixedPath(folder.newFolder("store").getAbsolutePath()))
+            .downloadPrefix("embedded-vault-download")
+            .packageResolver(new VaultPackageResolver())
+            .userAgent("test")
+            .build();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testParallelDownloadWithDroppedConnections() throws IOException {
+        dropAfterBytes = 256 * 1024;
+        RecordingListener listener = new RecordingListener();
+        File file = new VaultDownloader(4, listener).download(downloadConfig, distribution);
+        assertArrayEquals(ARCHIVE, Files.readAllBytes(file.toPath()));
+        assertTrue(requests.get() > 4);
+        assertEquals(ARCHIVE.length, listener.completedBytes.get());
+        assertFalse(new File(file.getPath() + ".part.state").exists());
+    }
+
+    @Test
+    public void testConcurrentDownloadsOfSameArchive() throws Exception {
+        VaultDownloader downloader = new VaultDownloader(4, new RecordingListener());
+        CountDownLatch entered = new CountDownLatch(2);
+        // Both stores must miss the archive before one of them downloads it.
+        IDownloader gate = new IDownloader() {
+
+            @Override
+            public String getDownloadUrl(IDownloadConfig config,
+                Distribution distribution)
+            {
+                return downloader.getDownloadUrl(config, distribution);
+            }
+
+            @Override
+            public File download(IDownloadConfig config,
+                Distribution distribution) throws IOException
+            {
+                entered.countDown();
+                try {
+                    entered.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return downloader.download(config, distribution);
+            }
+
+        };
+        File tempDir = folder.newFolder("temp");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(executor.submit(() -> new ArtifactStore(
+                    downloadConfig, new FixedPath(tempDir.getAbsolutePath()),
+                    new UUIDTempNaming(), gate).checkDistribution(distribution)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        File target = new File(downloadConfig.getArtifactStorePath().asFile(),
+            downloadConfig.getPackageResolver().getPath(distribution));
+        assertArrayEquals(ARCHIVE, Files.readAllBytes(target.toPath()));
+        assertEquals(ARCHIVE.length, bytesServed.get());
+        assertFalse(new File(target.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void testResumeInterruptedDownload()
+        throws IOException, InterruptedException
+    {
+        budget = ARCHIVE.length / 2;
+        try {
+            new VaultDownloader(4, new RecordingListener()).download(downloadConfig, distribution);
+            fail("The download must fail");
+        } catch (IOException expected) {
+            // The server stopped serving bytes.
+        }
+        awaitIdleServer();
+
+        budget = Long.MAX_VALUE;
+        bytesServed.set(0);
+        RecordingListener listener = new RecordingListener();
+        File file = new VaultDownloader(4, listener).download(downloadConfig, distribution);
+        assertArrayEquals(ARCHIVE, Files.readAllBytes(file.toPath()));
+        assertTrue(listener.resumedBytes.get() > 0);
+        assertEquals(ARCHIVE.length - listener.resumedBytes.get(), bytesServed.get());
+    }
+
+    @Test
+    public void testServerWithoutRangeSupport() throws IOException {
+        rangesSupported = false;
+        RecordingListener listener = new RecordingListener();
+        File file = new VaultDownloader(4, listener).download(downloadConfig, distribution);
+        assertArrayEquals(ARCHIVE, Files.readAllBytes(file.toPath()));
+        assertEquals(1, requests.get());
+    }
+
+    /**
+     * Waits until the requests of a failed download are completed, so they
+     * do not continue to serve bytes once the budget has been raised.
+     */
+    private void awaitIdleServer() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (activeRequests.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, activeRequests.get());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        activeRequests.incrementAndGet();
+        try {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                if (rangesSupported) {
+                    exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+                }
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Content-Length",
+                    String.valueOf(ARCHIVE.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            requests.incrementAndGet();
+            int start = 0;
+            int end = ARCHIVE.length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (rangesSupported && range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Integer.parseInt(bounds[1]);
+            }
+            if (budget <= 0) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            int length = end - start + 1;
+            exchange.sendResponseHeaders(range != null && rangesSupported ? 206 : 200, length);
+            // Dropping the connection before all bytes are written makes
+            // the server close the socket.
+            int limit = Math.min(length, dropAfterBytes);
+            try (OutputStream out = exchange.getResponseBody()) {
+                int written = 0;
+                while (written < limit && budget > 0) {
+                    int chunk = Math.min(16 * 1024, limit - written);
+                    out.write(ARCHIVE, start + written, chunk);
+                    written += chunk;
+                    budget -= chunk;
+                    bytesServed.addAndGet(chunk);
+                }
+            }
+        } finally {
+            exchange.close();
+            activeRequests.decrementAndGet();
+        }
+    }
+
+    private static final class RecordingListener implements VaultDownloadListener {
+
+        final AtomicLong resumedBytes = new AtomicLong();
+        final AtomicLong completedBytes = new AtomicLong();
+
+        @Override
+        public void onStart(String url, long totalBytes, long resumed) {
+            resumedBytes.set(resumed);
+        }
+
+        @Override
+        public void onComplete(String url, long totalBytes, long bytesPerSecond) {
+            completedBytes.set(totalBytes);
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultFixtureTest {
+
+    private static final String SECRET = "{\"value\":\"seeded\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSeedOnce() throws IOException {
+        AtomicInteger seeds = new AtomicInteger();
+        File baseDir = folder.newFolder("fixtures");
+        VaultFixture fixture = new VaultFixture("test-fixture", process -> {
+            seeds.incrementAndGet();
+            VaultServerConfig config = process.getConfig();
+            assertEquals(204, request(config, "PUT", "/v1/secret/foo", SECRET));
+        }, baseDir);
+
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        for (int i = 0; i < 2; i++) {
+            VaultServerConfig config = new VaultServerConfig.Builder()
+                .randomPort()
+                .fixture(fixture)
+                .build();
+            assertEquals(fixture.getRootTokenID(), config.getRootTokenID());
+            VaultServerExecutable executable = starter.prepare(config);
+            try {
+                VaultServerProcess process = executable.start();
+                assertNotNull(process.getUnsealKey());
+                assertEquals(fixture.getRootTokenID(),
+                    process.getStartupInfo().getRootToken());
+                assertEquals(200, request(config, "GET", "/v1/secret/foo", null));
+            } finally {
+                executable.stop();
+            }
+            assertTrue(fixture.isCached(config.version()));
+        }
+        assertEquals(1, seeds.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRootTokenIsDefinedByFixture() {
+        VaultFixture fixture = new VaultFixture("test-fixture", process -> {});
+        new VaultServerConfig.Builder()
+            .fixture(fixture)
+            .rootTokenID("other")
+            .build();
+    }
+
+    private static int request(VaultServerConfig config, String method,
+        String path, String body) throws IOException
+    {
+        URL url = new URL("http", config.getListenerHost(),
+            config.getListenerPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("X-Vault-Token", config.getRootTokenID());
+            if (body != null) {
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            if (status == 200) {
+                try (InputStream in = connection.getInputStream()) {
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[512];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        content.write(buffer, 0, read);
+                    }
+                    assertTrue(content.toString("UTF-8").contains("seeded"));
+                }
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+}
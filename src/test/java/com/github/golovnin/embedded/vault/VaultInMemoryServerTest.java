@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.github.golovnin.embedded.vault.VaultLoadProfile.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultInMemoryServerTest {
+
+    private static VaultServerConfig inMemoryConfig() {
+        return new VaultServerConfig.Builder()
+            .randomPort()
+            .inMemory(true)
+            .build();
+    }
+
+    @Test
+    public void testStartAndStop() throws IOException {
+        VaultServerConfig config = inMemoryConfig();
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(config);
+        try {
+            VaultServerProcess process = executable.start();
+            assertTrue(process.isInMemory());
+            assertTrue(process.isProcessRunning());
+            assertNotNull(process.getUnsealKey());
+            assertEquals(config.getRootTokenID(),
+                process.getStartupInfo().getRootToken());
+            assertEquals(0, process.getStartupMetrics().getDownloadNanos());
+            assertTrue(process.getStartupMetrics().getReadinessNanos() > 0);
+
+            Object health = VaultHttp.request(
+                config, "GET", "/v1/sys/health", null, null);
+            assertEquals(Boolean.FALSE, VaultJson.get(health, "sealed"));
+            assertEquals("0.11.1", VaultJson.get(health, "version"));
+
+            process.stop();
+            assertFalse(process.isProcessRunning());
+            try {
+                VaultHttp.request(config, "GET", "/v1/sys/health", null, null);
+                fail("The server is still running");
+            } catch (ConnectException e) {
+                // expected
+            }
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testSecretsEngines() throws IOException {
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(inMemoryConfig());
+        try (VaultClient client = new VaultClient(executable.start())) {
+            // KV version 2 is mounted at secret/ like in the dev mode.
+            client.write("secret/data/app/db",
+                Collections.singletonMap("data",
+                    Collections.singletonMap("password", "s3cr3t")));
+            client.write("secret/data/app/db",
+                Collections.singletonMap("data",
+                    Collections.singletonMap("password", "changed")));
+            Map<String, Object> secret = client.read("secret/data/app/db");
+            assertEquals("changed",
+                VaultJson.get(secret, "data", "data", "password"));
+            assertEquals(2L,
+                VaultJson.get(secret, "data", "metadata", "version"));
+            assertEquals("s3cr3t", VaultJson.get(
+                client.read("secret/data/app/db?version=1"),
+                "data", "data", "password"));
+            assertEquals(Collections.singletonList("db"), VaultJson.get(
+                client.request("LIST", "secret/metadata/app", null),
+                "data", "keys"));
+            client.delete("secret/data/app/db");
+            assertNull(client.read("secret/data/app/db"));
+
+            client.write("sys/mounts/kv", Collections.singletonMap("type", "kv"));
+            client.write("kv/a/b", Collections.singletonMap("value", 1));
+            client.write("kv/c", Collections.singletonMap("value", 2));
+            assertEquals(1L, VaultJson.get(client.read("kv/a/b"), "data", "value"));
+            assertEquals(Arrays.asList("a/", "c"),
+                VaultJson.get(client.read("kv?list=true"), "data", "keys"));
+
+            client.write("sys/mounts/transit",
+                Collections.singletonMap("type", "transit"));
+            String plaintext = Base64.getEncoder().encodeToString(
+                "hello".getBytes(StandardCharsets.UTF_8));
+            String ciphertext = (String) VaultJson.get(client.write(
+                "transit/encrypt/app",
+                Collections.singletonMap("plaintext", plaintext)),
+                "data", "ciphertext");
+            assertTrue(ciphertext, ciphertext.startsWith("vault:v1:"));
+            assertEquals(plaintext, VaultJson.get(client.write(
+                "transit/decrypt/app",
+                Collections.singletonMap("ciphertext", ciphertext)),
+                "data", "plaintext"));
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testTokens() throws IOException {
+        VaultServerConfig config = inMemoryConfig();
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(config);
+        try (VaultClient client = new VaultClient(executable.start())) {
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("policies", Collections.singletonList("app"));
+            request.put("ttl", "1h");
+            String token = (String) VaultJson.get(
+                client.request("POST", "auth/token/create", request),
+                "auth", "client_token");
+            Map<String, Object> lookup = client.request("POST",
+                "auth/token/lookup", Collections.singletonMap("token", token));
+            assertEquals(Arrays.asList("app", "default"),
+                VaultJson.get(lookup, "data", "policies"));
+            assertEquals(3600L, VaultJson.get(lookup, "data", "creation_ttl"));
+
+            try (VaultClient child = new VaultClient(config.getListenerHost(),
+                config.getListenerPort(), token, 1))
+            {
+                assertNotNull(child.read("auth/token/lookup-self"));
+                client.request("POST", "auth/token/revoke",
+                    Collections.singletonMap("token", token));
+                try {
+                    child.read("auth/token/lookup-self");
+                    fail("The token was not revoked");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("403"));
+                }
+            }
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testManyIsolatedInstances() throws IOException {
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        List<VaultServerExecutable> executables = new ArrayList<>();
+        try {
+            long startTime = System.nanoTime();
+            List<VaultServerProcess> processes = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                VaultServerExecutable executable = starter.prepare(inMemoryConfig());
+                executables.add(executable);
+                processes.add(executable.start());
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - startTime);
+            assertTrue("Starting 100 servers took " + elapsedMillis + "ms",
+                elapsedMillis < 10_000);
+
+            try (VaultClient client = new VaultClient(processes.get(0))) {
+                client.write("secret/data/only-here", Collections.singletonMap(
+                    "data", Collections.singletonMap("value", 1)));
+            }
+            try (VaultClient client = new VaultClient(processes.get(1))) {
+                assertNull(client.read("secret/data/only-here"));
+            }
+        } finally {
+            executables.forEach(VaultServerExecutable::stop);
+        }
+    }
+
+    @Test
+    public void testLoadGenerator() throws IOException {
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(inMemoryConfig());
+        try (VaultClient client = new VaultClient(executable.start(), 4)) {
+            VaultLoadGenerator.Report report = new VaultLoadGenerator(client)
+                .run(VaultLoadProfile.defaults()
+                    .concurrency(4)
+                    .duration(500, TimeUnit.MILLISECONDS)
+                    .weight(Operation.KV_READ, 1)
+                    .weight(Operation.KV_WRITE, 1)
+                    .weight(Operation.TRANSIT_ENCRYPT, 1)
+                    .weight(Operation.TOKEN_CREATE, 1)
+                    .weight(Operation.TOKEN_LOOKUP, 1));
+            for (Operation operation : Operation.values()) {
+                VaultLoadGenerator.Result result = report.getResult(operation);
+                assertTrue(operation + ": " + result.getFirstError(),
+                    result.getErrors() == 0 && result.getCount() > 0);
+            }
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStorageIsRejected() {
+        new VaultServerConfig.Builder()
+            .inMemory(true)
+            .fileStorage("/tmp/vault-data")
+            .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAttachOrStartIsRejected() throws IOException {
+        VaultServerStarter.attachOrStart(inMemoryConfig());
+    }
+
+}
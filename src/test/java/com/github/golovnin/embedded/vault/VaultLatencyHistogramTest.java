@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultLatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        long previous = -1;
+        for (int i = 0; i <= VaultLatencyHistogram.indexOf(VaultLatencyHistogram.MAX_VALUE); i++) {
+            long highest = VaultLatencyHistogram.highestEquivalentValue(i);
+            assertEquals(i, VaultLatencyHistogram.indexOf(previous + 1));
+            assertEquals(i, VaultLatencyHistogram.indexOf(highest));
+            assertTrue(highest > previous);
+            previous = highest;
+        }
+        assertEquals(VaultLatencyHistogram.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void testPercentiles() {
+        VaultLatencyHistogram histogram = new VaultLatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.recordValue(i * 1000);
+        }
+        assertEquals(10000, histogram.getTotalCount());
+        assertEquals(10_000_000, histogram.getMaxValue());
+        assertEquals(5_000_500.0, histogram.getMean(), 0.1);
+        assertWithinPrecision(5_000_000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(9_900_000, histogram.getValueAtPercentile(99));
+        assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+        assertEquals(0, new VaultLatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testCoordinatedOmissionCorrection() {
+        VaultLatencyHistogram histogram = new VaultLatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.recordValueWithExpectedInterval(100, 100);
+        }
+        // A stall of 10000 hides 99 requests in a closed loop.
+        histogram.recordValueWithExpectedInterval(10_000, 100);
+        assertEquals(199, histogram.getTotalCount());
+        assertWithinPrecision(5_100, histogram.getValueAtPercentile(75));
+
+        VaultLatencyHistogram raw = new VaultLatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            raw.recordValue(100);
+        }
+        raw.recordValue(10_000);
+        assertEquals(100, raw.getValueAtPercentile(75));
+        VaultLatencyHistogram corrected = raw.copyCorrectedForCoordinatedOmission(100);
+        assertEquals(histogram.getTotalCount(), corrected.getTotalCount());
+        assertWithinPrecision(histogram.getValueAtPercentile(75),
+            corrected.getValueAtPercentile(75));
+    }
+
+    @Test
+    public void testAdd() {
+        VaultLatencyHistogram a = new VaultLatencyHistogram();
+        VaultLatencyHistogram b = new VaultLatencyHistogram();
+        a.recordValue(10);
+        b.recordValue(1_000_000);
+        a.add(b);
+        assertEquals(2, a.getTotalCount());
+        assertEquals(1_000_000, a.getMaxValue());
+        assertEquals(10, a.getValueAtPercentile(50));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertEquals(expected, actual, expected / 100.0);
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.golovnin.embedded.vault.VaultLoadProfile.Operation;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultLoadGeneratorTest {
+
+    private static VaultServerExecutable executable;
+    private static VaultServerProcess process;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .build();
+        executable = VaultServerStarter.getDefaultInstance().prepare(config);
+        process = executable.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        executable.stop();
+    }
+
+    @Test
+    public void testClosedLoop() throws IOException {
+        VaultLoadProfile profile = VaultLoadProfile.defaults()
+            .concurrency(4)
+            .duration(1, TimeUnit.SECONDS)
+            .warmup(200, TimeUnit.MILLISECONDS)
+            .weight(Operation.KV_READ, 4)
+            .weight(Operation.KV_WRITE, 1)
+            .weight(Operation.TRANSIT_ENCRYPT, 1)
+            .weight(Operation.TOKEN_CREATE, 1)
+            .weight(Operation.TOKEN_LOOKUP, 1);
+        try (VaultClient client = new VaultClient(process, 4)) {
+            VaultLoadGenerator.Report report =
+                new VaultLoadGenerator(client).run(profile);
+            assertEquals(5, report.getResults().size());
+            for (VaultLoadGenerator.Result result : report.getResults().values()) {
+                assertEquals(String.valueOf(result.getFirstError()),
+                    0, result.getErrors());
+                assertTrue(result.getCount() > 0);
+                assertTrue(result.getLatency().getTotalCount() >= result.getCount());
+                assertTrue(result.getLatency().getValueAtPercentile(50)
+                    <= result.getLatency().getValueAtPercentile(99.9));
+            }
+            assertTrue(report.getResult(Operation.KV_READ).getCount()
+                > report.getResult(Operation.KV_WRITE).getCount());
+            assertTrue(report.toString(), report.toString().contains("TOKEN_LOOKUP"));
+            assertTrue(client.getOpenedConnections() <= 4);
+        }
+    }
+
+    @Test
+    public void testFixedRate() throws IOException {
+        VaultLoadProfile profile = VaultLoadProfile.defaults()
+            .concurrency(2)
+            .rate(200)
+            .duration(1, TimeUnit.SECONDS)
+            .kvEngine("secret", 1)
+            .weight(Operation.KV_WRITE, 1);
+        try (VaultClient client = new VaultClient(process, 2)) {
+            VaultLoadGenerator.Result result = new VaultLoadGenerator(client)
+                .run(profile).getResult(Operation.KV_WRITE);
+            assertEquals(0, result.getErrors());
+            assertTrue(String.valueOf(result.getCount()),
+                result.getCount() >= 150 && result.getCount() <= 200);
+            assertEquals(result.getCount(), result.getLatency().getTotalCount());
+        }
+    }
+
+}
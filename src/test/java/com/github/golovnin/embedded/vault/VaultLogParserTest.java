@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultLogParserTest {
+
+    private final List<VaultLogEvent> events = new ArrayList<>();
+    private final VaultLogParser parser = new VaultLogParser(events::add);
+
+    @Test
+    public void testSimpleLine() {
+        parser.accept("2018-09-20T10:15:30.123+0200 [INFO]  core: security barrier not initialized\n");
+        VaultLogEvent event = single();
+        assertEquals("2018-09-20T10:15:30.123+0200", event.getTimestamp());
+        assertEquals(VaultLogLevel.INFO, event.getLevel());
+        assertEquals("core", event.getSubsystem());
+        assertTrue(event.isSubsystem("core"));
+        assertFalse(event.isSubsystem("cor"));
+        assertEquals("security barrier not initialized", event.getMessage());
+        assertEquals(0, event.getKeyValueCount());
+    }
+
+    @Test
+    public void testKeyValues() {
+        parser.accept("2018-09-20T10:15:30.123+0200 [DEBUG] core.cluster-listener: "
+            + "starting listener: listener_address=127.0.0.1:8201 "
+            + "path=\"sys/mounts: \\\"a b\\\"\" ok=true\n");
+        VaultLogEvent event = single();
+        assertEquals(VaultLogLevel.DEBUG, event.getLevel());
+        assertEquals("core.cluster-listener", event.getSubsystem());
+        assertEquals("starting listener", event.getMessage());
+        assertEquals(3, event.getKeyValueCount());
+        assertEquals("listener_address", event.getKey(0));
+        assertEquals("127.0.0.1:8201", event.getValue(0));
+        assertEquals("sys/mounts: \"a b\"", event.getValue("path"));
+        assertEquals("true", event.getValue("ok"));
+        assertNull(event.getValue("missing"));
+    }
+
+    @Test
+    public void testMessageWithoutSubsystem() {
+        parser.accept("2018-09-20T10:15:30.123+0200 [WARN]  proxy environment: http_proxy= https_proxy=\n");
+        VaultLogEvent event = single();
+        assertEquals(VaultLogLevel.WARN, event.getLevel());
+        assertEquals("", event.getSubsystem());
+        assertEquals("proxy environment", event.getMessage());
+        assertEquals("", event.getValue("http_proxy"));
+    }
+
+    @Test
+    public void testLegacyFormat() {
+        parser.accept("2018/01/05 10:15:30.123456 [ERROR] core: failed: error=\"boom\"\r\n");
+        VaultLogEvent event = single();
+        assertEquals("2018/01/05 10:15:30.123456", event.getTimestamp());
+        assertEquals(VaultLogLevel.ERR, event.getLevel());
+        assertEquals("failed", event.getMessage());
+        assertEquals("boom", event.getValue("error"));
+    }
+
+    @Test
+    public void testLinesSplitAcrossBlocks() {
+        parser.accept("==> Vault server started! Log data will stream in below:\n\n2018-09-20T10:15:30");
+        parser.accept(".123+0200 [TRACE] core: a\n2018-09-20T10:15:30.124+0200 [INFO]  core: b\n2018");
+        assertEquals(2, events.size());
+        assertEquals("a", events.get(0).getMessage());
+        assertEquals(VaultLogLevel.TRACE, events.get(0).getLevel());
+        assertEquals("b", events.get(1).getMessage());
+    }
+
+    @Test
+    public void testNonLogLines() {
+        parser.accept("Unseal Key: abc\n2018 is not a log line\n"
+            + "2018-09-20T10:15:30.123+0200 [FATAL] core: unknown level\n");
+        assertTrue(events.isEmpty());
+    }
+
+    private VaultLogEvent single() {
+        assertEquals(1, events.size());
+        return events.get(0);
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.io.IStreamProcessor;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultOutputPipelineTest {
+
+    private static final IStreamProcessor NOP = new IStreamProcessor() {
+
+        @Override
+        public void process(String block) {
+            // NOP
+        }
+
+        @Override
+        public void onProcessed() {
+            // NOP
+        }
+
+    };
+
+    @Test
+    public void testBlockPolicyDeliversEverything() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(100);
+        List<String> blocks = Collections.synchronizedList(new ArrayList<>());
+        VaultOutputPipeline pipeline =
+            new VaultOutputPipeline(2, VaultOutputOverflow.BLOCK);
+        IStreamProcessor stream = pipeline.connect(NOP, block -> {
+            blocks.add(block);
+            delivered.countDown();
+        });
+        for (int i = 0; i < 100; i++) {
+            stream.process("line " + i + '\n');
+        }
+        stream.onProcessed();
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals("line 99\n", blocks.get(99));
+        assertEquals(0, pipeline.getDroppedLines());
+    }
+
+    @Test
+    public void testDropPolicyDoesNotBlockReader() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        VaultOutputPipeline pipeline =
+            new VaultOutputPipeline(2, VaultOutputOverflow.DROP);
+        IStreamProcessor stream = pipeline.connect(NOP, block -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            stream.process("a\nb\n");
+        }
+        release.countDown();
+        stream.onProcessed();
+        // One block is taken by the consumer, two wait in the queue.
+        assertTrue(pipeline.getDroppedBlocks() >= 7);
+        assertEquals(2 * pipeline.getDroppedBlocks(), pipeline.getDroppedLines());
+    }
+
+    @Test
+    public void testRecentOutputKeepsTail() {
+        VaultRecentOutput output = new VaultRecentOutput(8);
+        output.append("abc");
+        assertEquals("abc", output.toString());
+        output.append("defgh");
+        assertEquals("abcdefgh", output.toString());
+        output.append("ij");
+        assertEquals("cdefghij", output.toString());
+        output.append("0123456789");
+        assertEquals("23456789", output.toString());
+    }
+
+    @Test
+    public void testLogWatchFindsMessageSplitAcrossBlocks() {
+        VaultLogWatch watch = new VaultLogWatch("==> Vault server started!",
+            Collections.singleton("Error "), NOP);
+        watch.process("==> Vault ser");
+        watch.process("ver started! Log data will stream in below:\n");
+        assertTrue(watch.isInitWithSuccess());
+        assertNull(watch.getFailureFound());
+    }
+
+    @Test
+    public void testLogWatchReportsFailure() {
+        VaultLogWatch watch = new VaultLogWatch("==> Vault server started!",
+            Collections.singleton("Error "), NOP);
+        watch.process("Err");
+        watch.process("or initializing listener\n");
+        assertFalse(watch.isInitWithSuccess());
+        assertEquals("Error initializing listener\n", watch.getFailureFound());
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultPortAllocatorTest {
+
+    @Test
+    public void testAllocate() throws IOException {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        Set<Integer> ports = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            int port = VaultPortAllocator.allocate(address);
+            assertTrue(ports.add(port));
+            assertTrue(ports.add(port + 1));
+        }
+    }
+
+    @Test
+    public void testRetryOnBindFailure() throws IOException {
+        assertRetryOnBindFailure(false);
+    }
+
+    @Test
+    public void testRetryOnBindFailureInMemory() throws IOException {
+        assertRetryOnBindFailure(true);
+    }
+
+    @Test(expected = BindException.class)
+    public void testNoRetryForFixedPort() throws IOException {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress(address, 0));
+            VaultServerConfig config = new VaultServerConfig.Builder()
+                .listenerPort(socket.getLocalPort())
+                .inMemory(true)
+                .build();
+            VaultServerExecutable executable =
+                VaultServerStarter.getDefaultInstance().prepare(config);
+            try {
+                executable.start();
+            } finally {
+                executable.stop();
+            }
+        }
+    }
+
+    private static void assertRetryOnBindFailure(boolean inMemory)
+        throws IOException
+    {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .inMemory(inMemory)
+            .build();
+        assertTrue(config.isRandomPort());
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress(
+                config.getListenerHost(), config.getListenerPort()));
+            VaultServerExecutable executable =
+                VaultServerStarter.getDefaultInstance().prepare(config);
+            try {
+                long startTime = System.nanoTime();
+                VaultServerProcess process = executable.start();
+                long startNanos = System.nanoTime() - startTime;
+                assertTrue(process.isProcessRunning());
+                assertNotEquals(config.getListenerPort(),
+                    process.getConfig().getListenerPort());
+                // The bind failure must not cost the startup timeout.
+                assertTrue(startNanos < config.getStartupTimeout() * 1_000_000L / 2);
+            } finally {
+                executable.stop();
+            }
+        }
+    }
+
+}
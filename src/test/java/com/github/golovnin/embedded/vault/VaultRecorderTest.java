@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static VaultServerConfig config() {
+        return new VaultServerConfig.Builder()
+            .randomPort()
+            .inMemory(true)
+            .build();
+    }
+
+    private static void exercise(String host, int port, String token)
+        throws IOException
+    {
+        try (VaultClient client = new VaultClient(host, port, token, 2)) {
+            client.write("secret/data/app", Collections.singletonMap("data",
+                Collections.singletonMap("password", "first")));
+            client.write("secret/data/app", Collections.singletonMap("data",
+                Collections.singletonMap("password", "second")));
+            Map<String, Object> secret = client.read("secret/data/app");
+            assertEquals("second",
+                VaultJson.get(secret, "data", "data", "password"));
+            assertEquals(2L,
+                VaultJson.get(secret, "data", "metadata", "version"));
+            assertNull(client.read("secret/data/missing"));
+        }
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("app.vaultrec");
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(config());
+        try {
+            VaultServerProcess process = executable.start();
+            try (VaultRecorder recorder = VaultRecorder.start(process, file)) {
+                exercise(recorder.getListenerHost(),
+                    recorder.getListenerPort(), recorder.getRootTokenID());
+                assertEquals(4, recorder.getRecordedExchanges());
+                recorder.save();
+            }
+        } finally {
+            executable.stop();
+        }
+        assertTrue(Files.isRegularFile(file));
+
+        try (VaultReplayServer replay = VaultReplayServer.start(file)) {
+            assertEquals("0.11.1", replay.getVaultVersion());
+            assertEquals(4, replay.getRecordedExchanges());
+            // Replay twice, the last response is repeated.
+            exercise(replay.getListenerHost(), replay.getListenerPort(),
+                replay.getRootTokenID());
+            exercise(replay.getListenerHost(), replay.getListenerPort(),
+                "another-token");
+            assertEquals(0, replay.getUnmatchedRequests());
+
+            try (VaultClient client = new VaultClient(replay.getListenerHost(),
+                replay.getListenerPort(), null, 1))
+            {
+                assertNull(client.read("secret/data/not-recorded"));
+            }
+            assertEquals(1, replay.getUnmatchedRequests());
+        }
+    }
+
+    @Test
+    public void testRecordOrReplay() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        String rootTokenID;
+        try (VaultRecording vault = VaultRecording.open(dir, "app", config())) {
+            assertFalse(vault.isReplay());
+            rootTokenID = vault.getRootTokenID();
+            exercise(vault.getListenerHost(), vault.getListenerPort(),
+                rootTokenID);
+            vault.save();
+        }
+        try (VaultRecording vault = VaultRecording.open(dir, "app", config())) {
+            assertTrue(vault.isReplay());
+            assertEquals(rootTokenID, vault.getRootTokenID());
+            assertEquals(dir.resolve("app-0.11.1.vaultrec"), vault.getFile());
+            exercise(vault.getListenerHost(), vault.getListenerPort(),
+                vault.getRootTokenID());
+        }
+    }
+
+    @Test
+    public void testUnsavedRecordingIsDiscarded() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (VaultRecording vault = VaultRecording.open(dir, "app", config())) {
+            assertFalse(vault.isReplay());
+            try (VaultClient client = new VaultClient(vault.getListenerHost(),
+                vault.getListenerPort(), vault.getRootTokenID(), 1))
+            {
+                client.write("secret/data/app", Collections.singletonMap(
+                    "data", Collections.singletonMap("password", "first")));
+            }
+        }
+        try (VaultRecording vault = VaultRecording.open(dir, "app", config())) {
+            assertFalse(vault.isReplay());
+        }
+        assertFalse(Files.exists(dir.resolve("app-0.11.1.vaultrec")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRecording() throws IOException {
+        Path file = folder.newFile("invalid.vaultrec").toPath();
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6});
+        VaultReplayServer.start(file).close();
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import de.flapdoodle.embed.process.runtime.Network;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultSeederTest {
+
+    private static VaultServerExecutable executable;
+    private static VaultServerProcess process;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .build();
+        executable = VaultServerStarter.getDefaultInstance().prepare(config);
+        process = executable.start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        executable.stop();
+    }
+
+    @Test
+    public void testSeedStream() throws IOException {
+        AtomicInteger seeded = new AtomicInteger();
+        try (VaultClient client = new VaultClient(process, 4)) {
+            VaultSeeder seeder = new VaultSeeder(client, 4, 16,
+                (item, latencyNanos) -> seeded.incrementAndGet());
+            VaultSeeder.Report report = seeder.seed(IntStream.range(0, 2000)
+                .mapToObj(i -> VaultSeeder.Item.secret("secret/item-" + i,
+                    Collections.singletonMap("value", i))));
+            assertEquals(2000, report.getItems());
+            assertEquals(2000, seeded.get());
+            assertTrue(report.getItemsPerSecond() > 0);
+            assertTrue(report.getLatencyNanos(50) <= report.getLatencyNanos(99));
+            assertTrue(report.getLatencyNanos(99) <= report.getMaxLatencyNanos());
+            assertTrue(client.getOpenedConnections() <= 4);
+            assertEquals(1999L, VaultJson.get(
+                client.read("secret/item-1999"), "data", "value"));
+        }
+    }
+
+    @Test
+    public void testSeedFixtureFile() throws IOException {
+        Path file = folder.newFile("fixture.json").toPath();
+        Files.write(file, (
+            "[\n"
+            + "  {\"type\": \"secret\", \"path\": \"secret/fixture\", \"data\": {\"value\": \"bar\"}},\n"
+            + "  {\"type\": \"policy\", \"name\": \"app\", \"rules\": \"path \\\"secret/*\\\" {}\"},\n"
+            + "  {\"type\": \"role\", \"mount\": \"approle\", \"name\": \"app\", \"data\": {\"policies\": \"app\"}}\n"
+            + "]").getBytes(StandardCharsets.UTF_8));
+        List<VaultSeeder.Item> items = VaultSeeder.readFixture(file);
+        assertEquals("sys/policy/app", items.get(1).getPath());
+        assertEquals("auth/approle/role/app", items.get(2).getPath());
+        try (VaultClient client = new VaultClient(process)) {
+            assertEquals(3, new VaultSeeder(client).seed(file).getItems());
+            assertEquals("bar", VaultJson.get(
+                client.read("secret/fixture"), "data", "value"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidFixtureFile() throws IOException {
+        Path file = folder.newFile("invalid.json").toPath();
+        Files.write(file, "[{\"type\": \"unknown\"}]".getBytes(StandardCharsets.UTF_8));
+        VaultSeeder.readFixture(file);
+    }
+
+    @Test
+    public void testSeedingStopsAtFirstFailure() throws IOException {
+        int port = Network.getFreeServerPort(InetAddress.getByName("127.0.0.1"));
+        try (VaultClient client = new VaultClient("127.0.0.1", port, null, 2)) {
+            new VaultSeeder(client).seed(IntStream.range(0, 100000)
+                .mapToObj(i -> VaultSeeder.Item.secret("secret/item-" + i,
+                    Collections.singletonMap("value", i))));
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Could not seed"));
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultServerConfigTest {
+
+    @Test
+    public void testDevModeJson() {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .clusterName("my \"cluster\"\\\n")
+            .build();
+        assertTrue(config.isDevMode());
+        Object json = VaultJson.parse(config.toJson());
+        assertEquals("my \"cluster\"\\\n", VaultJson.get(json, "cluster_name"));
+        assertEquals("768h", VaultJson.get(json, "max_lease_ttl"));
+        assertEquals(Boolean.TRUE, VaultJson.get(json, "disable_mlock"));
+        assertNull(VaultJson.get(json, "storage"));
+        assertNull(VaultJson.get(json, "listener"));
+    }
+
+    @Test
+    public void testTunedServerJson() {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .listenerHost("127.0.0.1")
+            .listenerPort(8300)
+            .fileStorage("C:\\vault\\data")
+            .listener(VaultListenerConfig.defaults()
+                .maxRequestSize(1024)
+                .maxRequestDuration("30s")
+                .idleTimeout("5m"))
+            .cacheSize(1000)
+            .disableMlock(false)
+            .ui(true)
+            .telemetry(VaultTelemetryConfig.defaults()
+                .statsdAddress("127.0.0.1:8125")
+                .disableHostname(true))
+            .build();
+        assertFalse(config.isDevMode());
+        Object json = VaultJson.parse(config.toJson());
+        assertEquals("C:\\vault\\data", VaultJson.get(json, "storage", "file", "path"));
+        assertEquals("127.0.0.1:8300", VaultJson.get(json, "listener", "tcp", "address"));
+        assertEquals(Boolean.TRUE, VaultJson.get(json, "listener", "tcp", "tls_disable"));
+        assertEquals(1024L, VaultJson.get(json, "listener", "tcp", "max_request_size"));
+        assertEquals("30s", VaultJson.get(json, "listener", "tcp", "max_request_duration"));
+        assertEquals("5m", VaultJson.get(json, "listener", "tcp", "http_idle_timeout"));
+        assertEquals("http://127.0.0.1:8300", VaultJson.get(json, "api_addr"));
+        assertEquals(1000L, VaultJson.get(json, "cache_size"));
+        assertEquals(Boolean.FALSE, VaultJson.get(json, "disable_mlock"));
+        assertEquals(Boolean.TRUE, VaultJson.get(json, "ui"));
+        assertEquals("127.0.0.1:8125", VaultJson.get(json, "telemetry", "statsd_address"));
+        assertNull(VaultJson.get(json, "disable_cache"));
+    }
+
+    @Test
+    public void testRaftStorageJson() {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .listenerPort(8400)
+            .storage(VaultStorage.raft("/tmp/raft", "node-1")
+                .option("performance_multiplier", 1))
+            .build();
+        assertFalse(config.isDevMode());
+        Map<?, ?> json = (Map<?, ?>) VaultJson.parse(config.toJson());
+        assertEquals("node-1", VaultJson.get(json, "storage", "raft", "node_id"));
+        assertEquals(1L, VaultJson.get(json, "storage", "raft", "performance_multiplier"));
+        assertEquals("127.0.0.1:8401", VaultJson.get(json, "listener", "tcp", "cluster_address"));
+        assertEquals("https://127.0.0.1:8401", VaultJson.get(json, "cluster_addr"));
+    }
+
+    @Test
+    public void testUnixSocketJson() {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .unixSocket("/tmp/vault.sock")
+            .listener(VaultListenerConfig.defaults().maxRequestSize(1024))
+            .build();
+        assertFalse(config.isDevMode());
+        Map<?, ?> json = (Map<?, ?>) VaultJson.parse(config.toJson());
+        assertEquals("/tmp/vault.sock", VaultJson.get(json, "listener", "unix", "address"));
+        assertEquals(1024L, VaultJson.get(json, "listener", "unix", "max_request_size"));
+        assertNull(VaultJson.get(json, "listener", "tcp"));
+        assertNull(VaultJson.get(json, "api_addr"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInMemoryUnixSocket() {
+        new VaultServerConfig.Builder()
+            .unixSocket("/tmp/vault.sock")
+            .inMemory(true)
+            .build();
+    }
+
+    @Test
+    public void testParseJson() {
+        Object json = VaultJson.parse(
+            "{\"a\": [1, 2.5, true, null, \"x\\u0041\"], \"b\": {}}");
+        assertEquals(Arrays.asList(1L, 2.5, true, null, "xA"), VaultJson.get(json, "a"));
+        assertTrue(((Map<?, ?>) VaultJson.get(json, "b")).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidJson() {
+        VaultJson.parse("{\"a\": }");
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.runtime.Processes;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultServerLeaseTest {
+
+    private static final String PID_MARKER = "owner-pid=";
+
+    @Test
+    public void testAttachToRunningServer() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .clusterName("lease-test")
+            .build();
+        VaultServerConfig otherConfig = new VaultServerConfig.Builder()
+            .randomPort()
+            .clusterName("lease-test")
+            .build();
+        long pid;
+        try (VaultServerLease first = VaultServerStarter.attachOrStart(config)) {
+            assertTrue(first.isOwner());
+            assertEquals(config.getListenerPort(), first.getListenerPort());
+            assertEquals(config.getRootTokenID(), first.getRootTokenID());
+            pid = first.getProcessId();
+            try (VaultServerLease second = VaultServerStarter.attachOrStart(otherConfig)) {
+                assertEquals(pid, second.getProcessId());
+                assertEquals(first.getListenerPort(), second.getListenerPort());
+                assertEquals(first.getRootTokenID(), second.getRootTokenID());
+            }
+            assertTrue(Processes.isProcessRunning(Platform.detect(), pid));
+        }
+        assertFalse(Processes.isProcessRunning(Platform.detect(), pid));
+    }
+
+    @Test
+    public void testDifferentSettingsAreNotShared() throws IOException {
+        VaultServerConfig plain = new VaultServerConfig.Builder()
+            .randomPort()
+            .clusterName("lease-settings-test")
+            .build();
+        VaultServerConfig tuned = new VaultServerConfig.Builder()
+            .randomPort()
+            .clusterName("lease-settings-test")
+            .cacheSize(4096)
+            .build();
+        try (VaultServerLease first = VaultServerStarter.attachOrStart(plain);
+             VaultServerLease second = VaultServerStarter.attachOrStart(tuned))
+        {
+            assertTrue(second.isOwner());
+            assertNotEquals(first.getProcessId(), second.getProcessId());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRaftIsRejected() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .storage(VaultStorage.raft("/tmp/vault-raft", "node-1"))
+            .build();
+        VaultServerStarter.attachOrStart(config);
+    }
+
+    @Test
+    public void testServerOutlivesOwnerJVM() throws Exception {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .clusterName("lease-owner-test")
+            .build();
+        Process owner = new ProcessBuilder(
+            System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java",
+            "-cp", System.getProperty("java.class.path"),
+            Owner.class.getName(), "lease-owner-test")
+            .redirectErrorStream(true)
+            .start();
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                owner.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null && !line.contains(PID_MARKER)) {
+                // Skip the output of the server.
+            }
+            assertNotNull("The owner JVM did not start the server", line);
+            long pid = Long.parseLong(line.substring(
+                line.indexOf(PID_MARKER) + PID_MARKER.length()).trim());
+            try (VaultServerLease lease = VaultServerStarter.attachOrStart(config)) {
+                assertFalse(lease.isOwner());
+                assertEquals(pid, lease.getProcessId());
+                // Let the owner JVM exit without closing its lease.
+                OutputStream out = owner.getOutputStream();
+                out.write('\n');
+                out.flush();
+                assertTrue(owner.waitFor(30, TimeUnit.SECONDS));
+                // The server logs the requests, its output must not go to
+                // the pipes of the exited owner JVM.
+                try (VaultClient client = new VaultClient(
+                    lease.getListenerHost(), lease.getListenerPort(),
+                    lease.getRootTokenID(), 1))
+                {
+                    for (int i = 0; i < 3; i++) {
+                        client.write("secret/outlives-owner",
+                            Collections.singletonMap("value", i));
+                        assertEquals((long) i, VaultJson.get(
+                            client.read("secret/outlives-owner"), "data", "value"));
+                    }
+                }
+                assertTrue(Processes.isProcessRunning(Platform.detect(), pid));
+            }
+            assertFalse(Processes.isProcessRunning(Platform.detect(), pid));
+        } finally {
+            owner.destroyForcibly();
+        }
+    }
+
+    /**
+     * Starts a shared server and exits on the first line of input.
+     */
+    public static final class Owner {
+
+        public static void main(String[] args) throws IOException {
+            VaultServerConfig config = new VaultServerConfig.Builder()
+                .randomPort()
+                .clusterName(args[0])
+                .build();
+            VaultServerLease lease = VaultServerStarter.attachOrStart(config);
+            System.out.println(PID_MARKER + lease.getProcessId());
+            System.out.flush();
+            new BufferedReader(new InputStreamReader(
+                System.in, StandardCharsets.UTF_8)).readLine();
+            System.exit(0);
+        }
+
+    }
+
+}
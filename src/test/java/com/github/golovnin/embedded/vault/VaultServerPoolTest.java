@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultServerPoolTest {
+
+    @Test
+    public void testAcquireAndRelease() throws IOException {
+        try (VaultServerPool pool = new VaultServerPool(2)) {
+            awaitReady(pool, 2);
+            VaultServerProcess first = pool.acquire();
+            VaultServerProcess second = pool.acquire();
+            assertNotSame(first, second);
+            assertTrue(first.isProcessRunning());
+            assertTrue(second.isProcessRunning());
+            assertNotEquals(
+                first.getConfig().getListenerPort(),
+                second.getConfig().getListenerPort());
+            pool.release(first);
+            pool.release(second);
+
+            VaultServerPool.Statistics statistics = pool.getStatistics();
+            assertEquals(2, statistics.getAcquisitions());
+            assertEquals(2, statistics.getHits());
+            assertEquals(0, statistics.getMisses());
+            assertTrue(statistics.getMaxAcquireNanos() > 0);
+        }
+    }
+
+    @Test
+    public void testCloseStopsLeasedServers() throws IOException {
+        VaultServerProcess process;
+        VaultServerPool pool = new VaultServerPool(1);
+        try {
+            process = pool.acquire();
+            assertTrue(process.isProcessRunning());
+        } finally {
+            pool.close();
+        }
+        assertFalse(process.isProcessRunning());
+        // Releasing after close must not fail.
+        pool.release(process);
+    }
+
+    @Test
+    public void testWarmPoolServesEveryAcquisition() throws IOException {
+        try (VaultServerPool pool = new VaultServerPool(1)) {
+            for (int i = 0; i < 3; i++) {
+                awaitReady(pool, 1);
+                pool.release(pool.acquire());
+            }
+            assertEquals(3, pool.getStatistics().getHits());
+            assertEquals(0, pool.getStatistics().getMisses());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseForeignProcess() throws IOException {
+        try (VaultServerPool pool = new VaultServerPool(1)) {
+            VaultServerProcess process = pool.acquire();
+            pool.release(process);
+            pool.release(process);
+        }
+    }
+
+    private static void awaitReady(VaultServerPool pool, int servers) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (pool.getReadyServers() < servers) {
+            assertTrue("The pool has not started its servers",
+                System.nanoTime() < deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
@@ -30,16 +30,32 @@
 
 package com.github.golovnin.embedded.vault;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import de.flapdoodle.embed.process.config.IRuntimeConfig;
+import de.flapdoodle.embed.process.config.io.ProcessOutput;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.io.file.Files;
+import de.flapdoodle.embed.process.runtime.ICommandLinePostProcessor;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * @author Andrej Golovnin
@@ -55,6 +71,9 @@ public class VaultServerStarterTest {
     @Parameterized.Parameter
     public VaultLogLevel logLevel;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testDefault() throws IOException {
         VaultServerConfig config = new VaultServerConfig.Builder()
@@ -146,6 +165,301 @@ public class VaultServerStarterTest {
         }
     }
 
+    @Test
+    public void testHealthProbeReadiness() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .readiness(VaultReadiness.HEALTH_PROBE)
+            .logLevel(logLevel)
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            VaultServerProcess process = executable.start();
+            assertTrue(process.isProcessRunning());
+            assertTrue(process.getReadinessNanos() > 0);
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testHealthProbeStopsOnSilentExit() {
+        assumeTrue(new File("/bin/sh").canExecute());
+        IRuntimeConfig defaults = VaultBuilders.runtimeConfigBuilder().build();
+        // Replaces Vault by a process, which exits without any output. Its
+        // child keeps the output open, so the end of the output does not
+        // reveal the exit.
+        IRuntimeConfig runtime = new IRuntimeConfig() {
+            @Override
+            public ProcessOutput getProcessOutput() {
+                return defaults.getProcessOutput();
+            }
+
+            @Override
+            public ICommandLinePostProcessor getCommandLinePostProcessor() {
+                return (distribution, commandLine) ->
+                    Arrays.asList("/bin/sh", "-c", "sleep 30 & exit 3");
+            }
+
+            @Override
+            public IArtifactStore getArtifactStore() {
+                return defaults.getArtifactStore();
+            }
+
+            @Override
+            public boolean isDaemonProcess() {
+                return defaults.isDaemonProcess();
+            }
+        };
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .readiness(VaultReadiness.HEALTH_PROBE)
+            .startupTimeout(60, TimeUnit.SECONDS)
+            .logLevel(logLevel)
+            .build();
+        VaultServerExecutable executable =
+            VaultServerStarter.getInstance(runtime).prepare(config);
+        try {
+            executable.start();
+            fail("The server has exited, but was reported as started");
+        } catch (IOException expected) {
+            // expected
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testStartupMetrics() throws IOException {
+        AtomicReference<VaultStartupMetrics> reported = new AtomicReference<>();
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .logLevel(logLevel)
+            .startupListener((p, metrics) -> reported.set(metrics))
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            VaultServerProcess process = executable.start();
+            VaultStartupMetrics metrics = process.getStartupMetrics();
+            assertSame(metrics, reported.get());
+            assertTrue(metrics.getResolveNanos() > 0);
+            assertTrue(metrics.getExtractNanos() > 0);
+            assertTrue(metrics.getCommandLineNanos() > 0);
+            assertTrue(metrics.getSpawnNanos() > 0);
+            assertEquals(process.getReadinessNanos(), metrics.getReadinessNanos());
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testResolveMetricsWithDistribution() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .logLevel(logLevel)
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config,
+            Distribution.detectFor(config.version()));
+        try {
+            VaultServerProcess process = executable.start();
+            assertTrue(process.getStartupMetrics().getResolveNanos() > 0);
+            process.stop();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testParallelStart() {
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        List<CompletableFuture<VaultServerExecutable>> executables = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            VaultServerConfig config = new VaultServerConfig.Builder()
+                .randomPort()
+                .logLevel(logLevel)
+                .build();
+            executables.add(starter.prepareAsync(config));
+        }
+        try {
+            List<CompletableFuture<VaultServerProcess>> processes = new ArrayList<>();
+            for (CompletableFuture<VaultServerExecutable> executable : executables) {
+                processes.add(executable.thenCompose(VaultServerExecutable::startAsync));
+            }
+            for (CompletableFuture<VaultServerProcess> process : processes) {
+                assertTrue(process.join().isProcessRunning());
+            }
+        } finally {
+            executables.forEach(e -> e.join().stop());
+        }
+    }
+
+    @Test
+    public void testStopPolicy() throws IOException {
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        List<VaultServerExecutable> executables = new ArrayList<>();
+        List<VaultServerProcess> processes = new ArrayList<>();
+        try {
+            for (VaultStopPolicy policy : Arrays.asList(
+                VaultStopPolicy.defaults(), VaultStopPolicy.forcible()))
+            {
+                VaultServerConfig config = new VaultServerConfig.Builder()
+                    .randomPort()
+                    .logLevel(logLevel)
+                    .stopPolicy(policy)
+                    .build();
+                VaultServerExecutable executable = starter.prepare(config);
+                executables.add(executable);
+                processes.add(executable.start());
+            }
+            assertEquals(-1, processes.get(0).getStopNanos());
+            VaultServerProcess.stopAll(processes);
+            for (VaultServerProcess process : processes) {
+                assertFalse(process.isProcessRunning());
+                assertTrue(process.getStopNanos() > 0);
+            }
+            assertFalse(processes.get(0).isKilled());
+            assertTrue(processes.get(1).isKilled());
+        } finally {
+            VaultServerExecutable.stopAll(executables);
+        }
+    }
+
+    @Test
+    public void testStopAsync() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .logLevel(logLevel)
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            VaultServerProcess process = executable.start();
+            process.stopAsync().join();
+            assertFalse(process.isProcessRunning());
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testUnixSocket() throws IOException {
+        assumeTrue(VaultUnixSockets.isSupported());
+        File socket = new File(folder.getRoot(), "vault.sock");
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .logLevel(logLevel)
+            .unixSocket(socket.getAbsolutePath())
+            .readiness(VaultReadiness.HEALTH_PROBE)
+            .build();
+        assertFalse(config.isDevMode());
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            VaultServerProcess process = executable.start();
+            assertTrue(socket.exists());
+            try (VaultClient client = new VaultClient(process)) {
+                client.write("secret/foo", Collections.singletonMap("value", "bar"));
+                assertEquals("bar", VaultJson.get(
+                    client.read("secret/foo"), "data", "value"));
+            }
+        } finally {
+            executable.stop();
+        }
+        assertFalse(socket.exists());
+    }
+
+    @Test
+    public void testStartupInfo() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .logLevel(logLevel)
+            .readiness(VaultReadiness.HEALTH_PROBE)
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            VaultServerProcess process = executable.start();
+            VaultStartupInfo info = process.getStartupInfo();
+            assertNotNull(info);
+            assertEquals("http://127.0.0.1:" + config.getListenerPort(),
+                info.getApiAddress());
+            assertEquals(config.getRootTokenID(), info.getRootToken());
+            assertEquals("0.11.1", info.getVersion());
+            assertNotNull(info.getUnsealKey());
+            assertEquals(info.getUnsealKey(), process.getUnsealKey());
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testTunedListener() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .logLevel(logLevel)
+            .readiness(VaultReadiness.HEALTH_PROBE)
+            .listener(VaultListenerConfig.defaults().maxRequestSize(1024 * 1024))
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            VaultServerProcess process = executable.start();
+            assertTrue(process.isProcessRunning());
+            assertNotNull(process.getUnsealKey());
+            assertEquals(config.getRootTokenID(),
+                process.getStartupInfo().getRootToken());
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testLogEvents() throws IOException, InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .logLevel(logLevel)
+            .logEventListener(event -> {
+                if (event.isSubsystem("core")
+                    && event.getMessage().equals("security barrier not initialized"))
+                {
+                    assertEquals(VaultLogLevel.INFO, event.getLevel());
+                    received.countDown();
+                }
+            })
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable executable = starter.prepare(config);
+        try {
+            executable.start();
+            boolean logged = logLevel.compareTo(VaultLogLevel.INFO) <= 0;
+            assertEquals(logged, received.await(logged ? 10 : 1, TimeUnit.SECONDS));
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testExecutableIsReused() {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .logLevel(logLevel)
+            .build();
+        VaultServerStarter starter = VaultServerStarter.getDefaultInstance();
+        VaultServerExecutable first = starter.prepare(config);
+        VaultServerExecutable second = starter.prepare(config);
+        File executable = Files.fileOf(
+            first.getFile().baseDir(), first.getFile().executable());
+        assertEquals(executable, Files.fileOf(
+            second.getFile().baseDir(), second.getFile().executable()));
+        first.stop();
+        second.stop();
+        assertTrue(executable.isFile());
+    }
+
     @Test
     public void testCustomVersion() throws IOException {
         VaultServerConfig config = new VaultServerConfig.Builder()
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultStateResetTest {
+
+    private static VaultServerConfig inMemoryConfig() {
+        return new VaultServerConfig.Builder()
+            .randomPort()
+            .inMemory(true)
+            .build();
+    }
+
+    @Test
+    public void testResetInMemory() throws IOException {
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(inMemoryConfig());
+        try {
+            VaultServerProcess process = executable.start();
+            String childToken = modify(process);
+            process.reset();
+            assertReset(process, childToken);
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test
+    public void testResetOverApi() throws IOException {
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(inMemoryConfig());
+        try {
+            VaultServerProcess process = executable.start();
+            String childToken = modify(process);
+            VaultStateReset.reset(process.getConfig());
+            assertReset(process, childToken);
+        } finally {
+            executable.stop();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testResetStoppedServer() throws IOException {
+        VaultServerProcess process = VaultServerStarter.getDefaultInstance()
+            .prepare(inMemoryConfig()).start();
+        process.stop();
+        process.reset();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testResetOutsideDevModeIsRejected() throws IOException {
+        VaultServerConfig config = new VaultServerConfig.Builder()
+            .randomPort()
+            .listener(VaultListenerConfig.defaults())
+            .build();
+        VaultServerExecutable executable =
+            VaultServerStarter.getDefaultInstance().prepare(config);
+        try {
+            executable.start().reset();
+        } finally {
+            executable.stop();
+        }
+    }
+
+    private static String modify(VaultServerProcess process)
+        throws IOException
+    {
+        try (VaultClient client = new VaultClient(process)) {
+            client.write("secret/data/app", Collections.singletonMap("data",
+                Collections.singletonMap("password", "s3cr3t")));
+            client.write("sys/mounts/transit",
+                Collections.singletonMap("type", "transit"));
+            client.write("sys/policy/app",
+                Collections.singletonMap("policy", "path \"secret/*\" {}"));
+            Map<String, Object> created = client.write("auth/token/create",
+                Collections.singletonMap("policies",
+                    Collections.singletonList("app")));
+            return (String) VaultJson.get(created, "auth", "client_token");
+        }
+    }
+
+    private static void assertReset(VaultServerProcess process,
+        String childToken) throws IOException
+    {
+        VaultServerConfig config = process.getConfig();
+        assertTrue(process.isProcessRunning());
+        try (VaultClient client = new VaultClient(process)) {
+            assertNull(client.read("secret/data/app"));
+            Map<String, Object> mounts = client.read("sys/mounts");
+            assertNotNull(VaultJson.get(mounts, "data", "secret/"));
+            assertNull(VaultJson.get(mounts, "data", "transit/"));
+            assertNull(client.read("sys/policy/app"));
+            assertNotNull(client.read("auth/token/lookup-self"));
+        }
+        try (VaultClient client = new VaultClient(config.getListenerHost(),
+            config.getListenerPort(), childToken, 1))
+        {
+            client.read("auth/token/lookup-self");
+            fail("The child token was not revoked");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HTTP 403"));
+        }
+    }
+
+}
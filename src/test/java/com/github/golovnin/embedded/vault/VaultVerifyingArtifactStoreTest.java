@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018, Andrej Golovnin
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ *  Neither the name of fontviewer nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.github.golovnin.embedded.vault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfigBuilder;
+import de.flapdoodle.embed.process.config.store.IDownloadConfig;
+import de.flapdoodle.embed.process.distribution.BitSize;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Platform;
+import de.flapdoodle.embed.process.extract.IExtractedFileSet;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.directories.FixedPath;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Andrej Golovnin
+ */
+public class VaultVerifyingArtifactStoreTest {
+
+    private static final byte[] GOOD = "good archive".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CORRUPT = "corrupt archive".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Distribution distribution =
+        new Distribution(VaultVersion.V0_11_1, Platform.Linux, BitSize.B64);
+
+    private final VaultPackageResolver resolver = new VaultPackageResolver();
+
+    private File storeDir;
+    private IDownloadConfig downloadConfig;
+
+    @Before
+    public void setUp() throws IOException {
+        storeDir = folder.newFolder("store");
+        downloadConfig = new DownloadConfigBuilder()
+            .fileNaming(new UUIDTempNaming())
+            .downloadPath("http://127.0.0.1:1/")
+            .progressListener(new StandardConsoleProgressListener())
+            .artifactStorePath(new FixedPath(storeDir.getAbsolutePath()))
+            .downloadPrefix("embedded-vault-download")
+            .packageResolver(resolver)
+            .userAgent("test")
+            .build();
+        writeChecksums(VaultVerifyingArtifactStore.sha256(write(folder.newFile(), GOOD)));
+    }
+
+    @Test
+    public void testValidArchiveIsHashedOnce() throws IOException {
+        FakeStore delegate = new FakeStore(GOOD);
+        IArtifactStore store = newStore(delegate);
+        assertTrue(store.checkDistribution(distribution));
+        assertTrue(new File(storeDir, VaultVerifyingArtifactStore.INDEX_FILE_NAME).isFile());
+
+        // A warm run must rely on the index and not hash the archive again.
+        writeChecksums("0000");
+        assertTrue(store.checkDistribution(distribution));
+        assertEquals(2, delegate.checks);
+    }
+
+    @Test
+    public void testCorruptArchiveIsDownloadedAgain() throws IOException {
+        FakeStore delegate = new FakeStore(CORRUPT, GOOD);
+        assertTrue(newStore(delegate).checkDistribution(distribution));
+        assertEquals(2, delegate.checks);
+        assertArrayEquals(GOOD, Files.readAllBytes(archive().toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testPermanentlyCorruptArchive() throws IOException {
+        newStore(new FakeStore(CORRUPT, CORRUPT)).checkDistribution(distribution);
+    }
+
+    @Test
+    public void testArchiveWithoutChecksumIsValidated() throws IOException {
+        Files.delete(new File(storeDir,
+            resolver.getChecksumsPath(distribution)).toPath());
+        byte[] zip = zip("vault", GOOD);
+        byte[] truncated = Arrays.copyOf(zip, zip.length - 10);
+        FakeStore delegate = new FakeStore(truncated, zip);
+        assertTrue(newStore(delegate).checkDistribution(distribution));
+        assertEquals(2, delegate.checks);
+        assertArrayEquals(zip, Files.readAllBytes(archive().toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testArchiveWithoutChecksumIsNotZip() throws IOException {
+        Files.delete(new File(storeDir,
+            resolver.getChecksumsPath(distribution)).toPath());
+        newStore(new FakeStore(GOOD, GOOD)).checkDistribution(distribution);
+    }
+
+    private static byte[] zip(String name, byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(content);
+            zip.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    private IArtifactStore newStore(IArtifactStore delegate) throws IOException {
+        return new VaultVerifyingArtifactStore(delegate, downloadConfig,
+            new FixedPath(folder.newFolder().getAbsolutePath()));
+    }
+
+    private File archive() {
+        return new File(storeDir, resolver.getPath(distribution));
+    }
+
+    private void writeChecksums(String digest) throws IOException {
+        String archiveName = archive().getName();
+        String content = "1111  vault_0.11.1_darwin_amd64.zip\n"
+            + digest + "  " + archiveName + '\n';
+        write(new File(storeDir, resolver.getChecksumsPath(distribution)),
+            content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static File write(File file, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * Simulates the download of an archive on every check of a missing one.
+     */
+    private final class FakeStore implements IArtifactStore {
+
+        private final Deque<byte[]> downloads;
+        private int checks;
+
+        FakeStore(byte[]... downloads) {
+            this.downloads = new ArrayDeque<>(Arrays.asList(downloads));
+        }
+
+        @Override
+        public boolean checkDistribution(Distribution distribution)
+            throws IOException
+        {
+            checks++;
+            if (!archive().isFile()) {
+                write(archive(), downloads.remove());
+            }
+            return true;
+        }
+
+        @Override
+        public IExtractedFileSet extractFileSet(Distribution distribution) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeFileSet(Distribution distribution,
+            IExtractedFileSet files)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}